@@ -0,0 +1,25 @@
+package de.droidgames.lunarlanderextended;
+
+/**
+ * A computer player. It sees the World and drives the same inputs a human
+ * does, so a bot can play inside LunarThread as well as in headless runs.
+ */
+public interface Bot {
+	/**
+	 * The input side of the game, as driven by touch, keys and the
+	 * accelerometer.
+	 */
+	interface Controls {
+		/**
+		 * @param tiltAngle tilt in degrees, positive moves the blob right
+		 */
+		void doAccelerate(float tiltAngle);
+
+		void doJump();
+	}
+
+	/**
+	 * Called once per physics step, before the world is advanced.
+	 */
+	void think(World world, float elapsed, Controls controls);
+}
@@ -0,0 +1,115 @@
+package de.droidgames.lunarlanderextended;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.drawable.Drawable;
+
+/**
+ * Plays a DrawList on a Canvas. Sprites, bitmaps and glyphs are referred to
+ * by the ids the list was recorded with and have to be registered here
+ * first.
+ */
+public class CanvasBackend {
+	private final Drawable[] mSprites;
+	private final Bitmap[] mBitmaps;
+	private final Paint mPaint;
+	private GlyphAtlas mGlyphs;
+
+	public CanvasBackend(int sprites, int bitmaps, Paint paint) {
+		mSprites = new Drawable[sprites];
+		mBitmaps = new Bitmap[bitmaps];
+		mPaint = paint;
+	}
+
+	public void setSprite(int id, Drawable d) {
+		mSprites[id] = d;
+	}
+
+	public void setBitmap(int id, Bitmap b) {
+		mBitmaps[id] = b;
+	}
+
+	public void setGlyphs(GlyphAtlas glyphs) {
+		mGlyphs = glyphs;
+	}
+
+	public void draw(DrawList list, Canvas canvas) {
+		draw(list, canvas, 1.0f);
+	}
+
+	/**
+	 * Plays the list scaled by the given factor, e.g. into a smaller offscreen
+	 * bitmap. Registered bitmaps are expected to be scaled already and are
+	 * blitted 1:1 at the scaled position instead of being resampled.
+	 */
+	public void draw(DrawList list, Canvas canvas, float scale) {
+		canvas.save();
+		if (scale != 1.0f)
+			canvas.scale(scale, scale);
+
+		final int[] ints = list.mInts;
+		final float[] floats = list.mFloats;
+		int ip = 0;
+		int fp = 0;
+		for (int i = 0; i < list.mSize; i++) {
+			int op = ints[ip];
+			switch (op) {
+			case DrawList.OP_BITMAP:
+				if (scale != 1.0f) {
+					canvas.save();
+					canvas.scale(1.0f / scale, 1.0f / scale);
+					canvas.drawBitmap(mBitmaps[ints[ip + 1]], floats[fp] * scale, floats[fp + 1] * scale, null);
+					canvas.restore();
+				} else {
+					canvas.drawBitmap(mBitmaps[ints[ip + 1]], floats[fp], floats[fp + 1], null);
+				}
+				break;
+			case DrawList.OP_SPRITE:
+				Drawable d = mSprites[ints[ip + 1]];
+				d.setBounds(ints[ip + 2], ints[ip + 3], ints[ip + 4], ints[ip + 5]);
+				d.draw(canvas);
+				break;
+			case DrawList.OP_RECT:
+				mPaint.setColor(ints[ip + 1]);
+				canvas.drawRect(floats[fp], floats[fp + 1], floats[fp + 2], floats[fp + 3], mPaint);
+				break;
+			case DrawList.OP_TEXT:
+				mPaint.setColor(ints[ip + 1]);
+				canvas.drawText(list.mTexts[ints[ip + 2]], floats[fp], floats[fp + 1], mPaint);
+				break;
+			case DrawList.OP_GLYPH:
+				mPaint.setColor(ints[ip + 1]);
+				mGlyphs.draw(canvas, ints[ip + 2], floats[fp], floats[fp + 1], mPaint);
+				break;
+			case DrawList.OP_LINE:
+				mPaint.setColor(ints[ip + 1]);
+				canvas.drawLine(floats[fp], floats[fp + 1], floats[fp + 2], floats[fp + 3], mPaint);
+				break;
+			case DrawList.OP_SAVE:
+				canvas.save();
+				break;
+			case DrawList.OP_RESTORE:
+				canvas.restore();
+				break;
+			case DrawList.OP_ROTATE:
+				canvas.rotate(floats[fp], floats[fp + 1], floats[fp + 2]);
+				break;
+			case DrawList.OP_CLIP:
+				canvas.clipRect(floats[fp], floats[fp + 1], floats[fp + 2], floats[fp + 3]);
+				break;
+			case DrawList.OP_POINTS:
+				if (ints[ip + 3] > 0) {
+					mPaint.setColor(ints[ip + 1]);
+					mPaint.setStrokeWidth(ints[ip + 2]);
+					canvas.drawPoints(floats, fp, 2 * ints[ip + 3], mPaint);
+					mPaint.setStrokeWidth(0);
+				}
+				break;
+			}
+			fp += DrawList.floats(ints, ip);
+			ip += 1 + DrawList.INTS[op];
+		}
+		canvas.restore();
+	}
+}
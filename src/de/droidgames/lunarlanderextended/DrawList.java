@@ -0,0 +1,277 @@
+package de.droidgames.lunarlanderextended;
+
+/**
+ * A recorded list of draw commands for one frame.
+ *
+ * doDraw() and Maze.draw() record into a DrawList instead of calling Canvas
+ * directly; CanvasBackend then plays the list on the device. Commands are
+ * stored as an opcode plus int and float operands in flat arrays that grow as
+ * needed and are reused by reset(), so recording a frame does not allocate
+ * once the arrays are big enough.
+ *
+ * The class has no Android dependencies, so a recorded frame can be counted,
+ * compared and timed on a plain JVM.
+ */
+public final class DrawList {
+	/*
+	 * Opcodes. Int operands come first, then float operands.
+	 */
+	/** bitmap id; x, y */
+	public static final int OP_BITMAP = 0;
+	/** sprite id, left, top, right, bottom */
+	public static final int OP_SPRITE = 1;
+	/** color; left, top, right, bottom */
+	public static final int OP_RECT = 2;
+	/** color, text index; x, y */
+	public static final int OP_TEXT = 3;
+	/** color; x0, y0, x1, y1 */
+	public static final int OP_LINE = 4;
+	public static final int OP_SAVE = 5;
+	public static final int OP_RESTORE = 6;
+	/** ; degrees, pivot x, pivot y */
+	public static final int OP_ROTATE = 7;
+	/** ; left, top, right, bottom */
+	public static final int OP_CLIP = 8;
+	/** color, size, count; count x/y pairs */
+	public static final int OP_POINTS = 9;
+	/** color, glyph id; x, y of the baseline */
+	public static final int OP_GLYPH = 10;
+
+	public static final int OP_COUNT = 11;
+
+	/** Number of int operands of each opcode, not counting the opcode. */
+	static final int[] INTS = { 1, 5, 1, 2, 1, 0, 0, 0, 0, 3, 2 };
+	/** Number of float operands of each opcode, see floats() for OP_POINTS. */
+	static final int[] FLOATS = { 2, 0, 4, 2, 4, 0, 0, 3, 4, 0, 2 };
+
+	int[] mInts = new int[256];
+	int mIntCount;
+	float[] mFloats = new float[256];
+	int mFloatCount;
+	String[] mTexts = new String[8];
+	int mTextCount;
+
+	/** Number of commands recorded. */
+	int mSize;
+
+	/** Int index of the count of the OP_POINTS being recorded */
+	private int mPointCount;
+
+	/**
+	 * Forgets all commands but keeps the storage.
+	 */
+	public void reset() {
+		for (int i = 0; i < mTextCount; i++)
+			mTexts[i] = null;
+		mIntCount = 0;
+		mFloatCount = 0;
+		mTextCount = 0;
+		mSize = 0;
+	}
+
+	/**
+	 * Returns the number of commands recorded.
+	 */
+	public int size() {
+		return mSize;
+	}
+
+	/**
+	 * Returns how many commands with the given opcode were recorded.
+	 */
+	public int count(int op) {
+		int n = 0;
+		int ip = 0;
+		for (int i = 0; i < mSize; i++) {
+			int o = mInts[ip];
+			if (o == op) n++;
+			ip += 1 + INTS[o];
+		}
+		return n;
+	}
+
+	/**
+	 * Returns how many times the given sprite was drawn.
+	 */
+	public int countSprite(int id) {
+		int n = 0;
+		int ip = 0;
+		for (int i = 0; i < mSize; i++) {
+			int o = mInts[ip];
+			if (o == OP_SPRITE && mInts[ip + 1] == id) n++;
+			ip += 1 + INTS[o];
+		}
+		return n;
+	}
+
+	/**
+	 * Compares two recorded frames.
+	 *
+	 * @return index of the first command that differs, or -1 if both lists
+	 *         are the same
+	 */
+	public int diff(DrawList other) {
+		int ip = 0;
+		int fp = 0;
+		int tp = 0;
+		int n = Math.min(mSize, other.mSize);
+		for (int i = 0; i < n; i++) {
+			int o = mInts[ip];
+			if (o != other.mInts[ip]) return i;
+			for (int k = 1; k <= INTS[o]; k++) {
+				if (mInts[ip + k] != other.mInts[ip + k]) return i;
+			}
+			int floats = floats(mInts, ip);
+			if (floats != floats(other.mInts, ip)) return i;
+			for (int k = 0; k < floats; k++) {
+				if (Float.floatToIntBits(mFloats[fp + k])
+						!= Float.floatToIntBits(other.mFloats[fp + k]))
+					return i;
+			}
+			if (o == OP_TEXT) {
+				if (!mTexts[tp].equals(other.mTexts[tp])) return i;
+				tp++;
+			}
+			ip += 1 + INTS[o];
+			fp += floats;
+		}
+		return mSize == other.mSize ? -1 : n;
+	}
+
+	public void bitmap(int id, float x, float y) {
+		op(OP_BITMAP);
+		putInt(id);
+		putFloat(x);
+		putFloat(y);
+	}
+
+	public void sprite(int id, int left, int top, int right, int bottom) {
+		op(OP_SPRITE);
+		putInt(id);
+		putInt(left);
+		putInt(top);
+		putInt(right);
+		putInt(bottom);
+	}
+
+	public void rect(int color, float left, float top, float right, float bottom) {
+		op(OP_RECT);
+		putInt(color);
+		putFloat(left);
+		putFloat(top);
+		putFloat(right);
+		putFloat(bottom);
+	}
+
+	public void text(int color, String text, float x, float y) {
+		op(OP_TEXT);
+		putInt(color);
+		if (mTextCount == mTexts.length) {
+			String[] t = new String[mTexts.length * 2];
+			System.arraycopy(mTexts, 0, t, 0, mTextCount);
+			mTexts = t;
+		}
+		putInt(mTextCount);
+		mTexts[mTextCount++] = text;
+		putFloat(x);
+		putFloat(y);
+	}
+
+	/**
+	 * A glyph of the GlyphAtlas, see HudText.
+	 */
+	public void glyph(int color, int id, float x, float y) {
+		op(OP_GLYPH);
+		putInt(color);
+		putInt(id);
+		putFloat(x);
+		putFloat(y);
+	}
+
+	public void line(int color, float x0, float y0, float x1, float y1) {
+		op(OP_LINE);
+		putInt(color);
+		putFloat(x0);
+		putFloat(y0);
+		putFloat(x1);
+		putFloat(y1);
+	}
+
+	public void save() {
+		op(OP_SAVE);
+	}
+
+	public void restore() {
+		op(OP_RESTORE);
+	}
+
+	public void rotate(float degrees, float px, float py) {
+		op(OP_ROTATE);
+		putFloat(degrees);
+		putFloat(px);
+		putFloat(py);
+	}
+
+	/**
+	 * Limits drawing to the rectangle until the next restore().
+	 */
+	public void clip(float left, float top, float right, float bottom) {
+		op(OP_CLIP);
+		putFloat(left);
+		putFloat(top);
+		putFloat(right);
+		putFloat(bottom);
+	}
+
+	/**
+	 * Starts a batch of points drawn as size x size squares; add them with
+	 * point().
+	 */
+	public void points(int color, int size) {
+		op(OP_POINTS);
+		putInt(color);
+		putInt(size);
+		mPointCount = mIntCount;
+		putInt(0);
+	}
+
+	/**
+	 * Adds a point to the batch started by the last points().
+	 */
+	public void point(float x, float y) {
+		putFloat(x);
+		putFloat(y);
+		mInts[mPointCount]++;
+	}
+
+	/**
+	 * Number of float operands of the command at int index ip.
+	 */
+	static int floats(int[] ints, int ip) {
+		int op = ints[ip];
+		return op == OP_POINTS ? 2 * ints[ip + 3] : FLOATS[op];
+	}
+
+	private void op(int op) {
+		putInt(op);
+		mSize++;
+	}
+
+	private void putInt(int v) {
+		if (mIntCount == mInts.length) {
+			int[] a = new int[mInts.length * 2];
+			System.arraycopy(mInts, 0, a, 0, mIntCount);
+			mInts = a;
+		}
+		mInts[mIntCount++] = v;
+	}
+
+	private void putFloat(float v) {
+		if (mFloatCount == mFloats.length) {
+			float[] a = new float[mFloats.length * 2];
+			System.arraycopy(mFloats, 0, a, 0, mFloatCount);
+			mFloats = a;
+		}
+		mFloats[mFloatCount++] = v;
+	}
+}
@@ -0,0 +1,125 @@
+package de.droidgames.lunarlanderextended;
+
+/**
+ * Table based trigonometry for the physics and sensor code.
+ *
+ * sin/cos interpolate linearly in a table of one full turn, asin in a table
+ * over [0, 0.5] and uses asin(x) = PI/2 - 2*asin(sqrt((1-x)/2)) above that,
+ * where the slope of asin gets too steep for a table. The table sizes are
+ * set by SIN_BITS and ASIN_BITS; with the defaults the tables take 24KB and
+ * the absolute error is below 2e-6 for sin/cos and below 1e-6 rad for asin,
+ * which is about the resolution of a float near 1.
+ *
+ * Replaces android.util.FloatMath, which is deprecated and gone on newer
+ * platforms. tools/.../FastMathBench compares speed and error against
+ * java.lang.Math.
+ */
+public final class FastMath {
+	public static final float PI = 3.14159265358979f;
+	public static final float HALF_PI = PI / 2.0f;
+
+	/** log2 of the number of sin table entries per full turn */
+	public static final int SIN_BITS = 12;
+	/** log2 of the number of asin table entries over [0, 0.5] */
+	public static final int ASIN_BITS = 11;
+
+	private static final int SIN_SIZE = 1 << SIN_BITS;
+	private static final int SIN_MASK = SIN_SIZE - 1;
+	private static final float DEG_TO_INDEX = SIN_SIZE / 360.0f;
+	private static final float RAD_TO_INDEX = SIN_SIZE / (2.0f * PI);
+	private static final float RAD_TO_DEG = 180.0f / PI;
+
+	private static final int ASIN_SIZE = 1 << ASIN_BITS;
+	private static final float ASIN_TO_INDEX = ASIN_SIZE / 0.5f;
+
+	/** One extra entry so the interpolation never wraps. */
+	private static final float[] SIN = new float[SIN_SIZE + 1];
+	private static final float[] ASIN = new float[ASIN_SIZE + 1];
+
+	/*
+	 * StrictMath, so the tables are the same on every VM and a run replayed
+	 * on the server (RunLog) takes exactly the same path.
+	 */
+	static {
+		for (int i = 0; i <= SIN_SIZE; i++)
+			SIN[i] = (float) StrictMath.sin(i * 2.0 * Math.PI / SIN_SIZE);
+		for (int i = 0; i <= ASIN_SIZE; i++)
+			ASIN[i] = (float) StrictMath.asin(i * 0.5 / ASIN_SIZE);
+	}
+
+	private FastMath() {
+	}
+
+	/**
+	 * Sine of an angle in degrees.
+	 */
+	public static float sinDeg(float degrees) {
+		return lookupSin(degrees * DEG_TO_INDEX);
+	}
+
+	/**
+	 * Cosine of an angle in degrees.
+	 */
+	public static float cosDeg(float degrees) {
+		return lookupSin(degrees * DEG_TO_INDEX + SIN_SIZE / 4);
+	}
+
+	public static float sin(float radians) {
+		return lookupSin(radians * RAD_TO_INDEX);
+	}
+
+	public static float cos(float radians) {
+		return lookupSin(radians * RAD_TO_INDEX + SIN_SIZE / 4);
+	}
+
+	/**
+	 * Arc sine in radians; x is clamped to [-1, 1].
+	 */
+	public static float asin(float x) {
+		boolean negative = x < 0.0f;
+		if (negative) x = -x;
+		if (x > 1.0f) x = 1.0f;
+
+		float r;
+		if (x <= 0.5f) {
+			r = lookupAsin(x);
+		} else {
+			r = HALF_PI - 2.0f * lookupAsin(sqrt((1.0f - x) * 0.5f));
+		}
+		return negative ? -r : r;
+	}
+
+	/**
+	 * Arc sine in degrees; x is clamped to [-1, 1].
+	 */
+	public static float asinDeg(float x) {
+		return asin(x) * RAD_TO_DEG;
+	}
+
+	public static float sqrt(float x) {
+		return (float) Math.sqrt(x);
+	}
+
+	/**
+	 * Largest int not greater than x, for x within the int range.
+	 */
+	public static int floor(float x) {
+		int i = (int) x;
+		return x < i ? i - 1 : i;
+	}
+
+	private static float lookupSin(float index) {
+		int i = floor(index);
+		float frac = index - i;
+		i &= SIN_MASK;
+		return SIN[i] + (SIN[i + 1] - SIN[i]) * frac;
+	}
+
+	private static float lookupAsin(float x) {
+		float index = x * ASIN_TO_INDEX;
+		int i = (int) index;
+		if (i >= ASIN_SIZE) return ASIN[ASIN_SIZE];
+		float frac = index - i;
+		return ASIN[i] + (ASIN[i + 1] - ASIN[i]) * frac;
+	}
+}
@@ -0,0 +1,70 @@
+package de.droidgames.lunarlanderextended;
+
+/**
+ * Q16.16 fixed point numbers in an int: 16 bits integer part, 16 bits
+ * fraction, about +-32768 with a resolution of 1/65536.
+ *
+ * Integer operations give the same bits on every device and VM, which is
+ * what World's fixed point mode is for. They are also cheap on devices
+ * without a fast FPU.
+ */
+public final class Fixed {
+	public static final int SHIFT = 16;
+	public static final int ONE = 1 << SHIFT;
+	public static final int HALF = ONE >> 1;
+
+	/** Entries of the sine table per full turn */
+	private static final int SIN_BITS = 10;
+	private static final int SIN_SIZE = 1 << SIN_BITS;
+	private static final long TURN = 360L << SHIFT;
+
+	/** One extra entry so the interpolation never wraps. */
+	private static final int[] SIN = new int[SIN_SIZE + 1];
+
+	static {
+		// StrictMath and round(), so the table is the same everywhere
+		for (int i = 0; i <= SIN_SIZE; i++)
+			SIN[i] = (int) StrictMath.round(StrictMath.sin(i * 2.0 * Math.PI / SIN_SIZE) * ONE);
+	}
+
+	private Fixed() {
+	}
+
+	public static int fromInt(int i) {
+		return i << SHIFT;
+	}
+
+	/**
+	 * Truncates towards zero, like any float to int cast.
+	 */
+	public static int fromFloat(float f) {
+		return (int) (f * ONE);
+	}
+
+	public static float toFloat(int x) {
+		return x * (1.0f / ONE);
+	}
+
+	public static int mul(int a, int b) {
+		return (int) (((long) a * b) >> SHIFT);
+	}
+
+	public static int div(int a, int b) {
+		return (int) (((long) a << SHIFT) / b);
+	}
+
+	/**
+	 * Sine of an angle in degrees, interpolated from a table; the error is
+	 * below 2e-5.
+	 */
+	public static int sinDeg(int deg) {
+		long d = deg % TURN;
+		if (d < 0) d += TURN;
+		// table position, again Q16.16
+		long pos = (d * SIN_SIZE << SHIFT) / TURN;
+		int i = (int) (pos >> SHIFT);
+		int frac = (int) (pos & (ONE - 1));
+		int a = SIN[i];
+		return a + (int) (((long) (SIN[i + 1] - a) * frac) >> SHIFT);
+	}
+}
@@ -0,0 +1,222 @@
+package de.droidgames.lunarlanderextended;
+
+/**
+ * Records the frame of a RenderSnapshot into DrawLists: the moon surface or
+ * the maze into one list, the texts and energy bar into another. Only the
+ * snapshot and the sizes set here are read, so tools/.../DrawBudget can
+ * record frames without a device and count their draw calls.
+ */
+public final class FrameRecorder {
+	public static final int GAUGE_WIDTH = 150; // width of gauge Bar in pixels
+	public static final int HINT_LENGTH = 24; // length of maze hint arrow in pixels
+	public static final int HUD_COLOR = 0xFF00FF00;
+	public static final int HUD_FLASH_COLOR = 0xFFFFFFFF;
+
+	/*
+	 * Labels of the HUD, pre-rendered as a whole
+	 */
+	public static final int HUD_DIAMONDS = 0;
+	public static final int HUD_TIME = 1;
+
+	/*
+	 * Sprite and bitmap ids used in the DrawList
+	 */
+	public static final int SPRITE_BALL = 0;
+	public static final int SPRITE_DIAMOND = 1;
+	public static final int SPRITE_LANDER = 2;
+	public static final int SPRITE_CRATER = 3;
+	public static final int SPRITE_GHOST = 4;
+	public static final int SPRITE_COUNT = 5;
+	public static final int BITMAP_BACKGROUND = 0;
+	public static final int BITMAP_GROUND = 1;
+	public static final int BITMAP_MID = 2;
+	public static final int BITMAP_COUNT = 3;
+
+	/*
+	 * Parallax scroll factors, relative to the craters and diamonds
+	 */
+	public static final float BACKGROUND_SCROLL = 0.0f;
+	public static final float GROUND_SCROLL = 1.0f / 3.0f;
+	public static final float MID_SCROLL = 1.0f;
+
+	/** Repeating layers of the moon surface, tiles set by whoever scales the bitmaps */
+	private final ParallaxLayer mBackgroundLayer = new ParallaxLayer(BITMAP_BACKGROUND, BACKGROUND_SCROLL, 0);
+	private final ParallaxLayer mGroundLayer = new ParallaxLayer(BITMAP_GROUND, GROUND_SCROLL, -100);
+	private final ParallaxLayer mMidLayer = new ParallaxLayer(BITMAP_MID, MID_SCROLL, 0);
+
+	private final HudText mHudText;
+
+	/** Image size of each sprite */
+	private final int[] mSpriteWidth = new int[SPRITE_COUNT];
+	private final int[] mSpriteHeight = new int[SPRITE_COUNT];
+
+	private int mWidth = 1;
+	private int mHeight = 1;
+
+	private final float[] mGhostX = new float[GhostProtocol.MAX_PLAYERS];
+	private final float[] mGhostY = new float[GhostProtocol.MAX_PLAYERS];
+	private final float[] mGhostTilt = new float[GhostProtocol.MAX_PLAYERS];
+
+	/**
+	 * @param hudText layout of the HUD labels HUD_DIAMONDS and HUD_TIME
+	 */
+	public FrameRecorder(HudText hudText) {
+		mHudText = hudText;
+	}
+
+	public ParallaxLayer getBackgroundLayer() {
+		return mBackgroundLayer;
+	}
+
+	public ParallaxLayer getGroundLayer() {
+		return mGroundLayer;
+	}
+
+	public ParallaxLayer getMidLayer() {
+		return mMidLayer;
+	}
+
+	/** Size of the image of a SPRITE_* */
+	public void setSpriteSize(int sprite, int width, int height) {
+		mSpriteWidth[sprite] = width;
+		mSpriteHeight[sprite] = height;
+	}
+
+	/** Size of the surface in pixels */
+	public void setSize(int width, int height) {
+		mWidth = width;
+		mHeight = height;
+	}
+
+	/**
+	 * Records the moon surface level.
+	 *
+	 * @param flash whether the diamond count lights up
+	 * @param ghosts the ghost race, or null
+	 */
+	public void recordSurface(DrawList list, DrawList hud, RenderSnapshot s, boolean flash, GhostClient ghosts) {
+		int bw = mSpriteWidth[SPRITE_BALL];
+		int bh = mSpriteHeight[SPRITE_BALL];
+		int dw = mSpriteWidth[SPRITE_DIAMOND];
+		int dh = mSpriteHeight[SPRITE_DIAMOND];
+		int cw = mSpriteWidth[SPRITE_CRATER];
+		int ch = mSpriteHeight[SPRITE_CRATER];
+		int lw = mSpriteWidth[SPRITE_LANDER];
+		int lh = mSpriteHeight[SPRITE_LANDER];
+
+		// Draw the background image. Operations on the Canvas accumulate
+		// so this is like clearing the screen.
+		mBackgroundLayer.draw(list, s.scrollX, 0, mWidth);
+		int color = flash ? HUD_FLASH_COLOR : HUD_COLOR;
+		float x = mHudText.label(hud, color, HUD_DIAMONDS, 5, 20);
+		mHudText.number(hud, color, s.diamonds, 1, x, 20);
+
+		x = mHudText.label(hud, HUD_COLOR, HUD_TIME, 5, 40);
+		mHudText.time(hud, HUD_COLOR, s.playMillis, x, 40);
+		list.save();
+		mGroundLayer.draw(list, s.scrollX, 0, mWidth);
+
+		if (s.scrollX+lw+10 > 0) {
+			list.sprite(SPRITE_LANDER, (int)(10+s.scrollX-lw),mHeight-lh, (int)(10+s.scrollX), mHeight);
+		}
+		for (int i=0;i<World.NUMBER_OF_CRATERS;i++) {
+			int left = (int)(s.xCraters[i]+s.scrollX-cw/3);
+			int right =(int)(s.xCraters[i]+s.scrollX+cw/3);
+			int top = (int)(mHeight-ch/2);
+			int bottom = (int)(mHeight);
+
+			if (i<World.NUMBER_OF_CRATERS-1) {
+				// only the visible part of the strip up to the next crater
+				float leftm = Math.max(s.xCraters[i]+s.scrollX, 0);
+				float rightm = Math.min(s.xCraters[i+1]+s.scrollX-cw/3, mWidth);
+				if (leftm < rightm) {
+					list.save();
+					list.clip(leftm, top+10, rightm, bottom);
+					mMidLayer.draw(list, s.scrollX, leftm, rightm);
+					list.restore();
+				}
+			}
+			if (left+cw>0 && right-cw<mWidth) {
+				list.sprite(SPRITE_CRATER, left, top, right, bottom);
+			}
+		}
+
+		for (int i=0;i<World.NUMBER_OF_DIAMONDS;i++) {
+			if (s.diamondsViz[i] == true) {
+				int left = (int)(s.xDiamonds[i]+s.scrollX-dw/2);
+				int right =(int)(s.xDiamonds[i]+s.scrollX+dw/2);
+				int top = (int)(s.yDiamonds[i]-dh/2);
+				int bottom = (int)(s.yDiamonds[i]+dh/2);
+				if (left+dw>0 && right-dw<mWidth) {
+					list.sprite(SPRITE_DIAMOND, left, top, right, bottom);
+				}
+			}
+		}
+		s.sparkles.draw(list, s.scrollX);
+		s.dust.draw(list, s.scrollX);
+
+		// other players, in world coordinates like the particles
+		if (ghosts != null) {
+			int n = ghosts.getGhosts(System.currentTimeMillis(), mGhostX, mGhostY, mGhostTilt);
+			for (int i=0;i<n;i++) {
+				float gx = mGhostX[i]+s.scrollX;
+				list.sprite(SPRITE_GHOST, (int)(gx-bw/4.0f),(int)(mGhostY[i]-bh/2.0f),
+						(int)(gx+bw/4.0f), (int)mGhostY[i]);
+			}
+		}
+		recordEnergy(hud, s.energy);
+
+		list.rotate(s.heading, s.blobX, s.blobY-bh/4.0f);
+		// Draw Blob on his location
+		list.sprite(SPRITE_BALL, (int)(s.blobX-bw/4.0f),(int)(s.blobY-bh/2.0f),
+				(int)(s.blobX+bw/4.0f), (int)s.blobY);
+
+		list.restore();
+	}
+
+	/**
+	 * Records the maze level: what the camera of the snapshot sees, the
+	 * blob and the hint arrow.
+	 */
+	public void recordMaze(DrawList list, RenderSnapshot s) {
+		int bw = mSpriteWidth[SPRITE_BALL];
+		int bh = mSpriteHeight[SPRITE_BALL];
+
+		s.maze.draw(list);
+
+		float bx = s.blobX - s.maze.cameraX;
+		float by = s.blobY - s.maze.cameraY;
+		list.sprite(SPRITE_BALL, (int)(bx-bw/4.0f),(int)(by-bh/2.0f),
+				(int)(bx+bw/4.0f), (int)by);
+
+		// hint arrow: which way to the nearest exit
+		if (s.hintX != 0 || s.hintY != 0) {
+			float cy = by - bh/4.0f;
+			list.line(HUD_COLOR, bx, cy, bx + s.hintX * HINT_LENGTH, cy + s.hintY * HINT_LENGTH);
+		}
+	}
+
+	/**
+	 * Draws the energy Bar
+	 */
+	private void recordEnergy(DrawList list, int energy) {
+		// See what fraction of energy we're having.
+		float fuelFrac = (float) energy / (float)World.mTotalEnergy;
+
+		// Draw the fuel bar.
+		float w = (float) GAUGE_WIDTH * fuelFrac;
+		list.rect(energyColor(fuelFrac), mWidth-150, 5, mWidth-150 + w, 25);
+	}
+
+	/**
+	 * Color of the energy bar, from red when empty over yellow to green
+	 * when full; the hue is fraction * 120 degrees at full saturation and
+	 * value.
+	 */
+	static int energyColor(float fraction) {
+		float hue = Math.max(0.0f, Math.min(1.0f, fraction)) * 120.0f;
+		int r = hue <= 60.0f ? 255 : Math.round((120.0f - hue) / 60.0f * 255.0f);
+		int g = hue >= 60.0f ? 255 : Math.round(hue / 60.0f * 255.0f);
+		return 0xFF000000 | r << 16 | g << 8;
+	}
+}
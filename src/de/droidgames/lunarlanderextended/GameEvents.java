@@ -0,0 +1,164 @@
+package de.droidgames.lunarlanderextended;
+
+/**
+ * What happened in the game, as typed events from the physics to whoever
+ * reacts to them: sounds, vibration, particles, the HUD, the journal and
+ * the telemetry. The physics only appends events and goes on; nothing is
+ * played or written in the middle of a step.
+ *
+ * Events are three ints in a preallocated ring. The producer post()s the
+ * events of a tick and publish()es them together at its end. Every
+ * subscriber has a Cursor of its own and dispatch()es the published batch
+ * when it suits its thread, e.g. once per frame or per tick, so slow
+ * subscribers can run off the game thread. Slots are reused only after
+ * every cursor has passed them; when the ring is full the event is dropped
+ * and counted instead of waiting, like in Telemetry. A cursor that is never
+ * dispatched holds up the ring, so subscribe only what will be polled.
+ * What must not be lost, like the journal, is set as the recorder instead,
+ * which gets every event as it is posted.
+ *
+ * Posting is for one thread at a time, e.g. under a lock the physics holds
+ * anyway. Nothing is allocated after subscribing.
+ */
+public final class GameEvents {
+	/*
+	 * Event types
+	 */
+	public static final int PICKUP = 1;				// a: diamond, b: diamonds collected
+	public static final int CRATER_HIT = 2;			// a: crater, b: energy left
+	public static final int ENERGY_DEPLETED = 3;	// a: crater
+	public static final int STATE = 4;				// a: new state, b: ms played
+
+	/** Events in the ring; a power of two */
+	public static final int DEFAULT_CAPACITY = 256;
+
+	public interface Subscriber {
+		void onEvent(int type, int a, int b);
+	}
+
+	/** How far a subscriber has read */
+	public static final class Cursor {
+		volatile long mNext;
+	}
+
+	private final int mMask;
+	/** type, a, b per slot */
+	private final int[] mEvents;
+
+	private volatile Cursor[] mCursors = new Cursor[0];
+	private Subscriber mRecorder;
+
+	/*
+	 * Producer state; mPublished is what the cursors may read
+	 */
+	private long mWritten;
+	private volatile long mPublished;
+	/** Lowest cursor when last looked, slots below it are free */
+	private long mFreeUntil;
+	private int mDropped;
+
+	public GameEvents() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity events in the ring, rounded up to a power of two
+	 */
+	public GameEvents(int capacity) {
+		int n = 1;
+		while (n < capacity) n <<= 1;
+		mMask = n - 1;
+		mEvents = new int[n * 3];
+	}
+
+	/**
+	 * Adds a subscriber, which gets the events published from now on;
+	 * subscribe before the producer starts.
+	 */
+	public synchronized Cursor subscribe() {
+		Cursor c = new Cursor();
+		c.mNext = mPublished;
+		Cursor[] cursors = new Cursor[mCursors.length + 1];
+		System.arraycopy(mCursors, 0, cursors, 0, mCursors.length);
+		cursors[mCursors.length] = c;
+		mCursors = cursors;
+		return c;
+	}
+
+	/**
+	 * Sets the subscriber that gets every event right in post(), on the
+	 * producer's thread and before the ring can drop it. It runs in the
+	 * middle of a step, so it should only copy, e.g. into a buffer.
+	 */
+	public synchronized void setRecorder(Subscriber recorder) {
+		mRecorder = recorder;
+	}
+
+	/**
+	 * Appends an event to the current tick.
+	 *
+	 * @return false if the ring was full and the event was dropped for the
+	 *         cursors; the recorder has it anyway
+	 */
+	public boolean post(int type, int a, int b) {
+		if (mRecorder != null) mRecorder.onEvent(type, a, b);
+		if (mWritten - mFreeUntil > mMask) {
+			mFreeUntil = lowestCursor();
+			if (mWritten - mFreeUntil > mMask) {
+				mDropped++;
+				return false;
+			}
+		}
+		int p = ((int) mWritten & mMask) * 3;
+		mEvents[p] = type;
+		mEvents[p + 1] = a;
+		mEvents[p + 2] = b;
+		mWritten++;
+		return true;
+	}
+
+	/**
+	 * Ends the tick: the events posted since the last publish() become
+	 * visible to the subscribers.
+	 *
+	 * @return number of events published
+	 */
+	public int publish() {
+		int n = (int) (mWritten - mPublished);
+		if (n > 0) mPublished = mWritten;
+		return n;
+	}
+
+	private long lowestCursor() {
+		Cursor[] cursors = mCursors;
+		long lowest = mWritten;
+		for (int i = 0; i < cursors.length; i++) {
+			long next = cursors[i].mNext;
+			if (next < lowest) lowest = next;
+		}
+		return lowest;
+	}
+
+	/**
+	 * Hands the events published since the last call to subscriber, in
+	 * order, on the calling thread; one thread per cursor.
+	 *
+	 * @return number of events dispatched
+	 */
+	public int dispatch(Cursor cursor, Subscriber subscriber) {
+		long end = mPublished;
+		long next = cursor.mNext;
+		for (long i = next; i < end; i++) {
+			int p = ((int) i & mMask) * 3;
+			subscriber.onEvent(mEvents[p], mEvents[p + 1], mEvents[p + 2]);
+		}
+		// frees the slots for the producer
+		cursor.mNext = end;
+		return (int) (end - next);
+	}
+
+	/** Events dropped because the ring was full, since the start */
+	public int getDropped() {
+		return mDropped;
+	}
+}
@@ -0,0 +1,343 @@
+package de.droidgames.lunarlanderextended;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.UnresolvedAddressException;
+import java.util.Iterator;
+
+/**
+ * Connection to a ghost race server (see GhostProtocol).
+ *
+ * Runs its own thread with a non-blocking channel: sends the latest state
+ * given to setState() at a fixed rate, pings the server once a second to
+ * measure the round trip, and keeps the last two states of every other
+ * player. getGhosts() interpolates between those INTERP_DELAY_MS in the
+ * past, so ghosts move smoothly although updates only arrive at the relay
+ * rate.
+ */
+public class GhostClient implements Runnable {
+	private static final String TAG = "GhostClient";
+
+	/** How far behind the newest update ghosts are shown */
+	public static final long INTERP_DELAY_MS = 100;
+
+	/** Ghosts without an update for this long are dropped */
+	public static final long TIMEOUT_MS = 2000;
+
+	public static final long PING_INTERVAL_MS = 1000;
+
+	private final String mHost;
+	private final int mPort;
+	private final long mInterval;
+
+	private volatile boolean mRunning;
+	private Thread mThread;
+	private Selector mSelector;
+
+	/** Own state, written by the game, sent by the client thread */
+	private float mX;
+	private float mY;
+	private float mTilt;
+	private boolean mHasState;
+
+	/** Per player: the two newest states and when they arrived */
+	private final long[] mTime0 = new long[GhostProtocol.MAX_PLAYERS];
+	private final float[] mX0 = new float[GhostProtocol.MAX_PLAYERS];
+	private final float[] mY0 = new float[GhostProtocol.MAX_PLAYERS];
+	private final long[] mTime1 = new long[GhostProtocol.MAX_PLAYERS];
+	private final float[] mX1 = new float[GhostProtocol.MAX_PLAYERS];
+	private final float[] mY1 = new float[GhostProtocol.MAX_PLAYERS];
+	private final float[] mTilt1 = new float[GhostProtocol.MAX_PLAYERS];
+	private final boolean[] mActive = new boolean[GhostProtocol.MAX_PLAYERS];
+
+	private int mPlayer = -1;
+
+	/*
+	 * Statistics
+	 */
+	private volatile long mBytesIn;
+	private volatile long mBytesOut;
+	private volatile float mRtt = -1.0f;
+	private volatile float mLatency = -1.0f;
+	private volatile long mConnected;
+	private volatile String mError;
+
+	public GhostClient(String host, int port, int rate) {
+		mHost = host;
+		mPort = port;
+		mInterval = 1000 / Math.max(1, rate);
+	}
+
+	/**
+	 * Parses "host" or "host:port".
+	 *
+	 * @return a client, or null if address is empty
+	 */
+	public static GhostClient create(String address) {
+		if (address == null) return null;
+		address = address.trim();
+		if (address.length() == 0) return null;
+
+		int port = GhostProtocol.DEFAULT_PORT;
+		int colon = address.lastIndexOf(':');
+		if (colon >= 0) {
+			try {
+				port = Integer.parseInt(address.substring(colon + 1));
+			} catch (NumberFormatException e) {
+				return null;
+			}
+			address = address.substring(0, colon);
+		}
+		return new GhostClient(address, port, GhostProtocol.DEFAULT_RATE);
+	}
+
+	public synchronized void start() {
+		if (mThread != null) return;
+		mRunning = true;
+		mThread = new Thread(this, TAG);
+		mThread.setDaemon(true);
+		mThread.start();
+	}
+
+	/**
+	 * Closes the connection and waits for the client thread.
+	 */
+	public void stop() {
+		Thread t;
+		synchronized (this) {
+			t = mThread;
+			mRunning = false;
+			if (mSelector != null) mSelector.wakeup();
+		}
+		if (t == null) return;
+		boolean retry = true;
+		while (retry) {
+			try {
+				t.join();
+				retry = false;
+			} catch (InterruptedException e) {
+			}
+		}
+	}
+
+	/**
+	 * Sets the state to send with the next update.
+	 */
+	public synchronized void setState(float x, float y, float tilt) {
+		mX = x;
+		mY = y;
+		mTilt = tilt;
+		mHasState = true;
+	}
+
+	/**
+	 * Fills the arrays with the interpolated positions of all ghosts at the
+	 * given time.
+	 *
+	 * @param now System.currentTimeMillis()
+	 * @return number of ghosts, at most GhostProtocol.MAX_PLAYERS
+	 */
+	public synchronized int getGhosts(long now, float[] xs, float[] ys, float[] tilts) {
+		long t = now - INTERP_DELAY_MS;
+		int n = 0;
+		for (int i = 0; i < GhostProtocol.MAX_PLAYERS; i++) {
+			if (!mActive[i]) continue;
+			if (now - mTime1[i] > TIMEOUT_MS) {
+				mActive[i] = false;
+				continue;
+			}
+			float a = 1.0f;
+			long span = mTime1[i] - mTime0[i];
+			if (span > 0) {
+				a = (float) (t - mTime0[i]) / span;
+				if (a < 0.0f) a = 0.0f;
+				else if (a > 1.0f) a = 1.0f;
+			}
+			xs[n] = mX0[i] + (mX1[i] - mX0[i]) * a;
+			ys[n] = mY0[i] + (mY1[i] - mY0[i]) * a;
+			tilts[n] = mTilt1[i];
+			n++;
+		}
+		return n;
+	}
+
+	/** Id the server gave us, -1 while not connected */
+	public synchronized int getPlayer() {
+		return mPlayer;
+	}
+
+	public long getBytesIn() {
+		return mBytesIn;
+	}
+
+	public long getBytesOut() {
+		return mBytesOut;
+	}
+
+	/** Smoothed round trip time to the server in ms, -1 before the first pong */
+	public float getRtt() {
+		return mRtt;
+	}
+
+	/**
+	 * Smoothed time in ms from another player sending a state to it
+	 * arriving here. Only meaningful if all clocks agree, e.g. for clients
+	 * on one machine.
+	 */
+	public float getLatency() {
+		return mLatency;
+	}
+
+	/** System.currentTimeMillis() of the connect, 0 while not connected */
+	public long getConnectTime() {
+		return mConnected;
+	}
+
+	/**
+	 * Why the connection failed or broke off, for the game to log and
+	 * show; null while it is up or after stop().
+	 */
+	public String getError() {
+		return mError;
+	}
+
+	public void run() {
+		SocketChannel channel = null;
+		try {
+			synchronized (this) {
+				mSelector = Selector.open();
+			}
+			channel = SocketChannel.open();
+			channel.configureBlocking(false);
+			channel.connect(new InetSocketAddress(mHost, mPort));
+			SelectionKey key = channel.register(mSelector, SelectionKey.OP_CONNECT);
+
+			ByteBuffer in = ByteBuffer.allocate(GhostProtocol.RECORD_SIZE * 64);
+			ByteBuffer out = ByteBuffer.allocate(GhostProtocol.RECORD_SIZE * 8);
+			long nextSend = 0;
+			long nextPing = 0;
+			int seq = 0;
+
+			while (mRunning) {
+				long now = System.currentTimeMillis();
+				long wait = Math.max(1, Math.min(nextSend, nextPing) - now);
+				mSelector.select(mConnected == 0 ? 0 : wait);
+
+				Iterator<SelectionKey> it = mSelector.selectedKeys().iterator();
+				while (it.hasNext()) {
+					SelectionKey k = it.next();
+					it.remove();
+					if (k.isConnectable() && channel.finishConnect()) {
+						mConnected = System.currentTimeMillis();
+						k.interestOps(SelectionKey.OP_READ);
+					}
+					if (k.isValid() && k.isReadable()) {
+						int r = channel.read(in);
+						if (r < 0) return;
+						mBytesIn += r;
+						in.flip();
+						while (in.remaining() >= GhostProtocol.RECORD_SIZE) {
+							receive(in, in.position());
+							in.position(in.position() + GhostProtocol.RECORD_SIZE);
+						}
+						in.compact();
+					}
+				}
+				if (mConnected == 0) continue;
+
+				now = System.currentTimeMillis();
+				if (now >= nextSend) {
+					nextSend = now + mInterval;
+					synchronized (this) {
+						if (mHasState && out.remaining() >= GhostProtocol.RECORD_SIZE) {
+							GhostProtocol.put(out, GhostProtocol.TYPE_STATE, 0, seq++, (int) now,
+									mX, mY, mTilt);
+						}
+					}
+				}
+				if (now >= nextPing) {
+					nextPing = now + PING_INTERVAL_MS;
+					if (out.remaining() >= GhostProtocol.RECORD_SIZE) {
+						// microseconds, loopback round trips are well below 1ms
+						GhostProtocol.put(out, GhostProtocol.TYPE_PING, 0, 0,
+								(int) (System.nanoTime() / 1000), 0, 0, 0);
+					}
+				}
+
+				// whatever doesn't fit into the socket waits for the next round;
+				// when the buffer is full, new states are dropped above
+				out.flip();
+				mBytesOut += channel.write(out);
+				out.compact();
+				key.interestOps(out.position() > 0
+						? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+			}
+		} catch (IOException e) {
+			if (mRunning) mError = e.toString();
+		} catch (UnresolvedAddressException e) {
+			mError = "unknown host " + mHost;
+		} finally {
+			try {
+				if (channel != null) channel.close();
+				if (mSelector != null) mSelector.close();
+			} catch (IOException e) {
+			}
+			synchronized (this) {
+				mPlayer = -1;
+				mConnected = 0;
+				for (int i = 0; i < mActive.length; i++)
+					mActive[i] = false;
+			}
+		}
+	}
+
+	private void receive(ByteBuffer b, int off) {
+		byte type = GhostProtocol.type(b, off);
+		int player = GhostProtocol.player(b, off);
+		long now = System.currentTimeMillis();
+
+		switch (type) {
+		case GhostProtocol.TYPE_HELLO:
+			synchronized (this) {
+				mPlayer = player;
+			}
+			break;
+		case GhostProtocol.TYPE_PONG:
+			float rtt = ((int) (System.nanoTime() / 1000) - GhostProtocol.time(b, off)) / 1000.0f;
+			mRtt = mRtt < 0.0f ? rtt : mRtt * 0.875f + rtt * 0.125f;
+			break;
+		case GhostProtocol.TYPE_STATE:
+			if (player >= GhostProtocol.MAX_PLAYERS) break;
+			float latency = (int) now - GhostProtocol.time(b, off);
+			mLatency = mLatency < 0.0f ? latency : mLatency * 0.875f + latency * 0.125f;
+			synchronized (this) {
+				if (mActive[player]) {
+					mTime0[player] = mTime1[player];
+					mX0[player] = mX1[player];
+					mY0[player] = mY1[player];
+				} else {
+					// first update: no movement to interpolate yet
+					mTime0[player] = now;
+					mX0[player] = GhostProtocol.x(b, off);
+					mY0[player] = GhostProtocol.y(b, off);
+					mActive[player] = true;
+				}
+				mTime1[player] = now;
+				mX1[player] = GhostProtocol.x(b, off);
+				mY1[player] = GhostProtocol.y(b, off);
+				mTilt1[player] = GhostProtocol.tilt(b, off);
+			}
+			break;
+		case GhostProtocol.TYPE_LEAVE:
+			if (player >= GhostProtocol.MAX_PLAYERS) break;
+			synchronized (this) {
+				mActive[player] = false;
+			}
+			break;
+		}
+	}
+}
@@ -0,0 +1,81 @@
+package de.droidgames.lunarlanderextended;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Wire format of the ghost race, shared by GhostClient and the server in
+ * tools/.../GhostServer.
+ *
+ * Every message is one fixed size record, so a TCP stream is split into
+ * messages by counting bytes:
+ *
+ *   byte  type    TYPE_*
+ *   byte  player  id assigned by the server
+ *   short seq     sender's counter
+ *   int   time    sender's clock in ms, only compared with the same clock
+ *   float x       blob x in world coordinates (screen x minus scroll)
+ *   float y       blob y
+ *   float tilt    tilt angle in degrees
+ */
+public final class GhostProtocol {
+	public static final int RECORD_SIZE = 20;
+
+	public static final int DEFAULT_PORT = 7733;
+
+	/** Rate at which clients send their state and the server relays it */
+	public static final int DEFAULT_RATE = 20;
+
+	/** server -> client: player is the client's id */
+	public static final byte TYPE_HELLO = 1;
+	/** both ways: position of a player */
+	public static final byte TYPE_STATE = 2;
+	/** client -> server, echoed back unchanged as TYPE_PONG */
+	public static final byte TYPE_PING = 3;
+	public static final byte TYPE_PONG = 4;
+	/** server -> client: player has left */
+	public static final byte TYPE_LEAVE = 5;
+
+	/** Ids are 0 .. MAX_PLAYERS-1 */
+	public static final int MAX_PLAYERS = 16;
+
+	private GhostProtocol() {
+	}
+
+	public static void put(ByteBuffer b, byte type, int player, int seq, int time,
+			float x, float y, float tilt) {
+		b.put(type);
+		b.put((byte) player);
+		b.putShort((short) seq);
+		b.putInt(time);
+		b.putFloat(x);
+		b.putFloat(y);
+		b.putFloat(tilt);
+	}
+
+	/*
+	 * Field access on a record starting at off
+	 */
+	public static byte type(ByteBuffer b, int off) {
+		return b.get(off);
+	}
+
+	public static int player(ByteBuffer b, int off) {
+		return b.get(off + 1) & 0xFF;
+	}
+
+	public static int time(ByteBuffer b, int off) {
+		return b.getInt(off + 4);
+	}
+
+	public static float x(ByteBuffer b, int off) {
+		return b.getFloat(off + 8);
+	}
+
+	public static float y(ByteBuffer b, int off) {
+		return b.getFloat(off + 12);
+	}
+
+	public static float tilt(ByteBuffer b, int off) {
+		return b.getFloat(off + 16);
+	}
+}
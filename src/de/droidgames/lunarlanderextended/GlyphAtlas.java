@@ -0,0 +1,73 @@
+package de.droidgames.lunarlanderextended;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+/**
+ * The glyphs of a HudText rendered once with a Paint into one ALPHA_8
+ * bitmap, packed in rows. Drawing a glyph is a single drawBitmap() of its
+ * cell; alpha bitmaps take the color of the paint, so one atlas serves
+ * every HUD color.
+ */
+public class GlyphAtlas {
+	/** Width of the atlas; glyphs are packed into rows of this width */
+	private static final int WIDTH = 256;
+
+	private final Bitmap mBitmap;
+	private final Rect[] mCells;
+	/** Offset of the cell top from the baseline, negative */
+	private final int mTop;
+	private final int mHeight;
+	private final RectF mDst = new RectF();
+
+	/**
+	 * Rasterises all glyphs of text and tells it their advances.
+	 */
+	public GlyphAtlas(Paint paint, HudText text) {
+		Paint.FontMetricsInt fm = paint.getFontMetricsInt();
+		mTop = fm.ascent;
+		mHeight = fm.descent - fm.ascent + 1;
+
+		// shelf packing: fill a row, then start the next one
+		int n = text.size();
+		mCells = new Rect[n];
+		int x = 0;
+		int y = 0;
+		for (int i = 0; i < n; i++) {
+			float advance = paint.measureText(text.getGlyph(i));
+			text.setAdvance(i, advance);
+			// one pixel more for anti-aliasing, one to keep cells apart
+			int w = Math.min(WIDTH, (int) Math.ceil(advance) + 2);
+			if (x + w > WIDTH) {
+				x = 0;
+				y += mHeight;
+			}
+			mCells[i] = new Rect(x, y, x + w, y + mHeight);
+			x += w;
+		}
+
+		mBitmap = Bitmap.createBitmap(WIDTH, y + mHeight, Bitmap.Config.ALPHA_8);
+		Canvas c = new Canvas(mBitmap);
+		for (int i = 0; i < n; i++)
+			c.drawText(text.getGlyph(i), mCells[i].left, mCells[i].top - mTop, paint);
+	}
+
+	/**
+	 * Draws a glyph with its baseline at y, in the color of paint. x is
+	 * rounded so the cell is copied without filtering.
+	 */
+	public void draw(Canvas canvas, int id, float x, float y, Paint paint) {
+		Rect cell = mCells[id];
+		float left = Math.round(x);
+		float top = Math.round(y) + mTop;
+		mDst.set(left, top, left + cell.width(), top + mHeight);
+		canvas.drawBitmap(mBitmap, cell, mDst, paint);
+	}
+
+	public void recycle() {
+		mBitmap.recycle();
+	}
+}
@@ -0,0 +1,52 @@
+package de.droidgames.lunarlanderextended;
+
+/**
+ * Simple bot that runs for the nearest diamond still on screen and jumps over
+ * craters in its way. Good enough to tell an easy level from a hard one.
+ */
+public class GreedyBot implements Bot {
+	/** Tilt used at full speed, in degrees */
+	public static final float MAX_TILT = 30.0f;
+
+	/** Distance in pixels at which to jump over a crater ahead */
+	private static final float JUMP_AHEAD = 60.0f;
+
+	public void think(World world, float elapsed, Controls controls) {
+		float bx = world.mB.x;
+
+		// nearest diamond, measured on screen
+		int target = -1;
+		float best = Float.MAX_VALUE;
+		for (int i = 0; i < world.getDiamondCount(); i++) {
+			if (!world.mDiamondsViz[i]) continue;
+			float d = Math.abs(world.mXDiamonds[i] + world.mXDiamond - bx);
+			if (d < best) {
+				best = d;
+				target = i;
+			}
+		}
+		if (target < 0) {
+			controls.doAccelerate(0.0f);
+			return;
+		}
+
+		float tx = world.mXDiamonds[target] + world.mXDiamond;
+		float dir = tx > bx ? 1.0f : -1.0f;
+		// slow down when close so we don't overshoot
+		float tilt = Math.min(1.0f, best / 100.0f) * MAX_TILT;
+		controls.doAccelerate(dir * tilt);
+
+		boolean jump = false;
+		for (int i = 0; i < World.NUMBER_OF_CRATERS; i++) {
+			float cx = world.mXCrater[i] + world.mXDiamond;
+			float ahead = (cx - bx) * dir;
+			if (ahead > 0.0f && ahead < JUMP_AHEAD + world.mCWidth / 3.0f) jump = true;
+		}
+		// diamond floating above the blob
+		if (best < world.mBallWidth / 4.0f
+				&& world.mYDiamonds[target] < world.mB.y - world.mBallHeight / 2.0f)
+			jump = true;
+
+		if (jump) controls.doJump();
+	}
+}
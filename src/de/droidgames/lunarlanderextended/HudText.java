@@ -0,0 +1,102 @@
+package de.droidgames.lunarlanderextended;
+
+/**
+ * Lays out HUD texts as glyphs of a GlyphAtlas: numbers digit by digit,
+ * labels like "Diamanten: " as one glyph each, so a line of the HUD is a
+ * few DrawList.glyph() blits and nothing is measured or shaped per frame.
+ * Recording does not allocate.
+ *
+ * Glyph ids: the digits 0-9, then MINUS and COLON, then the labels
+ * passed to the constructor from FIRST_LABEL on. The advances are filled in
+ * by whoever rasterises the glyphs.
+ */
+public final class HudText {
+	public static final int MINUS = 10;
+	public static final int COLON = 11;
+	public static final int FIRST_LABEL = 12;
+
+	private static final String SYMBOLS = "0123456789-:";
+
+	private final String[] mGlyphs;
+	private final float[] mAdvance;
+
+	/** Digits of the number being recorded, last digit first */
+	private final int[] mDigits = new int[20];
+
+	public HudText(String[] labels) {
+		mGlyphs = new String[FIRST_LABEL + labels.length];
+		for (int i = 0; i < FIRST_LABEL; i++)
+			mGlyphs[i] = SYMBOLS.substring(i, i + 1);
+		System.arraycopy(labels, 0, mGlyphs, FIRST_LABEL, labels.length);
+		mAdvance = new float[mGlyphs.length];
+	}
+
+	/** Number of glyphs, symbols and labels */
+	public int size() {
+		return mGlyphs.length;
+	}
+
+	/** The text of a glyph, to be rasterised */
+	public String getGlyph(int id) {
+		return mGlyphs[id];
+	}
+
+	public void setAdvance(int id, float advance) {
+		mAdvance[id] = advance;
+	}
+
+	public float getAdvance(int id) {
+		return mAdvance[id];
+	}
+
+	/**
+	 * Records a label glyph with its baseline at y.
+	 *
+	 * @return x after the label
+	 */
+	public float label(DrawList list, int color, int label, float x, float y) {
+		int id = FIRST_LABEL + label;
+		list.glyph(color, id, x, y);
+		return x + mAdvance[id];
+	}
+
+	/**
+	 * Records a decimal number, at least minDigits digits with leading
+	 * zeros.
+	 *
+	 * @return x after the number
+	 */
+	public float number(DrawList list, int color, long value, int minDigits, float x, float y) {
+		if (value < 0) {
+			list.glyph(color, MINUS, x, y);
+			x += mAdvance[MINUS];
+			value = -value;
+		}
+		int n = 0;
+		do {
+			mDigits[n++] = (int) (value % 10);
+			value /= 10;
+		} while (value > 0 && n < mDigits.length);
+		while (n < minDigits && n < mDigits.length)
+			mDigits[n++] = 0;
+		while (n > 0) {
+			int d = mDigits[--n];
+			list.glyph(color, d, x, y);
+			x += mAdvance[d];
+		}
+		return x;
+	}
+
+	/**
+	 * Records a time as m:ss.
+	 *
+	 * @return x after the time
+	 */
+	public float time(DrawList list, int color, int millis, float x, float y) {
+		int seconds = Math.max(0, millis) / 1000;
+		x = number(list, color, seconds / 60, 1, x, y);
+		list.glyph(color, COLON, x, y);
+		x += mAdvance[COLON];
+		return number(list, color, seconds % 60, 2, x, y);
+	}
+}
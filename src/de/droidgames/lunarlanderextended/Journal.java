@@ -0,0 +1,409 @@
+package de.droidgames.lunarlanderextended;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import android.os.Process;
+import android.util.Log;
+
+/**
+ * Append-only autosave journal for the running game.
+ *
+ * The game thread appends fixed-size delta records (diamond collected,
+ * energy change, checkpoint position, ...) into an in-memory buffer. A
+ * background writer swaps that buffer out every FLUSH_INTERVAL_MS and appends
+ * it to the journal file through a FileChannel, so the game thread never
+ * touches the disk. Once the journal grows past COMPACT_THRESHOLD it is folded
+ * into a snapshot file. Snapshot and journal share the same record format, so
+ * resuming means replaying the snapshot followed by the journal.
+ */
+public class Journal implements Runnable {
+	private static final String TAG = "Journal";
+
+	public static final String JOURNAL_FILE = "autosave.journal";
+	public static final String SNAPSHOT_FILE = "autosave.snap";
+
+	/*
+	 * Record types
+	 */
+	public static final short REC_START = 1;		// value: difficulty
+	public static final short REC_DIAMOND_POS = 2;	// index, x, y
+	public static final short REC_CRATER_POS = 3;	// index, x
+	public static final short REC_DIAMOND = 4;		// index, value: diamonds collected
+	public static final short REC_ENERGY = 5;		// value: remaining energy
+	public static final short REC_CHECKPOINT = 6;	// value: blob x, x: scroll offset, y: blob y
+	public static final short REC_END = 7;			// value: final state
+
+	/** short type, short index, int value, float x, float y */
+	public static final int RECORD_SIZE = 16;
+
+	/** Maximum progress that may be lost on a process kill. */
+	public static final long FLUSH_INTERVAL_MS = 200;
+
+	/** Journal size in bytes above which it is folded into the snapshot. */
+	public static final long COMPACT_THRESHOLD = 64 * 1024;
+
+	/** Records the game thread may buffer between two flushes. */
+	private static final int BUFFER_RECORDS = 1024;
+
+	/**
+	 * Game state as reconstructed from the records. The writer keeps one of
+	 * these up to date so it can write a snapshot without asking the game
+	 * thread for anything.
+	 */
+	public static final class Snapshot {
+		/** A game was started and has not ended yet. */
+		public boolean running;
+		public int difficulty;
+		public int diamonds;
+		public int energy;
+		public float blobX;
+		public float blobY;
+		public float scrollX;
+		public final float[] xDiamonds;
+		public final float[] yDiamonds;
+		public final boolean[] diamondsViz;
+		public final float[] xCraters;
+
+		Snapshot(int numDiamonds, int numCraters) {
+			xDiamonds = new float[numDiamonds];
+			yDiamonds = new float[numDiamonds];
+			diamondsViz = new boolean[numDiamonds];
+			xCraters = new float[numCraters];
+		}
+
+		Snapshot(Snapshot other) {
+			this(other.xDiamonds.length, other.xCraters.length);
+			running = other.running;
+			difficulty = other.difficulty;
+			diamonds = other.diamonds;
+			energy = other.energy;
+			blobX = other.blobX;
+			blobY = other.blobY;
+			scrollX = other.scrollX;
+			System.arraycopy(other.xDiamonds, 0, xDiamonds, 0, xDiamonds.length);
+			System.arraycopy(other.yDiamonds, 0, yDiamonds, 0, yDiamonds.length);
+			System.arraycopy(other.diamondsViz, 0, diamondsViz, 0, diamondsViz.length);
+			System.arraycopy(other.xCraters, 0, xCraters, 0, xCraters.length);
+		}
+
+		/**
+		 * Applies one record. All records carry absolute values, so replaying
+		 * a record twice (e.g. after a crash during compaction) is harmless.
+		 *
+		 * @return false if the record is not valid, which ends a replay
+		 */
+		boolean apply(short type, int index, int value, float x, float y) {
+			switch (type) {
+			case REC_START:
+				running = true;
+				difficulty = value;
+				diamonds = 0;
+				scrollX = 0.0f;
+				for (int i = 0; i < diamondsViz.length; i++)
+					diamondsViz[i] = true;
+				return true;
+			case REC_DIAMOND_POS:
+				if (index < 0 || index >= xDiamonds.length) return false;
+				xDiamonds[index] = x;
+				yDiamonds[index] = y;
+				return true;
+			case REC_CRATER_POS:
+				if (index < 0 || index >= xCraters.length) return false;
+				xCraters[index] = x;
+				return true;
+			case REC_DIAMOND:
+				if (index < 0 || index >= diamondsViz.length) return false;
+				diamondsViz[index] = false;
+				diamonds = value;
+				return true;
+			case REC_ENERGY:
+				energy = value;
+				return true;
+			case REC_CHECKPOINT:
+				blobX = value;
+				scrollX = x;
+				blobY = y;
+				return true;
+			case REC_END:
+				running = false;
+				return true;
+			}
+			return false;
+		}
+
+		/** Number of records writeTo() emits. */
+		int recordCount() {
+			return 3 + xDiamonds.length * 2 + xCraters.length;
+		}
+
+		/** Writes the records needed to rebuild this state from scratch. */
+		void writeTo(ByteBuffer buf) {
+			put(buf, REC_START, 0, difficulty, 0.0f, 0.0f);
+			for (int i = 0; i < xDiamonds.length; i++)
+				put(buf, REC_DIAMOND_POS, i, 0, xDiamonds[i], yDiamonds[i]);
+			for (int i = 0; i < xCraters.length; i++)
+				put(buf, REC_CRATER_POS, i, 0, xCraters[i], 0.0f);
+			for (int i = 0; i < diamondsViz.length; i++) {
+				if (!diamondsViz[i])
+					put(buf, REC_DIAMOND, i, diamonds, 0.0f, 0.0f);
+			}
+			put(buf, REC_ENERGY, 0, energy, 0.0f, 0.0f);
+			put(buf, REC_CHECKPOINT, 0, (int) blobX, scrollX, blobY);
+			if (!running)
+				put(buf, REC_END, 0, 0, 0.0f, 0.0f);
+		}
+	}
+
+	private final File mDir;
+	private final Snapshot mMirror;
+
+	/** Buffer the game thread appends to, guarded by mLock. */
+	private ByteBuffer mFront = ByteBuffer.allocate(BUFFER_RECORDS * RECORD_SIZE);
+	/** Buffer the writer drains, only touched by the writer. */
+	private ByteBuffer mBack = ByteBuffer.allocate(BUFFER_RECORDS * RECORD_SIZE);
+	private final Object mLock = new Object();
+	private boolean mFlushRequested;
+	private int mDropped;
+
+	private FileChannel mChannel;
+	private Thread mWriter;
+	private volatile boolean mRun;
+
+	public Journal(File dir, int numDiamonds, int numCraters) {
+		mDir = dir;
+		mMirror = new Snapshot(numDiamonds, numCraters);
+
+		replay(new File(mDir, SNAPSHOT_FILE), mMirror);
+		File journal = new File(mDir, JOURNAL_FILE);
+		long valid = replay(journal, mMirror);
+		try {
+			mChannel = new RandomAccessFile(journal, "rw").getChannel();
+			// drop a record torn by the crash so new records stay aligned
+			mChannel.truncate(valid);
+			mChannel.position(valid);
+		} catch (IOException e) {
+			Log.w(TAG, "cannot open journal: " + e);
+			mChannel = null;
+		}
+	}
+
+	/**
+	 * Starts the background writer.
+	 */
+	public void start() {
+		if (mWriter != null) return;
+		mRun = true;
+		mWriter = new Thread(this, TAG);
+		mWriter.setDaemon(true);
+		mWriter.start();
+	}
+
+	/**
+	 * Stops the background writer after a last flush.
+	 */
+	public void stop() {
+		mRun = false;
+		flush();
+		if (mWriter != null) {
+			boolean retry = true;
+			while (retry) {
+				try {
+					mWriter.join();
+					retry = false;
+				} catch (InterruptedException e) {
+				}
+			}
+			mWriter = null;
+		}
+	}
+
+	/**
+	 * Asks the writer to write out pending records right away, e.g. when the
+	 * game is paused. Does not wait for the write.
+	 */
+	public void flush() {
+		synchronized (mLock) {
+			mFlushRequested = true;
+			mLock.notify();
+		}
+	}
+
+	/**
+	 * Appends a record. Cheap enough to call from updatePhysics(): it only
+	 * copies 16 bytes into a preallocated buffer.
+	 */
+	public void append(short type, int index, int value, float x, float y) {
+		synchronized (mLock) {
+			if (mFront.remaining() < RECORD_SIZE) {
+				// writer is stuck; losing a record beats stalling the frame
+				mDropped++;
+				return;
+			}
+			put(mFront, type, index, value, x, y);
+		}
+	}
+
+	/**
+	 * Returns the game to resume, or null if the last game ended properly or
+	 * there is nothing saved.
+	 */
+	public Snapshot restore() {
+		synchronized (mMirror) {
+			return mMirror.running ? new Snapshot(mMirror) : null;
+		}
+	}
+
+	public void run() {
+		Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+		while (mRun) {
+			swap(true);
+			drain();
+		}
+		swap(false);
+		drain();
+		closeChannel();
+	}
+
+	private void swap(boolean wait) {
+		synchronized (mLock) {
+			if (wait && !mFlushRequested) {
+				try {
+					mLock.wait(FLUSH_INTERVAL_MS);
+				} catch (InterruptedException e) {
+				}
+			}
+			mFlushRequested = false;
+			ByteBuffer t = mFront;
+			mFront = mBack;
+			mBack = t;
+			if (mDropped > 0) {
+				Log.w(TAG, "dropped " + mDropped + " records");
+				mDropped = 0;
+			}
+		}
+	}
+
+	/**
+	 * Writes the back buffer to the journal and compacts if needed. Only
+	 * called from the writer thread.
+	 */
+	private void drain() {
+		mBack.flip();
+		boolean compact = false;
+		synchronized (mMirror) {
+			for (int p = 0; p < mBack.limit(); p += RECORD_SIZE) {
+				short type = mBack.getShort(p);
+				mMirror.apply(type, mBack.getShort(p + 2), mBack.getInt(p + 4),
+						mBack.getFloat(p + 8), mBack.getFloat(p + 12));
+				// a new game makes everything before it obsolete
+				if (type == REC_START) compact = true;
+			}
+		}
+		try {
+			if (mChannel != null) {
+				// no force() here: data in the page cache survives a process
+				// kill, and syncing five times a second would cost battery
+				while (mBack.hasRemaining())
+					mChannel.write(mBack);
+				if (compact || mChannel.size() > COMPACT_THRESHOLD)
+					compact();
+			}
+		} catch (IOException e) {
+			Log.w(TAG, "write failed: " + e);
+		}
+		mBack.clear();
+	}
+
+	/**
+	 * Folds the journal into a new snapshot. The snapshot is written to a
+	 * temporary file and renamed, so a crash leaves either the old or the new
+	 * snapshot in place, and the journal is only truncated afterwards.
+	 */
+	private void compact() throws IOException {
+		ByteBuffer buf;
+		synchronized (mMirror) {
+			buf = ByteBuffer.allocate(mMirror.recordCount() * RECORD_SIZE);
+			mMirror.writeTo(buf);
+		}
+		buf.flip();
+
+		File tmp = new File(mDir, SNAPSHOT_FILE + ".tmp");
+		FileOutputStream out = new FileOutputStream(tmp);
+		try {
+			FileChannel ch = out.getChannel();
+			while (buf.hasRemaining())
+				ch.write(buf);
+			ch.force(true);
+		} finally {
+			out.close();
+		}
+		if (!tmp.renameTo(new File(mDir, SNAPSHOT_FILE)))
+			throw new IOException("cannot rename " + tmp);
+
+		mChannel.truncate(0);
+		mChannel.position(0);
+	}
+
+	private void closeChannel() {
+		if (mChannel != null) {
+			try {
+				mChannel.close();
+			} catch (IOException e) {
+				// Ignore
+			}
+			mChannel = null;
+		}
+	}
+
+	private static void put(ByteBuffer buf, short type, int index, int value,
+			float x, float y) {
+		buf.putShort(type);
+		buf.putShort((short) index);
+		buf.putInt(value);
+		buf.putFloat(x);
+		buf.putFloat(y);
+	}
+
+	/**
+	 * Replays all complete, valid records of a file into the snapshot.
+	 *
+	 * @return number of bytes that were replayed
+	 */
+	private static long replay(File file, Snapshot s) {
+		if (!file.exists()) return 0;
+
+		FileInputStream in = null;
+		long valid = 0;
+		try {
+			in = new FileInputStream(file);
+			FileChannel ch = in.getChannel();
+			ByteBuffer buf = ByteBuffer.allocate((int) ch.size());
+			while (buf.hasRemaining() && ch.read(buf) >= 0) {
+			}
+			buf.flip();
+			while (buf.remaining() >= RECORD_SIZE) {
+				if (!s.apply(buf.getShort(), buf.getShort(), buf.getInt(),
+						buf.getFloat(), buf.getFloat()))
+					break;
+				valid += RECORD_SIZE;
+			}
+		} catch (IOException e) {
+			Log.w(TAG, "replay of " + file + " failed: " + e);
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					// Ignore
+				}
+			}
+		}
+		return valid;
+	}
+}
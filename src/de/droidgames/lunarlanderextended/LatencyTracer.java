@@ -0,0 +1,161 @@
+package de.droidgames.lunarlanderextended;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Measures how long it takes from an input event until a frame that shows
+ * its effect is on its way to the display, split into the stages the input
+ * goes through:
+ *
+ *   STAGE_STEP     event time until the simulation step that applies it,
+ *                  i.e. waiting for the next tick and for the lock
+ *   STAGE_PUBLISH  step until the snapshot with its result is published
+ *   STAGE_PICK     published until the render thread takes the snapshot
+ *   STAGE_POST     taken until unlockCanvasAndPost() returned
+ *   STAGE_TOTAL    all of it
+ *
+ * The simulation thread fills a Trace per input kind and the snapshot
+ * carries a copy to the render thread, which hands it to frame() after the
+ * frame was posted. Each input is counted in the first frame that carries
+ * it. Times are System.nanoTime(); on Android event times in uptime
+ * milliseconds are on the same clock.
+ *
+ * Histograms have one bucket per millisecond up to MAX_MS, the last one
+ * counts everything slower.
+ */
+public class LatencyTracer {
+	public static final int INPUT_JUMP = 0;
+	public static final int INPUT_TILT = 1;
+	public static final int INPUTS = 2;
+
+	public static final int STAGE_STEP = 0;
+	public static final int STAGE_PUBLISH = 1;
+	public static final int STAGE_PICK = 2;
+	public static final int STAGE_POST = 3;
+	public static final int STAGE_TOTAL = 4;
+	public static final int STAGES = 5;
+
+	static final String[] INPUT_NAMES = { "jump", "tilt" };
+	static final String[] STAGE_NAMES = { "step", "publish", "pick", "post", "total" };
+
+	public static final int MAX_MS = 250;
+
+	/**
+	 * Where an input is on its way to the screen; 0 is a stage not reached
+	 * yet.
+	 */
+	public static final class Trace {
+		/** When the input happened; 0 if there was none yet */
+		public long input;
+		/** Step that applied it */
+		public long step;
+		/** First publish of a snapshot after that step */
+		public long publish;
+
+		public void set(Trace t) {
+			input = t.input;
+			step = t.step;
+			publish = t.publish;
+		}
+	}
+
+	/** [input][stage][bucket] */
+	private final int[][][] mCounts = new int[INPUTS][STAGES][MAX_MS + 1];
+	private final long[][] mMaxNs = new long[INPUTS][STAGES];
+	private final int[] mTraced = new int[INPUTS];
+
+	/** Input time of the trace counted last, per kind; render thread only */
+	private final long[] mCounted = new long[INPUTS];
+
+	/**
+	 * Counts the traces of a posted frame that weren't counted before.
+	 *
+	 * @param traces one Trace per INPUT_*
+	 * @param picked when the render thread took the snapshot
+	 * @param posted when the frame was posted
+	 */
+	public void frame(Trace[] traces, long picked, long posted) {
+		for (int kind = 0; kind < INPUTS; kind++) {
+			Trace t = traces[kind];
+			if (t.input == 0 || t.publish == 0 || t.input == mCounted[kind]) continue;
+			mCounted[kind] = t.input;
+			synchronized (this) {
+				add(kind, STAGE_STEP, t.step - t.input);
+				add(kind, STAGE_PUBLISH, t.publish - t.step);
+				add(kind, STAGE_PICK, picked - t.publish);
+				add(kind, STAGE_POST, posted - picked);
+				add(kind, STAGE_TOTAL, posted - t.input);
+				mTraced[kind]++;
+			}
+		}
+	}
+
+	private void add(int kind, int stage, long ns) {
+		if (ns < 0) ns = 0;
+		int bucket = (int) Math.min(MAX_MS, ns / 1000000L);
+		mCounts[kind][stage][bucket]++;
+		if (ns > mMaxNs[kind][stage]) mMaxNs[kind][stage] = ns;
+	}
+
+	public synchronized int getCount(int kind) {
+		return mTraced[kind];
+	}
+
+	/**
+	 * The latency in ms that the fraction p of the inputs didn't exceed,
+	 * to the bucket; -1 if there are none.
+	 */
+	public synchronized int percentile(int kind, int stage, float p) {
+		int n = mTraced[kind];
+		if (n == 0) return -1;
+		int[] counts = mCounts[kind][stage];
+		int rank = Math.max(1, (int) Math.ceil(p * n));
+		int seen = 0;
+		for (int i = 0; i <= MAX_MS; i++) {
+			seen += counts[i];
+			if (seen >= rank) return i;
+		}
+		return MAX_MS;
+	}
+
+	public synchronized float getMaxMs(int kind, int stage) {
+		return mMaxNs[kind][stage] / 1e6f;
+	}
+
+	/**
+	 * One line for an input kind, e.g. for a debug overlay:
+	 * "jump 12: 21/30/44/52 ms, step 9 publish 0 pick 6 post 7"; the
+	 * total's 50th, 90th and 99th percentile and maximum, then the median of
+	 * each stage.
+	 */
+	public String summary(int kind) {
+		StringBuilder b = new StringBuilder();
+		b.append(INPUT_NAMES[kind]).append(' ').append(getCount(kind)).append(": ");
+		b.append(percentile(kind, STAGE_TOTAL, 0.5f)).append('/');
+		b.append(percentile(kind, STAGE_TOTAL, 0.9f)).append('/');
+		b.append(percentile(kind, STAGE_TOTAL, 0.99f)).append('/');
+		b.append(Math.round(getMaxMs(kind, STAGE_TOTAL))).append(" ms,");
+		for (int stage = 0; stage < STAGE_TOTAL; stage++)
+			b.append(' ').append(STAGE_NAMES[stage]).append(' ').append(percentile(kind, stage, 0.5f));
+		return b.toString();
+	}
+
+	/**
+	 * Writes the histograms as CSV: input, stage, ms, count; only buckets
+	 * with a count, ms MAX_MS stands for MAX_MS and slower.
+	 */
+	public synchronized void writeCsv(Writer out) throws IOException {
+		out.write("input,stage,ms,count\n");
+		for (int kind = 0; kind < INPUTS; kind++) {
+			for (int stage = 0; stage < STAGES; stage++) {
+				int[] counts = mCounts[kind][stage];
+				for (int i = 0; i <= MAX_MS; i++) {
+					if (counts[i] == 0) continue;
+					out.write(INPUT_NAMES[kind] + "," + STAGE_NAMES[stage] + "," + i + "," + counts[i] + "\n");
+				}
+			}
+		}
+		out.flush();
+	}
+}
@@ -0,0 +1,671 @@
+package de.droidgames.lunarlanderextended;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * Local high score lists, one per level, difficulty and planet.
+ *
+ * Scores are appended as fixed-size records to a single file and never
+ * rewritten in place. Each list keeps an in-memory index, sorted best
+ * first: a rank key and the record number of every entry, in leaves of a
+ * few hundred. Submits, top-K and rank queries are a binary search on that
+ * index plus the work of one leaf, so they stay fast with a million
+ * entries per list; names and dates are read from a read-only mapping of
+ * the file. A list keeps at most its capacity; the records pushed out of
+ * it stay in the file until a background compaction copies the live
+ * records into a new file.
+ */
+public class Leaderboard {
+	public static final String FILE = "scores.lb";
+
+	public static final int MAGIC = 0x4C4C4C42; // "LLLB"
+	public static final int VERSION = 1;
+
+	/** int magic, short version, short record size, 8 bytes reserved */
+	public static final int HEADER_SIZE = 16;
+
+	/**
+	 * long time, int score, int millis, byte level, byte difficulty,
+	 * byte planet, byte name length, NAME_LENGTH bytes ISO-8859-1 name
+	 */
+	public static final int RECORD_SIZE = 32;
+	public static final int NAME_LENGTH = 12;
+
+	/**
+	 * Compaction starts once the file holds at least this many dead
+	 * records and they outnumber the live ones.
+	 */
+	public static final int COMPACT_MIN = 4096;
+
+	/**
+	 * One score, as returned by top().
+	 */
+	public static final class Entry {
+		public int level;
+		public int difficulty;
+		public int planet;
+		public int score;
+		/** How long the game took; faster ranks higher on equal score */
+		public int millis;
+		/** System.currentTimeMillis() of the submission */
+		public long time;
+		public String name;
+	}
+
+	/**
+	 * Index of one list, best entry first, in leaves of at most LEAF
+	 * entries. A Fenwick tree over the leaf sizes gives the entries ahead
+	 * of a leaf and the leaf of a rank, so an insert moves the entries of
+	 * one leaf only and no query walks the list.
+	 */
+	static final class Board {
+		static final int LEAF = 512;
+
+		long[][] keys = new long[4][];
+		int[][] records = new int[4][];
+		int[] sizes = new int[4];
+		/** Fenwick tree over sizes, 1 based; 0 past the last leaf */
+		int[] tree = new int[5];
+		int leaves;
+		int size;
+
+		/**
+		 * Number of entries with a key greater than key, or greater or equal
+		 * when orEqual is set.
+		 */
+		int count(long key, boolean orEqual) {
+			// the first leaf that doesn't end ahead of key
+			int lo = 0;
+			int hi = leaves;
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (ahead(keys[mid][sizes[mid] - 1], key, orEqual)) lo = mid + 1;
+				else hi = mid;
+			}
+			if (lo == leaves) return size;
+
+			long[] k = keys[lo];
+			int l = 0;
+			int h = sizes[lo];
+			while (l < h) {
+				int mid = (l + h) >>> 1;
+				if (ahead(k[mid], key, orEqual)) l = mid + 1;
+				else h = mid;
+			}
+			return before(lo) + l;
+		}
+
+		private static boolean ahead(long k, long key, boolean orEqual) {
+			return k > key || (orEqual && k == key);
+		}
+
+		void insert(int pos, long key, int record) {
+			if (leaves == 0) {
+				grow();
+				keys[0] = new long[LEAF];
+				records[0] = new int[LEAF];
+				leaves = 1;
+			}
+			int leaf = pos < size ? leafOf(pos) : leaves - 1;
+			if (sizes[leaf] == LEAF) {
+				split(leaf);
+				if (pos - before(leaf) > sizes[leaf]) leaf++;
+			}
+			int at = pos - before(leaf);
+			int n = sizes[leaf] - at;
+			System.arraycopy(keys[leaf], at, keys[leaf], at + 1, n);
+			System.arraycopy(records[leaf], at, records[leaf], at + 1, n);
+			keys[leaf][at] = key;
+			records[leaf][at] = record;
+			sizes[leaf]++;
+			size++;
+			for (int i = leaf + 1; i < tree.length; i += i & -i)
+				tree[i]++;
+		}
+
+		/** Drops the worst entry */
+		void removeLast() {
+			int leaf = leaves - 1;
+			sizes[leaf]--;
+			size--;
+			for (int i = leaf + 1; i < tree.length; i += i & -i)
+				tree[i]--;
+			if (sizes[leaf] == 0) {
+				keys[leaf] = null;
+				records[leaf] = null;
+				leaves--;
+			}
+		}
+
+		/** Record number of the entry with the given rank */
+		int record(int rank) {
+			int leaf = leafOf(rank);
+			return records[leaf][rank - before(leaf)];
+		}
+
+		/** Record numbers of all entries, best first */
+		int[] records() {
+			int[] out = new int[size];
+			int n = 0;
+			for (int l = 0; l < leaves; l++) {
+				System.arraycopy(records[l], 0, out, n, sizes[l]);
+				n += sizes[l];
+			}
+			return out;
+		}
+
+		/** Replaces every record number r with map[r], after a compaction */
+		void remap(int[] map) {
+			for (int l = 0; l < leaves; l++) {
+				int[] r = records[l];
+				for (int i = 0; i < sizes[l]; i++)
+					r[i] = map[r[i]];
+			}
+		}
+
+		/** Fills the board with n entries already in order, for load() */
+		void build(long[] k, int[] r, int n) {
+			leaves = 0;
+			size = 0;
+			for (int from = 0; from < n; from += LEAF) {
+				grow();
+				int m = Math.min(LEAF, n - from);
+				keys[leaves] = new long[LEAF];
+				records[leaves] = new int[LEAF];
+				System.arraycopy(k, from, keys[leaves], 0, m);
+				System.arraycopy(r, from, records[leaves], 0, m);
+				sizes[leaves++] = m;
+				size += m;
+			}
+			rebuild();
+		}
+
+		/** Entries in the leaves before leaf */
+		private int before(int leaf) {
+			int n = 0;
+			for (int i = leaf; i > 0; i -= i & -i)
+				n += tree[i];
+			return n;
+		}
+
+		/** Leaf holding the entry with the given rank, which is below size */
+		private int leafOf(int rank) {
+			int leaf = 0;
+			for (int bit = Integer.highestOneBit(tree.length - 1); bit > 0; bit >>= 1) {
+				int next = leaf + bit;
+				if (next < tree.length && tree[next] <= rank) {
+					leaf = next;
+					rank -= tree[next];
+				}
+			}
+			return leaf;
+		}
+
+		/** Moves the second half of a full leaf into a new leaf after it */
+		private void split(int leaf) {
+			grow();
+			int n = leaves - leaf - 1;
+			System.arraycopy(keys, leaf + 1, keys, leaf + 2, n);
+			System.arraycopy(records, leaf + 1, records, leaf + 2, n);
+			System.arraycopy(sizes, leaf + 1, sizes, leaf + 2, n);
+			int half = sizes[leaf] / 2;
+			keys[leaf + 1] = new long[LEAF];
+			records[leaf + 1] = new int[LEAF];
+			System.arraycopy(keys[leaf], half, keys[leaf + 1], 0, sizes[leaf] - half);
+			System.arraycopy(records[leaf], half, records[leaf + 1], 0, sizes[leaf] - half);
+			sizes[leaf + 1] = sizes[leaf] - half;
+			sizes[leaf] = half;
+			leaves++;
+			rebuild();
+		}
+
+		/** Room for one more leaf */
+		private void grow() {
+			if (leaves < keys.length) return;
+			long[][] k = new long[leaves * 2][];
+			int[][] r = new int[leaves * 2][];
+			int[] s = new int[leaves * 2];
+			System.arraycopy(keys, 0, k, 0, leaves);
+			System.arraycopy(records, 0, r, 0, leaves);
+			System.arraycopy(sizes, 0, s, 0, leaves);
+			keys = k;
+			records = r;
+			sizes = s;
+			tree = new int[leaves * 2 + 1];
+			rebuild();
+		}
+
+		private void rebuild() {
+			for (int i = 0; i < tree.length; i++)
+				tree[i] = i > 0 && i <= leaves ? sizes[i - 1] : 0;
+			for (int i = 1; i < tree.length; i++) {
+				int j = i + (i & -i);
+				if (j < tree.length) tree[j] += tree[i];
+			}
+		}
+	}
+
+	/**
+	 * Entries of a list gathered by load(), in file order.
+	 */
+	private static final class Pending {
+		long[] keys = new long[16];
+		int[] records = new int[16];
+		int size;
+
+		void add(long key, int record) {
+			if (size == keys.length) {
+				long[] k = new long[size * 2];
+				int[] r = new int[size * 2];
+				System.arraycopy(keys, 0, k, 0, size);
+				System.arraycopy(records, 0, r, 0, size);
+				keys = k;
+				records = r;
+			}
+			keys[size] = key;
+			records[size] = record;
+			size++;
+		}
+	}
+
+	private final File mFile;
+	private final int mCapacity;
+	private final HashMap<Integer, Board> mBoards = new HashMap<Integer, Board>();
+
+	private RandomAccessFile mRaf;
+	private FileChannel mChannel;
+	private MappedByteBuffer mMap;
+	/** Records covered by mMap */
+	private int mMapped;
+	/** Records in the file */
+	private int mCount;
+	/** Records in the file that no list refers to any more */
+	private int mDead;
+
+	private final ByteBuffer mRecord = ByteBuffer.allocate(RECORD_SIZE);
+	private Thread mCompactor;
+
+	/**
+	 * Opens or creates the file and builds the index.
+	 *
+	 * @param capacity entries kept per list
+	 */
+	public Leaderboard(File file, int capacity) throws IOException {
+		mFile = file;
+		mCapacity = capacity;
+		open();
+		load();
+	}
+
+	public static int board(int level, int difficulty, int planet) {
+		return (level & 0xff) << 16 | (difficulty & 0xff) << 8 | (planet & 0xff);
+	}
+
+	/**
+	 * Sort key of a score: higher scores first, then faster games.
+	 */
+	public static long rankKey(int score, int millis) {
+		return (long) score << 32 | (0xFFFFFFFFL - (millis & 0xFFFFFFFFL));
+	}
+
+	/**
+	 * Adds a score to its list.
+	 *
+	 * @return its rank, 0 for the best, or -1 if the list is full of better
+	 *         scores and it was not stored
+	 */
+	public synchronized int submit(int level, int difficulty, int planet,
+			String name, int score, int millis) throws IOException {
+		Board b = getBoard(board(level, difficulty, planet), true);
+		long key = rankKey(score, millis);
+		// equal keys keep their order, the earlier score stays ahead
+		int pos = b.count(key, true);
+		if (pos >= mCapacity) return -1;
+
+		mRecord.clear();
+		mRecord.putLong(System.currentTimeMillis());
+		mRecord.putInt(score);
+		mRecord.putInt(millis);
+		mRecord.put((byte) level);
+		mRecord.put((byte) difficulty);
+		mRecord.put((byte) planet);
+		int n = name == null ? 0 : Math.min(name.length(), NAME_LENGTH);
+		mRecord.put((byte) n);
+		for (int i = 0; i < NAME_LENGTH; i++) {
+			char c = i < n ? name.charAt(i) : 0;
+			mRecord.put((byte) (c < 256 ? c : '?'));
+		}
+		mRecord.flip();
+		long at = HEADER_SIZE + (long) mCount * RECORD_SIZE;
+		while (mRecord.hasRemaining())
+			at += mChannel.write(mRecord, at);
+
+		b.insert(pos, key, mCount++);
+		if (b.size > mCapacity) {
+			b.removeLast();
+			mDead++;
+		}
+		if (mDead >= COMPACT_MIN && mDead > mCount - mDead) compactAsync();
+		return pos;
+	}
+
+	/**
+	 * Rank a score would get, i.e. the number of entries ahead of it;
+	 * equal scores submitted earlier are ahead.
+	 */
+	public synchronized int rank(int level, int difficulty, int planet, int score, int millis) {
+		Board b = getBoard(board(level, difficulty, planet), false);
+		return b == null ? 0 : b.count(rankKey(score, millis), true);
+	}
+
+	/**
+	 * Number of entries of a list.
+	 */
+	public synchronized int size(int level, int difficulty, int planet) {
+		Board b = getBoard(board(level, difficulty, planet), false);
+		return b == null ? 0 : b.size;
+	}
+
+	/**
+	 * Reads the entries from rank from on into out; null elements of out
+	 * are created.
+	 *
+	 * @return number of entries read
+	 */
+	public synchronized int top(int level, int difficulty, int planet,
+			int from, Entry[] out) throws IOException {
+		Board b = getBoard(board(level, difficulty, planet), false);
+		if (b == null || from >= b.size) return 0;
+		int n = Math.min(out.length, b.size - from);
+		if (mMapped < mCount) map();
+		for (int i = 0; i < n; i++) {
+			if (out[i] == null) out[i] = new Entry();
+			read(mMap, b.record(from + i), out[i]);
+		}
+		return n;
+	}
+
+	/**
+	 * Records in the file, live and dead.
+	 */
+	public synchronized int getRecords() {
+		return mCount;
+	}
+
+	public synchronized int getDeadRecords() {
+		return mDead;
+	}
+
+	/**
+	 * Starts a compaction on a background thread unless one is running.
+	 */
+	public synchronized void compactAsync() {
+		if (mCompactor != null) return;
+		mCompactor = new Thread(new Runnable() {
+			public void run() {
+				try {
+					compact();
+				} catch (IOException e) {
+					System.err.println("Leaderboard: compaction failed: " + e);
+				} finally {
+					synchronized (Leaderboard.this) {
+						mCompactor = null;
+						Leaderboard.this.notifyAll();
+					}
+				}
+			}
+		}, "LeaderboardCompactor");
+		mCompactor.setDaemon(true);
+		mCompactor.start();
+	}
+
+	/**
+	 * Waits for a running compaction.
+	 */
+	public synchronized void awaitCompaction() throws InterruptedException {
+		while (mCompactor != null)
+			wait();
+	}
+
+	/**
+	 * Waits for a running compaction and closes the file.
+	 */
+	public synchronized void close() throws IOException {
+		while (mCompactor != null) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+			}
+		}
+		mMap = null;
+		mMapped = 0;
+		mRaf.close();
+	}
+
+	/**
+	 * Copies the live records into a new file, list by list in rank order,
+	 * and switches over to it. The copy is made outside the lock from a
+	 * snapshot of the index; only records submitted meanwhile are copied
+	 * under the lock.
+	 */
+	void compact() throws IOException {
+		int[][] snapshot;
+		int count;
+		ByteBuffer src;
+		synchronized (this) {
+			snapshot = new int[mBoards.size()][];
+			Iterator<Board> it = mBoards.values().iterator();
+			for (int i = 0; it.hasNext(); i++) {
+				snapshot[i] = it.next().records();
+			}
+			count = mCount;
+			if (mMapped < count) map();
+			// own view, so top() may remap meanwhile
+			src = mMap.duplicate();
+		}
+		int[] moved = new int[count];
+		for (int i = 0; i < count; i++)
+			moved[i] = -1;
+
+		File tmp = new File(mFile.getPath() + ".tmp");
+		RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+		try {
+			FileChannel out = raf.getChannel();
+			out.truncate(0);
+			ByteBuffer buf = ByteBuffer.allocate(RECORD_SIZE * 256);
+			writeHeader(buf);
+			int written = 0;
+			for (int i = 0; i < snapshot.length; i++) {
+				for (int j = 0; j < snapshot[i].length; j++) {
+					int r = snapshot[i][j];
+					if (moved[r] >= 0) continue;
+					if (buf.remaining() < RECORD_SIZE) flush(out, buf);
+					copy(src, r, buf);
+					moved[r] = written++;
+				}
+			}
+			flush(out, buf);
+
+			synchronized (this) {
+				// whatever was submitted in the meantime
+				int[] map = new int[mCount];
+				System.arraycopy(moved, 0, map, 0, count);
+				if (mMapped < mCount) map();
+				src = mMap.duplicate();
+				for (int r = count; r < mCount; r++) {
+					if (buf.remaining() < RECORD_SIZE) flush(out, buf);
+					copy(src, r, buf);
+					map[r] = written++;
+				}
+				flush(out, buf);
+				out.force(true);
+
+				raf.close();
+				mMap = null;
+				mMapped = 0;
+				mRaf.close();
+				boolean renamed = tmp.renameTo(mFile);
+				// the old file again if the rename failed
+				open();
+				if (!renamed) throw new IOException("cannot rename " + tmp);
+
+				// records that died meanwhile were copied anyway
+				int live = 0;
+				Iterator<Board> it = mBoards.values().iterator();
+				while (it.hasNext()) {
+					Board b = it.next();
+					b.remap(map);
+					live += b.size;
+				}
+				mDead = mCount - live;
+			}
+		} finally {
+			raf.close();
+		}
+	}
+
+	private Board getBoard(int key, boolean create) {
+		Integer k = Integer.valueOf(key);
+		Board b = mBoards.get(k);
+		if (b == null && create) {
+			b = new Board();
+			mBoards.put(k, b);
+		}
+		return b;
+	}
+
+	private void open() throws IOException {
+		mRaf = new RandomAccessFile(mFile, "rw");
+		mChannel = mRaf.getChannel();
+		long size = mChannel.size();
+		if (size < HEADER_SIZE) {
+			ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE);
+			writeHeader(buf);
+			mChannel.truncate(0);
+			flush(mChannel, buf);
+			size = HEADER_SIZE;
+		} else {
+			ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE);
+			mChannel.read(buf, 0);
+			if (buf.getInt(0) != MAGIC || buf.getShort(4) != VERSION
+					|| buf.getShort(6) != RECORD_SIZE)
+				throw new IOException(mFile + " is not a leaderboard");
+		}
+		// a record torn by a crash is dropped
+		mCount = (int) ((size - HEADER_SIZE) / RECORD_SIZE);
+		mChannel.truncate(HEADER_SIZE + (long) mCount * RECORD_SIZE);
+		map();
+	}
+
+	private void map() throws IOException {
+		mMap = mChannel.map(FileChannel.MapMode.READ_ONLY, 0,
+				HEADER_SIZE + (long) mCount * RECORD_SIZE);
+		mMapped = mCount;
+	}
+
+	/**
+	 * Builds the index from the file: per list, all rank keys are gathered,
+	 * sorted once and cut to the capacity.
+	 */
+	private void load() {
+		HashMap<Integer, Pending> lists = new HashMap<Integer, Pending>();
+		for (int r = 0; r < mCount; r++) {
+			int p = HEADER_SIZE + r * RECORD_SIZE;
+			Integer k = Integer.valueOf(board(mMap.get(p + 16), mMap.get(p + 17), mMap.get(p + 18)));
+			Pending list = lists.get(k);
+			if (list == null) {
+				list = new Pending();
+				lists.put(k, list);
+			}
+			list.add(rankKey(mMap.getInt(p + 8), mMap.getInt(p + 12)), r);
+		}
+
+		int live = 0;
+		Iterator<Integer> it = lists.keySet().iterator();
+		while (it.hasNext()) {
+			Integer k = it.next();
+			Pending list = lists.get(k);
+			sort(list.keys, list.records, list.size);
+			int n = Math.min(list.size, mCapacity);
+			getBoard(k.intValue(), true).build(list.keys, list.records, n);
+			live += n;
+		}
+		mDead = mCount - live;
+	}
+
+	/**
+	 * Merge sort by key, descending; stable, so equal keys keep the order
+	 * they were submitted in.
+	 */
+	static void sort(long[] keys, int[] records, int n) {
+		long[] k2 = new long[n];
+		int[] r2 = new int[n];
+		long[] ka = keys;
+		int[] ra = records;
+		for (int width = 1; width < n; width *= 2) {
+			for (int lo = 0; lo < n; lo += 2 * width) {
+				int mid = Math.min(lo + width, n);
+				int hi = Math.min(lo + 2 * width, n);
+				int i = lo;
+				int j = mid;
+				for (int o = lo; o < hi; o++) {
+					if (i < mid && (j >= hi || ka[i] >= ka[j])) {
+						k2[o] = ka[i];
+						r2[o] = ra[i++];
+					} else {
+						k2[o] = ka[j];
+						r2[o] = ra[j++];
+					}
+				}
+			}
+			long[] kt = ka; ka = k2; k2 = kt;
+			int[] rt = ra; ra = r2; r2 = rt;
+		}
+		if (ka != keys) {
+			System.arraycopy(ka, 0, keys, 0, n);
+			System.arraycopy(ra, 0, records, 0, n);
+		}
+	}
+
+	private static void read(ByteBuffer map, int record, Entry e) {
+		int p = HEADER_SIZE + record * RECORD_SIZE;
+		e.time = map.getLong(p);
+		e.score = map.getInt(p + 8);
+		e.millis = map.getInt(p + 12);
+		e.level = map.get(p + 16) & 0xff;
+		e.difficulty = map.get(p + 17) & 0xff;
+		e.planet = map.get(p + 18) & 0xff;
+		int n = Math.min(map.get(p + 19) & 0xff, NAME_LENGTH);
+		char[] name = new char[n];
+		for (int i = 0; i < n; i++)
+			name[i] = (char) (map.get(p + 20 + i) & 0xff);
+		e.name = new String(name);
+	}
+
+	private static void copy(ByteBuffer map, int record, ByteBuffer out) {
+		int p = HEADER_SIZE + record * RECORD_SIZE;
+		for (int i = 0; i < RECORD_SIZE; i++)
+			out.put(map.get(p + i));
+	}
+
+	private static void writeHeader(ByteBuffer buf) {
+		buf.putInt(MAGIC);
+		buf.putShort((short) VERSION);
+		buf.putShort((short) RECORD_SIZE);
+		buf.putLong(0);
+	}
+
+	private static void flush(FileChannel ch, ByteBuffer buf) throws IOException {
+		buf.flip();
+		while (buf.hasRemaining())
+			ch.write(buf);
+		buf.clear();
+	}
+}
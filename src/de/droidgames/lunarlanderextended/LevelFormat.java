@@ -0,0 +1,576 @@
+package de.droidgames.lunarlanderextended;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * The two forms of a maze level: the hand edited text in assets/level<n>.txt
+ * and the compiled assets/level<n>.lvl that tools/.../LevelCompiler makes
+ * from it. The text is checked strictly here, so a typo is reported with its
+ * line and column instead of turning into a wrong tile.
+ *
+ * Compiled format, big endian:
+ *
+ *   int   MAGIC, short VERSION
+ *   short cols, rows, blob size in tiles
+ *   short start column, start row (top left tile of the blob)
+ *   cols * rows bytes of tiles, row by row
+ *   (cols * rows + 63) / 64 longs of walls, one bit per VOID_TILE
+ *
+ * Loading it is two bulk reads, no parsing and no search for the start.
+ *
+ * Levels too large to keep in memory are compiled into chunks of
+ * CHUNK_SIZE x CHUNK_SIZE tiles instead, which ChunkFile reads one at a
+ * time, see MazeChunks:
+ *
+ *   int   MAGIC, short VERSION_CHUNKED
+ *   int   cols, rows; short chunk size, blob size in tiles
+ *   int   start column, start row
+ *   int   CRC32 of the fields from cols on and of the chunks
+ *   int   offset of each chunk after the table, row by row, then the end
+ *   the chunks, each as runs of (length - 1, tile) byte pairs over its
+ *   tiles row by row, VOID_TILE outside the level
+ */
+public class LevelFormat {
+	public static final int MAGIC = 0x4C4C4D5A; // "LLMZ"
+	public static final int VERSION = 1;
+	public static final int VERSION_CHUNKED = 2;
+
+	/** Tiles per side of a chunk */
+	public static final int CHUNK_SIZE = 32;
+
+	/** Larger levels are compiled into chunks */
+	public static final int CHUNKED_TILES = 256 * 256;
+
+	/** Largest number of columns or rows of a chunked level */
+	public static final int MAX_CHUNKED_SIZE = 1 << 20;
+
+	/** Bytes before the offset table of a chunked level */
+	private static final int CHUNKED_HEADER = 30;
+
+	public static final String PREFIX = "level";
+	public static final String TEXT_SUFFIX = ".txt";
+	public static final String COMPILED_SUFFIX = ".lvl";
+
+	// tile types
+	public static final int PATH_TILE = 0;
+	public static final int VOID_TILE = 1;
+	public static final int EXIT_TILE = 2;
+
+	/** Pixels per side of a tile */
+	public static final int TILE_SIZE = 16;
+
+	/** Largest number of columns or rows */
+	public static final int MAX_SIZE = Short.MAX_VALUE;
+
+	/**
+	 * Tiles the blob covers in each direction: it is drawn at half its 71
+	 * pixel image, which spans three 16 pixel tiles.
+	 */
+	public static final int BLOB_TILES = 3;
+
+	public static final class Level {
+		public int cols;
+		public int rows;
+		public byte[] tiles;
+		public long[] walls;
+
+		/** Blob size the start was placed for */
+		public int blobTiles = BLOB_TILES;
+		/** Top left tile of the blob at the start, -1 if it fits nowhere */
+		public int startCol = -1;
+		public int startRow = -1;
+	}
+
+	/**
+	 * What validate() found out about a level.
+	 */
+	public static final class Report {
+		public final List<String> errors = new ArrayList<String>();
+		public final List<String> warnings = new ArrayList<String>();
+
+		public int paths;
+		public int exits;
+		/** Blob positions, and how many of them can be reached from the start */
+		public int positions;
+		public int reachable;
+		/** Fewest tile steps from the start to an exit, -1 if there is no way */
+		public int exitDistance = -1;
+	}
+
+	/**
+	 * Reads the text form: one line per row, the tiles separated by ",", a
+	 * trailing "," is allowed and blank lines are skipped. Every problem is
+	 * added to errors with its position; bad tiles become VOID_TILE.
+	 */
+	public static Level parse(InputStream is, List<String> errors) throws IOException {
+		BufferedReader in = new BufferedReader(new InputStreamReader(is, "US-ASCII"));
+		ArrayList<String[]> rows = new ArrayList<String[]>();
+		ArrayList<Integer> lines = new ArrayList<Integer>();
+		String line;
+		int number = 0;
+		while ((line = in.readLine()) != null) {
+			number++;
+			if (line.trim().length() == 0) continue;
+			String[] tiles = line.split(",", -1);
+			// a trailing "," leaves an empty last column
+			int n = tiles.length;
+			if (n > 1 && tiles[n - 1].trim().length() == 0) n--;
+			String[] row = new String[n];
+			System.arraycopy(tiles, 0, row, 0, n);
+			rows.add(row);
+			lines.add(number);
+		}
+
+		Level level = new Level();
+		level.rows = rows.size();
+		level.cols = rows.isEmpty() ? 0 : rows.get(0).length;
+		if (level.rows == 0) errors.add("no rows");
+		if (level.cols > MAX_SIZE || level.rows > MAX_SIZE)
+			errors.add("larger than " + MAX_SIZE + " tiles: " + level.cols + " x " + level.rows);
+		if (!errors.isEmpty()) {
+			level.cols = level.rows = 0;
+			level.tiles = new byte[0];
+			level.walls = new long[0];
+			return level;
+		}
+
+		byte[] data = new byte[level.rows * level.cols];
+		for (int r = 0; r < level.rows; r++) {
+			String[] tiles = rows.get(r);
+			if (tiles.length != level.cols)
+				errors.add("line " + lines.get(r) + ": " + tiles.length + " tiles, expected " + level.cols);
+			for (int c = 0; c < level.cols; c++) {
+				int tile = c < tiles.length ? tile(tiles[c].trim()) : VOID_TILE;
+				if (tile < 0) {
+					errors.add("line " + lines.get(r) + ", column " + (c + 1)
+							+ ": unknown tile \"" + tiles[c].trim() + "\"");
+					tile = VOID_TILE;
+				}
+				data[r * level.cols + c] = (byte) tile;
+			}
+		}
+		level.tiles = data;
+		level.walls = walls(data);
+		return level;
+	}
+
+	private static int tile(String s) {
+		if (s.length() != 1) return -1;
+		switch (s.charAt(0)) {
+		case '0': return PATH_TILE;
+		case '1': return VOID_TILE;
+		case '2': return EXIT_TILE;
+		default: return -1;
+		}
+	}
+
+	/**
+	 * One bit per tile, set for VOID_TILE.
+	 */
+	public static long[] walls(byte[] tiles) {
+		long[] walls = new long[(tiles.length + 63) >> 6];
+		for (int i = 0; i < tiles.length; i++) {
+			if (tiles[i] == VOID_TILE) walls[i >> 6] |= 1L << i;
+		}
+		return walls;
+	}
+
+	/**
+	 * Places the blob and checks that the level can be played with a blob of
+	 * blobTiles x blobTiles tiles: it has to fit somewhere, there has to be
+	 * an exit and it has to be reachable from the start. The blob starts at
+	 * the first place it fits, in reading order, and falls from there onto
+	 * the floor. Reachability is geometric, how high the blob can jump is
+	 * not taken into account.
+	 */
+	public static Report validate(Level level, int blobTiles) {
+		Report report = new Report();
+		int cols = level.cols;
+		int rows = level.rows;
+		int b = blobTiles;
+		level.blobTiles = b;
+		level.startCol = level.startRow = -1;
+
+		// summed area tables of walls and exits, (cols + 1) x (rows + 1)
+		int w = cols + 1;
+		int[] walls = new int[w * (rows + 1)];
+		int[] exits = new int[w * (rows + 1)];
+		for (int r = 0; r < rows; r++) {
+			for (int c = 0; c < cols; c++) {
+				int tile = level.tiles[r * cols + c];
+				if (tile == PATH_TILE) report.paths++;
+				if (tile == EXIT_TILE) report.exits++;
+				int i = (r + 1) * w + c + 1;
+				walls[i] = walls[i - 1] + walls[i - w] - walls[i - w - 1] + (tile == VOID_TILE ? 1 : 0);
+				exits[i] = exits[i - 1] + exits[i - w] - exits[i - w - 1] + (tile == EXIT_TILE ? 1 : 0);
+			}
+		}
+		if (report.exits == 0) report.errors.add("no exit tile");
+
+		for (int c = 0; c < cols; c++) {
+			if (level.tiles[c] != VOID_TILE || level.tiles[(rows - 1) * cols + c] != VOID_TILE) {
+				report.warnings.add("column " + (c + 1) + ": border is open, the blob stops at the edge");
+				break;
+			}
+		}
+		for (int r = 0; r < rows; r++) {
+			if (level.tiles[r * cols] != VOID_TILE || level.tiles[r * cols + cols - 1] != VOID_TILE) {
+				report.warnings.add("row " + (r + 1) + ": border is open, the blob stops at the edge");
+				break;
+			}
+		}
+
+		// blob positions by their top left tile
+		int pc = cols - b + 1;
+		int pr = rows - b + 1;
+		if (pc <= 0 || pr <= 0) {
+			report.errors.add("smaller than the blob, " + b + " x " + b + " tiles");
+			return report;
+		}
+		boolean[] fits = new boolean[pc * pr];
+		int first = -1;
+		for (int r = 0; r < pr; r++) {
+			for (int c = 0; c < pc; c++) {
+				if (sum(walls, w, c, r, b) != 0) continue;
+				fits[r * pc + c] = true;
+				report.positions++;
+				if (first < 0) first = r * pc + c;
+			}
+		}
+		if (first < 0) {
+			report.errors.add("the blob fits nowhere, it needs " + b + " x " + b + " open tiles");
+			return report;
+		}
+
+		// fall onto the floor
+		int startCol = first % pc;
+		int startRow = first / pc;
+		while (startRow + 1 < pr && fits[(startRow + 1) * pc + startCol]) startRow++;
+		level.startCol = startCol;
+		level.startRow = startRow;
+		if (sum(exits, w, startCol, startRow, b) != 0)
+			report.warnings.add("the blob starts on an exit");
+
+		// breadth first over the positions, layer by layer
+		int[] queue = new int[fits.length];
+		boolean[] seen = new boolean[fits.length];
+		int head = 0;
+		int tail = 0;
+		queue[tail++] = startRow * pc + startCol;
+		seen[queue[0]] = true;
+		for (int distance = 0; head < tail; distance++) {
+			int end = tail;
+			for (; head < end; head++) {
+				int p = queue[head];
+				int c = p % pc;
+				int r = p / pc;
+				if (report.exitDistance < 0 && sum(exits, w, c, r, b) != 0)
+					report.exitDistance = distance;
+				if (c > 0 && fits[p - 1] && !seen[p - 1]) { seen[p - 1] = true; queue[tail++] = p - 1; }
+				if (c < pc - 1 && fits[p + 1] && !seen[p + 1]) { seen[p + 1] = true; queue[tail++] = p + 1; }
+				if (r > 0 && fits[p - pc] && !seen[p - pc]) { seen[p - pc] = true; queue[tail++] = p - pc; }
+				if (r < pr - 1 && fits[p + pc] && !seen[p + pc]) { seen[p + pc] = true; queue[tail++] = p + pc; }
+			}
+		}
+		report.reachable = tail;
+		if (report.exits > 0 && report.exitDistance < 0)
+			report.errors.add("no exit can be reached from the start at row " + (startRow + 1)
+					+ ", column " + (startCol + 1));
+		return report;
+	}
+
+	/**
+	 * Sum over the n x n tiles with top left tile (c, r).
+	 */
+	private static int sum(int[] table, int w, int c, int r, int n) {
+		return table[(r + n) * w + c + n] - table[r * w + c + n]
+				- table[(r + n) * w + c] + table[r * w + c];
+	}
+
+	public static void write(Level level, OutputStream os) throws IOException {
+		DataOutputStream out = new DataOutputStream(os);
+		out.writeInt(MAGIC);
+		out.writeShort(VERSION);
+		out.writeShort(level.cols);
+		out.writeShort(level.rows);
+		out.writeShort(level.blobTiles);
+		out.writeShort(level.startCol);
+		out.writeShort(level.startRow);
+		out.write(level.tiles);
+		for (int i = 0; i < level.walls.length; i++)
+			out.writeLong(level.walls[i]);
+		out.flush();
+	}
+
+	/**
+	 * Writes a level in chunks, reading them from source three times: to
+	 * checksum them for the header, to measure them for the table and to
+	 * write them, so not even a chunked level has to be in memory as a
+	 * whole.
+	 */
+	public static void writeChunked(int cols, int rows, int blobTiles, int startCol, int startRow,
+			MazeChunks.Source source, OutputStream os) throws IOException {
+		if (cols <= 0 || rows <= 0 || cols > MAX_CHUNKED_SIZE || rows > MAX_CHUNKED_SIZE)
+			throw new IOException("bad size " + cols + " x " + rows);
+		int chunkCols = (cols + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		int chunkRows = (rows + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		byte[] tiles = new byte[CHUNK_SIZE * CHUNK_SIZE];
+		byte[] runs = new byte[tiles.length * 2];
+
+		// the fields, so a copy is stale as well when only the start moved
+		ByteArrayOutputStream fields = new ByteArrayOutputStream(CHUNKED_HEADER);
+		DataOutputStream header = new DataOutputStream(fields);
+		header.writeInt(cols);
+		header.writeInt(rows);
+		header.writeShort(CHUNK_SIZE);
+		header.writeShort(blobTiles);
+		header.writeInt(startCol);
+		header.writeInt(startRow);
+		header.flush();
+		CRC32 crc = new CRC32();
+		crc.update(fields.toByteArray());
+		for (int cy = 0; cy < chunkRows; cy++) {
+			for (int cx = 0; cx < chunkCols; cx++) {
+				source.read(cx * CHUNK_SIZE, cy * CHUNK_SIZE, CHUNK_SIZE, tiles);
+				crc.update(runs, 0, encode(tiles, runs));
+			}
+		}
+
+		DataOutputStream out = new DataOutputStream(os);
+		out.writeInt(MAGIC);
+		out.writeShort(VERSION_CHUNKED);
+		fields.writeTo(out);
+		out.writeInt((int) crc.getValue());
+
+		int offset = 0;
+		for (int cy = 0; cy < chunkRows; cy++) {
+			for (int cx = 0; cx < chunkCols; cx++) {
+				out.writeInt(offset);
+				source.read(cx * CHUNK_SIZE, cy * CHUNK_SIZE, CHUNK_SIZE, tiles);
+				offset += encode(tiles, runs);
+				if (offset < 0) throw new IOException("level too large");
+			}
+		}
+		out.writeInt(offset);
+
+		for (int cy = 0; cy < chunkRows; cy++) {
+			for (int cx = 0; cx < chunkCols; cx++) {
+				source.read(cx * CHUNK_SIZE, cy * CHUNK_SIZE, CHUNK_SIZE, tiles);
+				out.write(runs, 0, encode(tiles, runs));
+			}
+		}
+		source.release();
+		out.flush();
+	}
+
+	/**
+	 * Run length encodes tiles into runs.
+	 *
+	 * @return bytes used in runs
+	 */
+	static int encode(byte[] tiles, byte[] runs) {
+		int n = 0;
+		int i = 0;
+		while (i < tiles.length) {
+			byte tile = tiles[i];
+			int length = 1;
+			while (i + length < tiles.length && length < 256 && tiles[i + length] == tile) length++;
+			runs[n++] = (byte) (length - 1);
+			runs[n++] = tile;
+			i += length;
+		}
+		return n;
+	}
+
+	/**
+	 * Reads the first bytes of a compiled level and returns its version.
+	 * The stream is reset to where it was, so it has to support mark().
+	 */
+	public static int version(InputStream is) throws IOException {
+		is.mark(6);
+		DataInputStream in = new DataInputStream(is);
+		try {
+			if (in.readInt() != MAGIC) throw new IOException("not a compiled level");
+			return in.readShort();
+		} finally {
+			is.reset();
+		}
+	}
+
+	/**
+	 * Reads the header of a chunked level and returns the checksum of its
+	 * header fields and chunks, to tell whether a copy of it is current without reading it
+	 * all. The stream is reset like with version().
+	 */
+	public static int checksum(InputStream is) throws IOException {
+		is.mark(CHUNKED_HEADER);
+		DataInputStream in = new DataInputStream(is);
+		try {
+			if (in.readInt() != MAGIC) throw new IOException("not a compiled level");
+			int version = in.readShort();
+			if (version != VERSION_CHUNKED) throw new IOException("not a chunked level: version " + version);
+			// size, chunk and blob size, start
+			in.readFully(new byte[CHUNKED_HEADER - 10]);
+			return in.readInt();
+		} finally {
+			is.reset();
+		}
+	}
+
+	public static Level read(InputStream is) throws IOException {
+		DataInputStream in = new DataInputStream(is);
+		if (in.readInt() != MAGIC) throw new IOException("not a compiled level");
+		int version = in.readShort();
+		if (version != VERSION) throw new IOException("unsupported level version " + version);
+		Level level = new Level();
+		level.cols = in.readShort();
+		level.rows = in.readShort();
+		level.blobTiles = in.readShort();
+		level.startCol = in.readShort();
+		level.startRow = in.readShort();
+		if (level.cols < 0 || level.rows < 0) throw new IOException("bad size " + level.cols + " x " + level.rows);
+		level.tiles = new byte[level.cols * level.rows];
+		in.readFully(level.tiles);
+		level.walls = new long[(level.tiles.length + 63) >> 6];
+		for (int i = 0; i < level.walls.length; i++)
+			level.walls[i] = in.readLong();
+		return level;
+	}
+
+	/**
+	 * Chunks from a level in memory. Changed tiles are written through, so
+	 * they survive paging.
+	 */
+	public static final class LevelSource implements MazeChunks.Source {
+		private final Level mLevel;
+
+		public LevelSource(Level level) {
+			mLevel = level;
+		}
+
+		public void read(int col, int row, int size, byte[] tiles) {
+			Level l = mLevel;
+			for (int r = 0; r < size; r++) {
+				int n = Math.max(0, Math.min(size, l.cols - col));
+				if (row + r < l.rows && n > 0)
+					System.arraycopy(l.tiles, (row + r) * l.cols + col, tiles, r * size, n);
+				else
+					n = 0;
+				for (int c = n; c < size; c++)
+					tiles[r * size + c] = VOID_TILE;
+			}
+		}
+
+		public void write(int col, int row, int type) {
+			int i = row * mLevel.cols + col;
+			mLevel.tiles[i] = (byte) type;
+			if (type == VOID_TILE)
+				mLevel.walls[i >> 6] |= 1L << i;
+			else
+				mLevel.walls[i >> 6] &= ~(1L << i);
+		}
+
+		public void release() {
+		}
+	}
+
+	/**
+	 * Chunks from a chunked level file, read one at a time with a seek. The
+	 * file is open from the first read until release(). Changed tiles are
+	 * not written back.
+	 */
+	public static final class ChunkFile implements MazeChunks.Source {
+		public final int cols;
+		public final int rows;
+		public final int chunkSize;
+		public final int blobTiles;
+		public final int startCol;
+		public final int startRow;
+		/** CRC32 of the header fields and the chunks, as in the header */
+		public final int checksum;
+
+		private final File mFile;
+		private final int mChunkCols;
+		/** Where the offset table and the chunks start */
+		private final long mTable;
+		private final long mData;
+
+		private RandomAccessFile mIn;
+		private final byte[] mRuns;
+
+		public ChunkFile(File file) throws IOException {
+			mFile = file;
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try {
+				if (in.readInt() != MAGIC) throw new IOException("not a compiled level");
+				int version = in.readShort();
+				if (version != VERSION_CHUNKED) throw new IOException("not a chunked level: version " + version);
+				cols = in.readInt();
+				rows = in.readInt();
+				chunkSize = in.readShort();
+				blobTiles = in.readShort();
+				startCol = in.readInt();
+				startRow = in.readInt();
+				checksum = in.readInt();
+			} finally {
+				in.close();
+			}
+			if (cols <= 0 || rows <= 0 || cols > MAX_CHUNKED_SIZE || rows > MAX_CHUNKED_SIZE)
+				throw new IOException("bad size " + cols + " x " + rows);
+			if (chunkSize <= 0 || (chunkSize & (chunkSize - 1)) != 0)
+				throw new IOException("bad chunk size " + chunkSize);
+			mChunkCols = (cols + chunkSize - 1) / chunkSize;
+			int chunks = mChunkCols * ((rows + chunkSize - 1) / chunkSize);
+			mTable = CHUNKED_HEADER;
+			mData = mTable + 4L * (chunks + 1);
+			mRuns = new byte[chunkSize * chunkSize * 2];
+		}
+
+		public void read(int col, int row, int size, byte[] tiles) throws IOException {
+			if (mIn == null) mIn = new RandomAccessFile(mFile, "r");
+			mIn.seek(mTable + 4L * ((row / chunkSize) * mChunkCols + col / chunkSize));
+			int start = mIn.readInt();
+			int length = mIn.readInt() - start;
+			if (length < 0 || length > mRuns.length) throw new IOException("bad chunk at " + col + ", " + row);
+			mIn.seek(mData + start);
+			mIn.readFully(mRuns, 0, length);
+
+			int n = 0;
+			for (int i = 0; i + 1 < length; i += 2) {
+				int run = (mRuns[i] & 0xff) + 1;
+				if (n + run > tiles.length) throw new IOException("bad chunk at " + col + ", " + row);
+				byte tile = mRuns[i + 1];
+				for (int k = 0; k < run; k++)
+					tiles[n++] = tile;
+			}
+			if (n != tiles.length) throw new IOException("short chunk at " + col + ", " + row);
+		}
+
+		public void write(int col, int row, int type) {
+		}
+
+		public void release() {
+			if (mIn == null) return;
+			try {
+				mIn.close();
+			} catch (IOException e) {
+				// Ignore
+			}
+			mIn = null;
+		}
+	}
+}
@@ -0,0 +1,207 @@
+package de.droidgames.lunarlanderextended;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+import android.content.res.AssetManager;
+import android.util.Log;
+
+/**
+ * Gives access to all maze levels shipped in the assets folder.
+ *
+ * Levels are found by listing assets/level*.lvl and level*.txt (see
+ * LevelFormat) and only loaded when they are first needed. Loaded levels
+ * stay in an LRU cache that is bounded by their memory size, and the level
+ * after the one being played can be loaded in the background so switching
+ * levels does not have to wait for it.
+ */
+public class LevelRepository {
+	private static final String TAG = "LevelRepository";
+
+	/** Default cache budget in bytes. */
+	public static final int DEFAULT_BUDGET = 256 * 1024;
+
+	private final AssetManager mAssets;
+	private final File mCacheDir;
+	private final int mBudget;
+
+	/** Level numbers found in the assets, ascending. */
+	private final int[] mLevels;
+
+	/** Parsed levels in access order, guarded by this. */
+	private final LinkedHashMap<Integer, Maze> mCache =
+		new LinkedHashMap<Integer, Maze>(16, 0.75f, true);
+	private int mCacheSize;
+
+	/** Levels being parsed in the background, guarded by this. */
+	private final HashMap<Integer, FutureTask<Maze>> mPending =
+		new HashMap<Integer, FutureTask<Maze>>();
+
+	private final ExecutorService mLoader =
+		Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, TAG);
+				t.setDaemon(true);
+				t.setPriority(Thread.MIN_PRIORITY);
+				return t;
+			}
+		});
+
+	/**
+	 * @param cacheDir where chunked levels are unpacked to
+	 */
+	public LevelRepository(AssetManager assets, File cacheDir, int budget) {
+		mAssets = assets;
+		mCacheDir = cacheDir;
+		mBudget = budget;
+		mLevels = discover(assets);
+	}
+
+	/**
+	 * Returns the number of level files found.
+	 */
+	public int getLevelCount() {
+		return mLevels.length;
+	}
+
+	/**
+	 * Returns the number of the level following the given one, or -1 if it is
+	 * the last one.
+	 */
+	public int getNextLevel(int level) {
+		for (int i = 0; i < mLevels.length; i++) {
+			if (mLevels[i] > level) return mLevels[i];
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the parsed level, parsing it on the calling thread if it is
+	 * neither cached nor already being prefetched, or null if it can't be
+	 * loaded. Failed loads are not cached, the next call tries again.
+	 */
+	public Maze get(int level) {
+		FutureTask<Maze> task;
+		synchronized (this) {
+			Maze maze = mCache.get(level);
+			if (maze != null) return maze;
+
+			task = mPending.get(level);
+			if (task == null) {
+				task = newTask(level);
+				mPending.put(level, task);
+			}
+		}
+
+		// runs the parser here unless the loader has already started it
+		task.run();
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			Log.w(TAG, "level " + level + " failed: " + e.getCause());
+		}
+		return null;
+	}
+
+	/**
+	 * Starts parsing the given level in the background unless it is cached or
+	 * already pending. Does nothing for levels that do not exist.
+	 */
+	public synchronized void prefetch(int level) {
+		if (level < 0 || mCache.containsKey(level) || mPending.containsKey(level))
+			return;
+
+		FutureTask<Maze> task = newTask(level);
+		mPending.put(level, task);
+		mLoader.execute(task);
+	}
+
+	/**
+	 * Stops the background loader; levels being prefetched are dropped.
+	 */
+	public void close() {
+		mLoader.shutdownNow();
+	}
+
+	private FutureTask<Maze> newTask(final int level) {
+		return new FutureTask<Maze>(new Callable<Maze>() {
+			public Maze call() throws IOException {
+				Maze maze;
+				try {
+					maze = new Maze(mAssets, mCacheDir, level);
+				} catch (IOException e) {
+					fail(level);
+					throw e;
+				}
+				put(level, maze);
+				return maze;
+			}
+		});
+	}
+
+	private synchronized void put(int level, Maze maze) {
+		mPending.remove(level);
+		Maze old = mCache.put(level, maze);
+		if (old != null) mCacheSize -= old.getMemorySize();
+		mCacheSize += maze.getMemorySize();
+
+		// evict least recently used levels, but never the one just added
+		Iterator<Map.Entry<Integer, Maze>> it = mCache.entrySet().iterator();
+		while (mCacheSize > mBudget && it.hasNext()) {
+			Map.Entry<Integer, Maze> e = it.next();
+			if (e.getKey() == level) continue;
+			mCacheSize -= e.getValue().getMemorySize();
+			it.remove();
+		}
+	}
+
+	private synchronized void fail(int level) {
+		mPending.remove(level);
+	}
+
+	/**
+	 * Lists the level numbers of all assets named level<n>.lvl or level<n>.txt.
+	 */
+	private static int[] discover(AssetManager assets) {
+		String[] files;
+		try {
+			files = assets.list("");
+		} catch (IOException e) {
+			Log.w(TAG, "cannot list assets: " + e);
+			return new int[0];
+		}
+
+		int[] levels = new int[files.length];
+		int n = 0;
+		for (String f : files) {
+			if (!f.startsWith(LevelFormat.PREFIX)
+					|| !(f.endsWith(LevelFormat.TEXT_SUFFIX) || f.endsWith(LevelFormat.COMPILED_SUFFIX))) continue;
+			try {
+				int level = Integer.parseInt(f.substring(LevelFormat.PREFIX.length(), f.length() - 4));
+				// both forms of the same level are listed
+				boolean known = false;
+				for (int i = 0; i < n; i++) known |= levels[i] == level;
+				if (!known) levels[n++] = level;
+			} catch (NumberFormatException e) {
+				// not a level file
+			}
+		}
+		int[] found = new int[n];
+		System.arraycopy(levels, 0, found, 0, n);
+		Arrays.sort(found);
+		return found;
+	}
+}
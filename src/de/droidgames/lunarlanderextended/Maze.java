@@ -1,141 +1,260 @@
 package de.droidgames.lunarlanderextended;
 
+import java.io.BufferedInputStream;
 import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
 
 import android.content.res.AssetManager;
-import android.graphics.Canvas;
-import android.graphics.Color;
-import android.graphics.Paint;
-import android.graphics.Rect;
 import android.util.Log;
 
 /*
  *	Klasse, die ein Labyrinth aus einer txt Datei generiert, in dem 
  *  Blob die Diamanten sammeln muss.
+ *
+ *  The tiles are kept in MazeChunks, so only the part around the blob has
+ *  to be in memory and a maze can be far larger than the screen; fill()
+ *  copies what a camera sees of it into a MazeWindow to be drawn.
  */
-public class Maze {
-	private final static int TILE_SIZE = 16;
-	private final static int MAZE_COLS = 20;
-	private final static int MAZE_ROWS = 26;
+public class Maze implements MazePhysics.Tiles {
+	public final static int TILE_SIZE = LevelFormat.TILE_SIZE;
 
 	// tile types
-	public final static int PATH_TILE = 0;
-	public final static int VOID_TILE = 1;
-	public final static int EXIT_TILE = 2;
+	public final static int PATH_TILE = LevelFormat.PATH_TILE;
+	public final static int VOID_TILE = LevelFormat.VOID_TILE;
+	public final static int EXIT_TILE = LevelFormat.EXIT_TILE;
 
-	// tile colors
-	private final static int VOID_COLOR = Color.BLACK;
+	// the tiles, paged in chunks around the blob
+	private MazeChunks mChunks;
+	private int mCols;
+	private int mRows;
 
-	// maze level data
-	private static int[] mMazeData;
+	// the whole level if it was small enough to load, else null
+	private LevelFormat.Level mLevel;
 
-	// number of level
-	public final static int MAX_LEVELS = 10;
+	// top left tile of the blob at the start, and its size in tiles
+	private int mStartCol;
+	private int mStartRow;
+	private int mBlobTiles = LevelFormat.BLOB_TILES;
 
-	// current tile attributes
-	private Rect mRect = new Rect();
-	private int mRow;
-	private int mCol;
-	private int mX;
-	private int mY;
-
-	public Maze(AssetManager a, int newLevel) {
-		load(a,newLevel);
+	/**
+	 * @param cacheDir where chunked levels are unpacked to, to be read
+	 *            chunk by chunk
+	 * @throws IOException if the level is missing or has mistakes
+	 */
+	public Maze(AssetManager a, File cacheDir, int newLevel) throws IOException {
+		load(a, cacheDir, newLevel);
 	}
 
-	void load(AssetManager a, int newLevel) {
-		// maze data is stored in the assets folder as level1.txt, level2.txt
-		// etc....
-		String mLevel = "level" + newLevel + ".txt";
+	private void load(AssetManager a, File cacheDir, int newLevel) throws IOException {
+		// maze data is stored in the assets folder as level1.lvl, compiled
+		// from level1.txt by tools/.../LevelCompiler, level2.lvl etc....
+		String name = LevelFormat.PREFIX + newLevel;
 
 		InputStream is = null;
 
 		try {
-			// construct our maze data array.
-			mMazeData = new int[MAZE_ROWS * MAZE_COLS];
-			// attempt to load maze data.
-			is = a.open(mLevel);
-
-			// we need to loop through the input stream and load each tile for
-			// the current maze.
-			for (int i = 0; i < mMazeData.length; i++) {
-				// data is stored in unicode so we need to convert it.
-				mMazeData[i] = Character.getNumericValue(is.read());
-
-				// skip the "," and white space in our human readable file.
-				is.read();
-				is.read();
+			try {
+				is = a.open(name + LevelFormat.COMPILED_SUFFIX);
+			} catch (FileNotFoundException e) {
+				// not compiled, fall back to the text
+				is = a.open(name + LevelFormat.TEXT_SUFFIX);
+				set(parse(is));
+				return;
+			}
+			BufferedInputStream in = new BufferedInputStream(is);
+			if (LevelFormat.version(in) == LevelFormat.VERSION_CHUNKED) {
+				// assets are compressed and can't be seeked in, so the
+				// level is copied out, again whenever the checksum of the
+				// asset differs from the copy's
+				File file = new File(cacheDir, name + LevelFormat.COMPILED_SUFFIX);
+				LevelFormat.ChunkFile copy = open(file);
+				if (copy == null || copy.checksum != LevelFormat.checksum(in)) {
+					copy(in, file);
+					copy = new LevelFormat.ChunkFile(file);
+				}
+				set(copy);
+			} else {
+				set(LevelFormat.read(in));
 			}
-		} catch (Exception e) {
-			Log.i("Maze", "load exception: " + e);
 		} finally {
 			closeStream(is);
 		}
+	}
 
+	/**
+	 * The copy of a chunked level, or null if there is none or it can't be
+	 * read.
+	 */
+	private static LevelFormat.ChunkFile open(File file) {
+		if (!file.exists()) return null;
+		try {
+			return new LevelFormat.ChunkFile(file);
+		} catch (IOException e) {
+			return null;
+		}
 	}
 
 	/**
-	 * Draw the maze.
-	 * 
-	 * @param canvas
-	 *            Canvas object to draw too.
-	 * @param paint
-	 *            Paint object used to draw with.
-	 * @param x
-	 * 			  x Koordinate des Blob im Grid
-	 * @param y
-	 * 	 		  y Koordinate des Blob im Grid
-	 * 
+	 * Copies into a temporary file first and renames it, so a copy cut
+	 * short by the game being killed is never taken for the level.
 	 */
-	public void draw(Canvas canvas, Paint paint, int x, int y) {
-		// loop through our maze and draw each tile individually.
-		for (int i = 0; i < mMazeData.length; i++) {
-			// calculate the row and column of the current tile.
-			mRow = i / MAZE_COLS;
-			mCol = i % MAZE_COLS;
-
-			// convert the row and column into actual x,y co-ordinates so we can
-			// draw it on screen.
-			mX = mCol * TILE_SIZE;
-			mY = mRow * TILE_SIZE;
-
-			// draw the actual tile based on type.
-			if (mMazeData[i] == PATH_TILE) {
-				//canvas.drawBitmap(mImgPath, mX, mY, paint);
-				mRect.left = mX;
-				mRect.top = mY;
-				mRect.right = mX + TILE_SIZE;
-				mRect.bottom = mY + TILE_SIZE;
-
-				paint.setColor(Color.WHITE);
-				canvas.drawRect(mRect, paint);
-			}
-			else if (mMazeData[i] == EXIT_TILE) {
-				//canvas.drawBitmap(mImgExit, mX, mY, paint);
-				mRect.left = mX;
-				mRect.top = mY;
-				mRect.right = mX + TILE_SIZE;
-				mRect.bottom = mY + TILE_SIZE;
-
-				paint.setColor(Color.BLUE);
-				canvas.drawRect(mRect, paint);
+	private static void copy(InputStream in, File file) throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		boolean done = false;
+		try {
+			OutputStream out = new FileOutputStream(tmp);
+			try {
+				byte[] buffer = new byte[8192];
+				int n;
+				while ((n = in.read(buffer)) > 0)
+					out.write(buffer, 0, n);
+			} finally {
+				out.close();
 			}
-			else if (mMazeData[i] == VOID_TILE) {
-				// since our "void" tile is purely black lets draw a rectangle
-				// instead of using an image.
-
-				// tile attributes we are going to paint.
-				mRect.left = mX;
-				mRect.top = mY;
-				mRect.right = mX + TILE_SIZE;
-				mRect.bottom = mY + TILE_SIZE;
-
-				paint.setColor(VOID_COLOR);
-				canvas.drawRect(mRect, paint);
+			if (!tmp.renameTo(file)) throw new IOException("can't rename " + tmp + " to " + file);
+			done = true;
+		} finally {
+			if (!done) tmp.delete();
+		}
+	}
+
+	/**
+	 * Reads the maze from our human readable format: one line per row, the
+	 * tiles separated by ",". The size of the maze is taken from the file.
+	 * A level with mistakes is not loaded at all.
+	 */
+	private static LevelFormat.Level parse(InputStream is) throws IOException {
+		ArrayList<String> errors = new ArrayList<String>();
+		LevelFormat.Level level = LevelFormat.parse(is, errors);
+		if (errors.isEmpty()) errors.addAll(LevelFormat.validate(level, LevelFormat.BLOB_TILES).errors);
+		if (!errors.isEmpty()) {
+			for (String error : errors)
+				Log.e("Maze", error);
+			throw new IOException(errors.size() + " errors");
+		}
+		return level;
+	}
+
+	private void set(LevelFormat.Level level) {
+		mLevel = level;
+		mChunks = new MazeChunks(level.cols, level.rows, LevelFormat.CHUNK_SIZE,
+				MazeChunks.DEFAULT_VIEW_RADIUS, new LevelFormat.LevelSource(level));
+		mCols = level.cols;
+		mRows = level.rows;
+		mStartCol = level.startCol;
+		mStartRow = level.startRow;
+		mBlobTiles = level.blobTiles;
+	}
+
+	private void set(LevelFormat.ChunkFile file) {
+		mLevel = null;
+		mChunks = new MazeChunks(file.cols, file.rows, file.chunkSize,
+				MazeChunks.DEFAULT_VIEW_RADIUS, file);
+		mCols = file.cols;
+		mRows = file.rows;
+		mStartCol = file.startCol;
+		mStartRow = file.startRow;
+		mBlobTiles = file.blobTiles;
+	}
+
+	/**
+	 * Returns the tile type at the given column and row. Everything outside
+	 * the maze counts as VOID_TILE.
+	 */
+	public int getTile(int col, int row) {
+		return mChunks.getTile(col, row);
+	}
+
+	/**
+	 * Changes a single tile. Tiles outside the maze are ignored.
+	 */
+	public void setTile(int col, int row, int type) {
+		mChunks.setTile(col, row, type);
+	}
+
+	/**
+	 * Fast wall test against the packed bitset of the chunk. Everything
+	 * outside the maze is a wall, so the blob can never leave it.
+	 */
+	public boolean isWall(int col, int row) {
+		return mChunks.isWall(col, row);
+	}
+
+	/**
+	 * Returns the index (row * cols + col) of the first tile of the given
+	 * type, or -1 if there is none. Looks at every tile, so only for
+	 * small mazes.
+	 */
+	public int findTile(int type) {
+		for (int row = 0; row < mRows; row++) {
+			for (int col = 0; col < mCols; col++) {
+				if (mChunks.getTile(col, row) == type) return row * mCols + col;
 			}
 		}
+		return -1;
+	}
+
+	/**
+	 * Loads the chunks around the pixel position x, y, e.g. of the blob.
+	 */
+	public void page(float x, float y) {
+		mChunks.page((int) (x / TILE_SIZE), (int) (y / TILE_SIZE));
+	}
+
+	/**
+	 * Where the blob starts: the x of its bottom center in pixels.
+	 */
+	public float getStartX() {
+		return (mStartCol + mBlobTiles / 2.0f) * TILE_SIZE;
+	}
+
+	/**
+	 * Where the blob starts: the y of its bottom in pixels, just above the
+	 * floor.
+	 */
+	public float getStartY() {
+		return (mStartRow + mBlobTiles) * TILE_SIZE - 1.0f;
+	}
+
+	public int getCols() {
+		return mCols;
+	}
+
+	public int getRows() {
+		return mRows;
+	}
+
+	/**
+	 * Rough number of bytes this maze keeps on the heap, used by
+	 * LevelRepository to stay within its cache budget.
+	 */
+	public int getMemorySize() {
+		int size = 64 + mChunks.getMemorySize();
+		if (mLevel != null) size += mLevel.tiles.length + mLevel.walls.length * 8;
+		return size;
+	}
+
+	public int getCameraX(float x, int width) {
+		return MazeWindow.camera(x, width, mCols * TILE_SIZE);
+	}
+
+	public int getCameraY(float y, int height) {
+		return MazeWindow.camera(y, height, mRows * TILE_SIZE);
+	}
+
+	/**
+	 * Points a camera of width x height pixels at x, y and copies what it
+	 * sees into window, loading chunks as needed; on the thread that pages
+	 * the maze.
+	 */
+	public void fill(MazeWindow window, float x, float y, int width, int height) {
+		window.fill(mChunks, getCameraX(x, width), getCameraY(y, height), width, height);
 	}
 
 	/**
@@ -0,0 +1,195 @@
+package de.droidgames.lunarlanderextended;
+
+import java.io.IOException;
+
+/**
+ * The tiles of a maze of any size, held in square chunks of which only a
+ * window around the blob is in memory.
+ *
+ * The window has a fixed number of slots, so memory depends on the view
+ * radius and not on the size of the maze. Chunk (cx, cy) always goes into
+ * slot (cx mod width, cy mod height) of the window, like a ring buffer in two
+ * dimensions; finding a chunk is a division and a compare, and loading one
+ * replaces the chunk a whole window away, which is off the screen. page()
+ * loads the chunks around the blob when it moves into another chunk; tiles
+ * asked for outside of them are loaded on demand.
+ *
+ * Not thread safe; llextView uses it under the surface lock only and hands
+ * the tiles to draw to the render thread in a MazeWindow.
+ */
+public class MazeChunks implements MazePhysics.Tiles {
+	/** Chunks around the blob that page() keeps loaded, in each direction */
+	public static final int DEFAULT_VIEW_RADIUS = 3;
+
+	/**
+	 * Where chunks come from: a level in memory or a chunked level file.
+	 */
+	public interface Source {
+		/**
+		 * Fills tiles with the size * size tiles of the chunk whose top left
+		 * tile is (col, row), row by row; tiles outside the maze are
+		 * VOID_TILE.
+		 */
+		void read(int col, int row, int size, byte[] tiles) throws IOException;
+
+		/**
+		 * Keeps a changed tile; sources that can't keep it lose the change
+		 * once its chunk is paged out.
+		 */
+		void write(int col, int row, int type);
+
+		/** After a batch of reads, e.g. to close a file */
+		void release();
+	}
+
+	private static final int EMPTY = -1;
+
+	private final int mCols;
+	private final int mRows;
+	private final int mSize;
+	private final int mShift;
+	private final Source mSource;
+
+	/** Slots of the window, in chunks */
+	private final int mWidth;
+	private final int mHeight;
+	private final int mRadius;
+
+	/** Chunk index (cy * chunk columns + cx) held by each slot, or EMPTY */
+	private final int[] mKeys;
+	private final byte[][] mTiles;
+	/** One bit per tile, set for VOID_TILE */
+	private final long[][] mWalls;
+	private final int mChunkCols;
+	private final int mChunkRows;
+
+	/** Chunk page() was last centered on */
+	private int mCenter = EMPTY;
+	private int mLoads;
+
+	/**
+	 * @param size tiles per side of a chunk, a power of two
+	 * @param radius chunks around the blob to keep loaded
+	 */
+	public MazeChunks(int cols, int rows, int size, int radius, Source source) {
+		mCols = cols;
+		mRows = rows;
+		mSize = size;
+		mShift = Integer.numberOfTrailingZeros(size);
+		mSource = source;
+		mRadius = radius;
+		mChunkCols = (cols + size - 1) >> mShift;
+		mChunkRows = (rows + size - 1) >> mShift;
+		// one more than the radius needs, so loading never evicts a chunk that is kept
+		mWidth = Math.max(1, Math.min(mChunkCols, 2 * radius + 2));
+		mHeight = Math.max(1, Math.min(mChunkRows, 2 * radius + 2));
+
+		int slots = mWidth * mHeight;
+		mKeys = new int[slots];
+		mTiles = new byte[slots][size * size];
+		mWalls = new long[slots][(size * size + 63) >> 6];
+		for (int i = 0; i < slots; i++)
+			mKeys[i] = EMPTY;
+	}
+
+	public int getCols() {
+		return mCols;
+	}
+
+	public int getRows() {
+		return mRows;
+	}
+
+	public int getChunkSize() {
+		return mSize;
+	}
+
+	/** Chunks loaded since the start */
+	public int getLoads() {
+		return mLoads;
+	}
+
+	/** Bytes held by the window */
+	public int getMemorySize() {
+		return mKeys.length * (16 + mTiles[0].length + mWalls[0].length * 8);
+	}
+
+	public int getTile(int col, int row) {
+		if (col < 0 || row < 0 || col >= mCols || row >= mRows) return LevelFormat.VOID_TILE;
+		int slot = load(col >> mShift, row >> mShift);
+		return mTiles[slot][((row & (mSize - 1)) << mShift) + (col & (mSize - 1))];
+	}
+
+	public boolean isWall(int col, int row) {
+		if (col < 0 || row < 0 || col >= mCols || row >= mRows) return true;
+		int slot = load(col >> mShift, row >> mShift);
+		int i = ((row & (mSize - 1)) << mShift) + (col & (mSize - 1));
+		return (mWalls[slot][i >> 6] & (1L << i)) != 0;
+	}
+
+	public void setTile(int col, int row, int type) {
+		if (col < 0 || row < 0 || col >= mCols || row >= mRows) return;
+		int slot = load(col >> mShift, row >> mShift);
+		int i = ((row & (mSize - 1)) << mShift) + (col & (mSize - 1));
+		mTiles[slot][i] = (byte) type;
+		if (type == LevelFormat.VOID_TILE)
+			mWalls[slot][i >> 6] |= 1L << i;
+		else
+			mWalls[slot][i >> 6] &= ~(1L << i);
+		mSource.write(col, row, type);
+	}
+
+	/**
+	 * Makes sure the chunks within the view radius of a tile are loaded;
+	 * does nothing until the tile is in another chunk than last time.
+	 */
+	public void page(int col, int row) {
+		int cx = Math.max(0, Math.min(mChunkCols - 1, col >> mShift));
+		int cy = Math.max(0, Math.min(mChunkRows - 1, row >> mShift));
+		int center = cy * mChunkCols + cx;
+		if (center == mCenter) return;
+		mCenter = center;
+
+		for (int y = Math.max(0, cy - mRadius); y <= Math.min(mChunkRows - 1, cy + mRadius); y++) {
+			for (int x = Math.max(0, cx - mRadius); x <= Math.min(mChunkCols - 1, cx + mRadius); x++)
+				find(x, y);
+		}
+		mSource.release();
+	}
+
+	private int load(int cx, int cy) {
+		int slot = (cy % mHeight) * mWidth + cx % mWidth;
+		if (mKeys[slot] == cy * mChunkCols + cx) return slot;
+		slot = find(cx, cy);
+		mSource.release();
+		return slot;
+	}
+
+	/**
+	 * The slot of a chunk, loading it if needed.
+	 */
+	private int find(int cx, int cy) {
+		int slot = (cy % mHeight) * mWidth + cx % mWidth;
+		int key = cy * mChunkCols + cx;
+		if (mKeys[slot] == key) return slot;
+
+		mKeys[slot] = EMPTY;
+		byte[] tiles = mTiles[slot];
+		long[] walls = mWalls[slot];
+		try {
+			mSource.read(cx << mShift, cy << mShift, mSize, tiles);
+		} catch (IOException e) {
+			// a chunk that can't be read is solid rock
+			for (int i = 0; i < tiles.length; i++)
+				tiles[i] = (byte) LevelFormat.VOID_TILE;
+		}
+		for (int i = 0; i < walls.length; i++)
+			walls[i] = 0;
+		for (int i = 0; i < tiles.length; i++) {
+			if (tiles[i] == LevelFormat.VOID_TILE) walls[i >> 6] |= 1L << i;
+		}
+		mLoads++;
+		mKeys[slot] = key;
+		return slot;
+	}
+}
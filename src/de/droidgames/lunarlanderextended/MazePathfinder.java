@@ -0,0 +1,357 @@
+package de.droidgames.lunarlanderextended;
+
+/**
+ * Path queries over the tile grid of a Maze.
+ *
+ * Keeps a flow field that stores, for every tile, the direction of the next
+ * step on a shortest path to the nearest EXIT_TILE. It is built once with a
+ * breadth first search from all exits and repaired locally when a tile is
+ * changed through setTile(), so getDirection() is a single array lookup and
+ * can be called every frame for hint arrows or bots.
+ *
+ * findPath() answers single start/goal queries with A*. All working storage
+ * is allocated up front, so neither query allocates.
+ */
+public class MazePathfinder {
+	/** Directions returned by getDirection() */
+	public static final int DIR_NONE = 0;
+	public static final int DIR_LEFT = 1;
+	public static final int DIR_RIGHT = 2;
+	public static final int DIR_UP = 3;
+	public static final int DIR_DOWN = 4;
+
+	/** Column / row offset of each direction, indexed by DIR_* */
+	public static final int[] DX = { 0, -1, 1, 0, 0 };
+	public static final int[] DY = { 0, 0, 0, -1, 1 };
+
+	/** Distance of tiles that cannot reach an exit. */
+	public static final int UNREACHABLE = Integer.MAX_VALUE;
+
+	/**
+	 * Largest maze worth a flow field; it takes about 30 bytes per tile of
+	 * the whole maze, which paged mazes don't have in memory.
+	 */
+	public static final int MAX_TILES = 256 * 256;
+
+	private final Maze mMaze;
+	private final int mCols;
+	private final int mRows;
+
+	/** Flow field: steps to the nearest exit and direction to go. */
+	private final int[] mDist;
+	private final byte[] mDir;
+
+	/** Scratch storage for searches and repairs. */
+	private final int[] mQueue;
+	private final IntHeap mHeap;
+	private final int[] mG;
+	private final int[] mParent;
+	private final int[] mSeen;
+	private final int[] mClosed;
+	private int mStamp;
+
+	public MazePathfinder(Maze maze) {
+		mMaze = maze;
+		mCols = maze.getCols();
+		mRows = maze.getRows();
+
+		int n = mCols * mRows;
+		mDist = new int[n];
+		mDir = new byte[n];
+		mQueue = new int[n];
+		mHeap = new IntHeap(n);
+		mG = new int[n];
+		mParent = new int[n];
+		mSeen = new int[n];
+		mClosed = new int[n];
+
+		rebuild();
+	}
+
+	/**
+	 * Returns the direction of the next step towards the nearest exit, or
+	 * DIR_NONE on walls, exits and tiles that cannot reach one.
+	 */
+	public int getDirection(int col, int row) {
+		if (col < 0 || row < 0 || col >= mCols || row >= mRows) return DIR_NONE;
+		return mDir[row * mCols + col];
+	}
+
+	/**
+	 * Returns the number of steps to the nearest exit, or UNREACHABLE.
+	 */
+	public int getDistance(int col, int row) {
+		if (col < 0 || row < 0 || col >= mCols || row >= mRows) return UNREACHABLE;
+		return mDist[row * mCols + col];
+	}
+
+	/**
+	 * Recomputes the whole flow field with a multi-source BFS from all exits.
+	 */
+	public void rebuild() {
+		int head = 0;
+		int tail = 0;
+		for (int i = 0; i < mDist.length; i++) {
+			mDir[i] = DIR_NONE;
+			if (tileAt(i) == Maze.EXIT_TILE) {
+				mDist[i] = 0;
+				mQueue[tail++] = i;
+			} else {
+				mDist[i] = UNREACHABLE;
+			}
+		}
+
+		while (head < tail) {
+			int c = mQueue[head++];
+			int col = c % mCols;
+			int row = c / mCols;
+			for (int d = DIR_LEFT; d <= DIR_DOWN; d++) {
+				int nc = col + DX[d];
+				int nr = row + DY[d];
+				if (mMaze.isWall(nc, nr)) continue;
+				int n = nr * mCols + nc;
+				if (mDist[n] != UNREACHABLE) continue;
+				mDist[n] = mDist[c] + 1;
+				mDir[n] = (byte) opposite(d);
+				mQueue[tail++] = n;
+			}
+		}
+	}
+
+	/**
+	 * Changes a tile of the maze and repairs the flow field around it.
+	 *
+	 * Tiles whose route led through the changed tile are invalidated and
+	 * re-seeded from their valid neighbours; then distances are relaxed
+	 * outwards from the seeds. Only the affected part of the field is
+	 * touched.
+	 */
+	public void setTile(int col, int row, int type) {
+		if (col < 0 || row < 0 || col >= mCols || row >= mRows) return;
+		mMaze.setTile(col, row, type);
+
+		// collect the changed tile and everything routed through it
+		int start = row * mCols + col;
+		int head = 0;
+		int tail = 0;
+		mQueue[tail++] = start;
+		while (head < tail) {
+			int c = mQueue[head++];
+			int ccol = c % mCols;
+			int crow = c / mCols;
+			for (int d = DIR_LEFT; d <= DIR_DOWN; d++) {
+				int nc = ccol + DX[d];
+				int nr = crow + DY[d];
+				if (nc < 0 || nr < 0 || nc >= mCols || nr >= mRows) continue;
+				int n = nr * mCols + nc;
+				if (n != start && mDist[n] != UNREACHABLE && mDir[n] == opposite(d)) {
+					mDist[n] = UNREACHABLE;
+					mDir[n] = DIR_NONE;
+					mQueue[tail++] = n;
+				}
+			}
+		}
+		mDist[start] = UNREACHABLE;
+		mDir[start] = DIR_NONE;
+
+		// seed every invalidated tile from its best valid neighbour
+		mHeap.clear();
+		for (int i = 0; i < tail; i++) {
+			int c = mQueue[i];
+			int ccol = c % mCols;
+			int crow = c / mCols;
+			if (mMaze.isWall(ccol, crow)) continue;
+			if (tileAt(c) == Maze.EXIT_TILE) {
+				mDist[c] = 0;
+				mHeap.push(c, 0);
+				continue;
+			}
+			for (int d = DIR_LEFT; d <= DIR_DOWN; d++) {
+				int nc = ccol + DX[d];
+				int nr = crow + DY[d];
+				if (mMaze.isWall(nc, nr)) continue;
+				int n = nr * mCols + nc;
+				if (mDist[n] != UNREACHABLE && mDist[n] + 1 < mDist[c]) {
+					mDist[c] = mDist[n] + 1;
+					mDir[c] = (byte) d;
+				}
+			}
+			if (mDist[c] != UNREACHABLE) mHeap.push(c, mDist[c]);
+		}
+
+		// Dijkstra style relaxation, only goes as far as distances improve
+		while (!mHeap.isEmpty()) {
+			int c = mHeap.pop();
+			int ccol = c % mCols;
+			int crow = c / mCols;
+			for (int d = DIR_LEFT; d <= DIR_DOWN; d++) {
+				int nc = ccol + DX[d];
+				int nr = crow + DY[d];
+				if (mMaze.isWall(nc, nr)) continue;
+				int n = nr * mCols + nc;
+				if (mDist[c] + 1 < mDist[n]) {
+					mDist[n] = mDist[c] + 1;
+					mDir[n] = (byte) opposite(d);
+					mHeap.push(n, mDist[n]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Finds a shortest path between two tiles with A*.
+	 *
+	 * @param path receives the tile indices (row * cols + col) from start to
+	 *            goal; must hold at least cols * rows entries
+	 * @return number of tiles in the path, or -1 if the goal cannot be reached
+	 */
+	public int findPath(int startCol, int startRow, int goalCol, int goalRow, int[] path) {
+		if (mMaze.isWall(startCol, startRow) || mMaze.isWall(goalCol, goalRow))
+			return -1;
+
+		int start = startRow * mCols + startCol;
+		int goal = goalRow * mCols + goalCol;
+
+		// bump the stamp instead of clearing mSeen/mClosed for every query
+		if (++mStamp == 0) {
+			for (int i = 0; i < mSeen.length; i++) {
+				mSeen[i] = 0;
+				mClosed[i] = 0;
+			}
+			mStamp = 1;
+		}
+
+		mHeap.clear();
+		mG[start] = 0;
+		mParent[start] = -1;
+		mSeen[start] = mStamp;
+		mHeap.push(start, manhattan(startCol, startRow, goalCol, goalRow));
+
+		while (!mHeap.isEmpty()) {
+			int c = mHeap.pop();
+			if (c == goal) {
+				int len = 0;
+				for (int p = c; p != -1; p = mParent[p])
+					len++;
+				int i = len;
+				for (int p = c; p != -1; p = mParent[p])
+					path[--i] = p;
+				return len;
+			}
+			mClosed[c] = mStamp;
+
+			int ccol = c % mCols;
+			int crow = c / mCols;
+			for (int d = DIR_LEFT; d <= DIR_DOWN; d++) {
+				int nc = ccol + DX[d];
+				int nr = crow + DY[d];
+				if (mMaze.isWall(nc, nr)) continue;
+				int n = nr * mCols + nc;
+				if (mClosed[n] == mStamp) continue;
+				int g = mG[c] + 1;
+				if (mSeen[n] != mStamp || g < mG[n]) {
+					mSeen[n] = mStamp;
+					mG[n] = g;
+					mParent[n] = c;
+					mHeap.push(n, g + manhattan(nc, nr, goalCol, goalRow));
+				}
+			}
+		}
+		return -1;
+	}
+
+	private int tileAt(int i) {
+		return mMaze.getTile(i % mCols, i / mCols);
+	}
+
+	private static int opposite(int dir) {
+		switch (dir) {
+		case DIR_LEFT: return DIR_RIGHT;
+		case DIR_RIGHT: return DIR_LEFT;
+		case DIR_UP: return DIR_DOWN;
+		case DIR_DOWN: return DIR_UP;
+		}
+		return DIR_NONE;
+	}
+
+	private static int manhattan(int c0, int r0, int c1, int r1) {
+		return Math.abs(c0 - c1) + Math.abs(r0 - r1);
+	}
+
+	/**
+	 * Binary min-heap of tile indices keyed by int, backed by flat arrays.
+	 * Pushing a tile that is already queued lowers its key.
+	 */
+	static final class IntHeap {
+		private final int[] mNodes;
+		private final int[] mKeys;
+		/** Position of each tile in mNodes, -1 if not queued. */
+		private final int[] mPos;
+		private int mSize;
+
+		IntHeap(int capacity) {
+			mNodes = new int[capacity];
+			mKeys = new int[capacity];
+			mPos = new int[capacity];
+			for (int i = 0; i < capacity; i++)
+				mPos[i] = -1;
+		}
+
+		boolean isEmpty() {
+			return mSize == 0;
+		}
+
+		void clear() {
+			for (int i = 0; i < mSize; i++)
+				mPos[mNodes[i]] = -1;
+			mSize = 0;
+		}
+
+		void push(int node, int key) {
+			int i = mPos[node];
+			if (i < 0) {
+				i = mSize++;
+			} else if (key >= mKeys[i]) {
+				return;
+			}
+			siftUp(i, node, key);
+		}
+
+		int pop() {
+			int top = mNodes[0];
+			mPos[top] = -1;
+			mSize--;
+			if (mSize > 0)
+				siftDown(0, mNodes[mSize], mKeys[mSize]);
+			return top;
+		}
+
+		private void siftUp(int i, int node, int key) {
+			while (i > 0) {
+				int parent = (i - 1) >> 1;
+				if (mKeys[parent] <= key) break;
+				set(i, mNodes[parent], mKeys[parent]);
+				i = parent;
+			}
+			set(i, node, key);
+		}
+
+		private void siftDown(int i, int node, int key) {
+			int half = mSize >> 1;
+			while (i < half) {
+				int child = 2 * i + 1;
+				if (child + 1 < mSize && mKeys[child + 1] < mKeys[child]) child++;
+				if (key <= mKeys[child]) break;
+				set(i, mNodes[child], mKeys[child]);
+				i = child;
+			}
+			set(i, node, key);
+		}
+
+		private void set(int i, int node, int key) {
+			mNodes[i] = node;
+			mKeys[i] = key;
+			mPos[node] = i;
+		}
+	}
+}
@@ -0,0 +1,168 @@
+package de.droidgames.lunarlanderextended;
+
+/**
+ * Collision of the blob against the walls of a maze, a Maze in the game or
+ * anything else that answers tile queries, e.g. MazeChunks in a benchmark.
+ *
+ * The blob is an axis aligned box that is swept first along x, then along y.
+ * For each axis the leading edge is walked through the tile grid one column
+ * (or row) at a time, DDA style, and stops at the first wall. The work per
+ * move only depends on how many tiles the box crosses, not on the size of
+ * the maze, and a fast blob can never tunnel through a thin wall.
+ */
+public class MazePhysics {
+	/** Flags returned by move() */
+	public static final int HIT_NONE = 0;
+	public static final int HIT_LEFT = 1;
+	public static final int HIT_RIGHT = 2;
+	public static final int HIT_TOP = 4;
+	public static final int HIT_BOTTOM = 8;
+
+	/**
+	 * Keeps the box from touching a wall edge it was stopped at; relative
+	 * to the position far out in large mazes, where floats are coarser
+	 * than EPSILON.
+	 */
+	private static final float EPSILON = 0.001f;
+	private static final float RELATIVE_EPSILON = 1.0f / (1 << 21);
+
+	/**
+	 * The tiles the box moves through. Everything outside the maze must be
+	 * a wall, so the box can never leave it.
+	 */
+	public interface Tiles {
+		int getTile(int col, int row);
+
+		boolean isWall(int col, int row);
+	}
+
+	private final Tiles mTiles;
+	private final int mTile;
+
+	/** Top left corner of the box after the last move() */
+	public float x;
+	public float y;
+
+	/** Whether the box overlapped an EXIT_TILE after the last move() */
+	public boolean onExit;
+
+	public MazePhysics(Tiles tiles) {
+		mTiles = tiles;
+		mTile = LevelFormat.TILE_SIZE;
+	}
+
+	/**
+	 * Moves a box of size w * h from (left, top) by (dx, dy), stopping at
+	 * walls. The new position is left in x and y.
+	 *
+	 * @return combination of the HIT_* flags for the walls that were hit
+	 */
+	public int move(float left, float top, float w, float h, float dx, float dy) {
+		int hits = HIT_NONE;
+
+		x = left;
+		y = top;
+
+		if (dx > 0.0f) {
+			float edge = x + w;
+			int col = wallColumn(edge, edge + dx, y, h, 1);
+			if (col >= 0) {
+				x = below(col * mTile) - w;
+				hits |= HIT_RIGHT;
+			} else {
+				x += dx;
+			}
+		} else if (dx < 0.0f) {
+			int col = wallColumn(x, x + dx, y, h, -1);
+			if (col >= 0) {
+				x = (col + 1) * mTile + EPSILON;
+				hits |= HIT_LEFT;
+			} else {
+				x += dx;
+			}
+		}
+
+		if (dy > 0.0f) {
+			float edge = y + h;
+			int row = wallRow(edge, edge + dy, x, w, 1);
+			if (row >= 0) {
+				y = below(row * mTile) - h;
+				hits |= HIT_BOTTOM;
+			} else {
+				y += dy;
+			}
+		} else if (dy < 0.0f) {
+			int row = wallRow(y, y + dy, x, w, -1);
+			if (row >= 0) {
+				y = (row + 1) * mTile + EPSILON;
+				hits |= HIT_TOP;
+			} else {
+				y += dy;
+			}
+		}
+
+		onExit = overlaps(x, y, w, h, LevelFormat.EXIT_TILE);
+		return hits;
+	}
+
+	/**
+	 * Returns whether any tile under the box has the given type.
+	 */
+	public boolean overlaps(float left, float top, float w, float h, int type) {
+		int c0 = tile(left);
+		int c1 = tile(left + w);
+		int r0 = tile(top);
+		int r1 = tile(top + h);
+		for (int r = r0; r <= r1; r++) {
+			for (int c = c0; c <= c1; c++) {
+				if (mTiles.getTile(c, r) == type) return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Walks the columns the leading edge enters between from and to and
+	 * returns the first one that has a wall in the rows spanned by the box,
+	 * or -1.
+	 */
+	private int wallColumn(float from, float to, float top, float h, int step) {
+		int r0 = tile(top);
+		int r1 = tile(top + h);
+		int col = tile(from);
+		int last = tile(to);
+		while (col != last) {
+			col += step;
+			for (int r = r0; r <= r1; r++) {
+				if (mTiles.isWall(col, r)) return col;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Same as wallColumn() for the vertical axis.
+	 */
+	private int wallRow(float from, float to, float left, float w, int step) {
+		int c0 = tile(left);
+		int c1 = tile(left + w);
+		int row = tile(from);
+		int last = tile(to);
+		while (row != last) {
+			row += step;
+			for (int c = c0; c <= c1; c++) {
+				if (mTiles.isWall(c, row)) return row;
+			}
+		}
+		return -1;
+	}
+
+	/** Just below v, by more than rounding at the size of v */
+	private static float below(float v) {
+		return v - Math.max(EPSILON, Math.abs(v) * RELATIVE_EPSILON);
+	}
+
+	private int tile(float v) {
+		return FastMath.floor(v / mTile);
+	}
+}
@@ -0,0 +1,84 @@
+package de.droidgames.lunarlanderextended;
+
+/**
+ * The tiles a camera sees of a maze, copied out by the simulation thread
+ * and carried to the render thread in a RenderSnapshot, so drawing never
+ * reads MazeChunks while it is paging.
+ */
+public final class MazeWindow {
+	/*
+	 * Tile colors
+	 */
+	public static final int PATH_COLOR = 0xFFFFFFFF;
+	public static final int EXIT_COLOR = 0xFF0000FF;
+	public static final int VOID_COLOR = 0xFF000000;
+
+	/** Top left of the camera in the maze, in pixels */
+	public int cameraX;
+	public int cameraY;
+
+	/** Tiles of the camera, from column col and row row on */
+	private int mCol;
+	private int mRow;
+	private int mCols;
+	private int mRows;
+	private byte[] mTiles = new byte[0];
+
+	/**
+	 * Where a camera of the given size looks at the maze so that a point is
+	 * in the middle, but no further than the edges; left or top in pixels.
+	 * A maze smaller than the camera stays at the origin.
+	 */
+	public static int camera(float center, int view, int size) {
+		if (size <= view) return 0;
+		return Math.max(0, Math.min(size - view, Math.round(center - view / 2.0f)));
+	}
+
+	/**
+	 * Copies the tiles of a camera of width x height pixels at cameraX,
+	 * cameraY, as far as they are in the maze.
+	 */
+	public void fill(MazeChunks chunks, int cameraX, int cameraY, int width, int height) {
+		this.cameraX = cameraX;
+		this.cameraY = cameraY;
+		int size = LevelFormat.TILE_SIZE;
+		mCol = Math.max(0, cameraX / size);
+		mRow = Math.max(0, cameraY / size);
+		mCols = Math.max(0, Math.min(chunks.getCols() - 1, (cameraX + width - 1) / size) - mCol + 1);
+		mRows = Math.max(0, Math.min(chunks.getRows() - 1, (cameraY + height - 1) / size) - mRow + 1);
+		// only grows, with the surface
+		if (mTiles.length < mCols * mRows) mTiles = new byte[mCols * mRows];
+		for (int r = 0; r < mRows; r++) {
+			for (int c = 0; c < mCols; c++)
+				mTiles[r * mCols + c] = (byte) chunks.getTile(mCol + c, mRow + r);
+		}
+	}
+
+	/**
+	 * Records the tiles relative to the camera, one rect per run of equal
+	 * tiles in a row.
+	 */
+	public void draw(DrawList list) {
+		int size = LevelFormat.TILE_SIZE;
+		for (int r = 0; r < mRows; r++) {
+			int y = (mRow + r) * size - cameraY;
+			int start = 0;
+			for (int c = 1; c <= mCols; c++) {
+				int type = mTiles[r * mCols + start];
+				if (c < mCols && mTiles[r * mCols + c] == type) continue;
+				int x0 = (mCol + start) * size - cameraX;
+				int x1 = (mCol + c) * size - cameraX;
+				list.rect(color(type), x0, y, x1, y + size);
+				start = c;
+			}
+		}
+	}
+
+	private static int color(int type) {
+		switch (type) {
+		case LevelFormat.PATH_TILE: return PATH_COLOR;
+		case LevelFormat.EXIT_TILE: return EXIT_COLOR;
+		default: return VOID_COLOR;
+		}
+	}
+}
@@ -0,0 +1,63 @@
+package de.droidgames.lunarlanderextended;
+
+/**
+ * A horizontally repeating layer of the moon surface level.
+ *
+ * The layer's bitmap is scaled once to its final tile size (see
+ * LunarThread.setSurfaceSize()) and registered with the CanvasBackend; each
+ * frame only the tiles that intersect the requested span are recorded, at
+ * integer multiples of the tile width. The tile grid moves by the scroll
+ * offset of the world times the layer's scroll factor, so a factor of 0 is a
+ * fixed backdrop, 1 moves with the craters and anything in between gives
+ * the parallax.
+ */
+public class ParallaxLayer {
+	private final int mBitmap;
+	private float mFactor;
+	private float mOffset;
+
+	/** Tile size and position in screen pixels */
+	private float mTop;
+	private float mTileWidth;
+
+	/**
+	 * @param bitmap id of the tile bitmap in the CanvasBackend
+	 * @param factor how fast the layer scrolls relative to the world
+	 * @param offset x of the first tile when the world is not scrolled
+	 */
+	public ParallaxLayer(int bitmap, float factor, float offset) {
+		mBitmap = bitmap;
+		mFactor = factor;
+		mOffset = offset;
+	}
+
+	public void setFactor(float factor) {
+		mFactor = factor;
+	}
+
+	public float getFactor() {
+		return mFactor;
+	}
+
+	/**
+	 * Sets where the tiles are drawn. tileWidth has to match the width of
+	 * the registered bitmap.
+	 */
+	public void setTile(float top, float tileWidth) {
+		mTop = top;
+		mTileWidth = tileWidth;
+	}
+
+	/**
+	 * Records the tiles that cover [left, right) for the given scroll offset.
+	 */
+	public void draw(DrawList list, float scrollX, float left, float right) {
+		if (mTileWidth <= 0.0f || left >= right) return;
+
+		float origin = scrollX * mFactor + mOffset;
+		float x = origin + FastMath.floor((left - origin) / mTileWidth) * mTileWidth;
+		for (; x < right; x += mTileWidth) {
+			list.bitmap(mBitmap, x, mTop);
+		}
+	}
+}
@@ -0,0 +1,140 @@
+package de.droidgames.lunarlanderextended;
+
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+
+/**
+ * Splits a data parallel update over a fixed set of worker threads.
+ *
+ * The workers are started once and wait on a barrier between frames, so a
+ * run() costs two barrier trips instead of creating tasks. The calling
+ * thread takes the first chunk itself. Android before 5.0 has no
+ * ForkJoinPool, which is why this uses plain threads and a CyclicBarrier.
+ *
+ * Only worth it for large entity counts, see World.setParallelThreshold()
+ * and tools/.../ParallelBench for the crossover.
+ */
+public class ParallelUpdater {
+	/**
+	 * Work on the index range [from, to). Chunks of one run() are disjoint
+	 * and run concurrently.
+	 */
+	public interface Kernel {
+		void run(int from, int to);
+	}
+
+	private final int mThreads;
+	private final CyclicBarrier mStart;
+	private final CyclicBarrier mDone;
+
+	/** Job of the current run(), published to the workers by mStart */
+	private Kernel mKernel;
+	private int mCount;
+	private boolean mShutdown;
+
+	/** First chunk of the current run() that threw, rethrown by run() */
+	private Throwable mFailure;
+
+	/**
+	 * @param threads number of threads working on a run(), including the
+	 *            calling thread
+	 */
+	public ParallelUpdater(int threads) {
+		mThreads = Math.max(1, threads);
+		mStart = new CyclicBarrier(mThreads);
+		mDone = new CyclicBarrier(mThreads);
+
+		for (int i = 1; i < mThreads; i++) {
+			final int index = i;
+			Thread t = new Thread(new Runnable() {
+				public void run() {
+					work(index);
+				}
+			}, "Updater-" + i);
+			t.setDaemon(true);
+			t.start();
+		}
+	}
+
+	/**
+	 * One thread per core.
+	 */
+	public ParallelUpdater() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	public int getThreads() {
+		return mThreads;
+	}
+
+	/**
+	 * Runs kernel over [0, count) on all threads and returns when every
+	 * chunk is done. If a chunk throws, the others still finish and the
+	 * first exception is rethrown here; the updater stays usable.
+	 */
+	public void run(Kernel kernel, int count) {
+		if (mThreads == 1) {
+			kernel.run(0, count);
+			return;
+		}
+		mKernel = kernel;
+		mCount = count;
+		await(mStart);
+		chunk(0);
+		await(mDone);
+		mKernel = null;
+
+		Throwable failure;
+		synchronized (this) {
+			failure = mFailure;
+			mFailure = null;
+		}
+		if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+		if (failure instanceof Error) throw (Error) failure;
+		if (failure != null) throw new RuntimeException("updater kernel failed", failure);
+	}
+
+	/**
+	 * Stops the workers. The updater can't be used afterwards.
+	 */
+	public void shutdown() {
+		if (mThreads == 1) return;
+		mShutdown = true;
+		await(mStart);
+	}
+
+	private void work(int index) {
+		while (true) {
+			await(mStart);
+			if (mShutdown) return;
+			chunk(index);
+			await(mDone);
+		}
+	}
+
+	/**
+	 * Runs a chunk and keeps what it throws, so every thread still gets to
+	 * mDone and the barriers stay in step for the next run().
+	 */
+	private void chunk(int index) {
+		int from = (int) ((long) mCount * index / mThreads);
+		int to = (int) ((long) mCount * (index + 1) / mThreads);
+		try {
+			if (from < to) mKernel.run(from, to);
+		} catch (Throwable t) {
+			synchronized (this) {
+				if (mFailure == null) mFailure = t;
+			}
+		}
+	}
+
+	private static void await(CyclicBarrier barrier) {
+		try {
+			barrier.await();
+		} catch (InterruptedException e) {
+			throw new RuntimeException("interrupted while waiting for updater threads", e);
+		} catch (BrokenBarrierException e) {
+			throw new RuntimeException("updater thread failed", e);
+		}
+	}
+}
@@ -0,0 +1,151 @@
+package de.droidgames.lunarlanderextended;
+
+import java.util.Random;
+
+/**
+ * A fixed number of short lived points, e.g. sparkles when a diamond is
+ * picked up or dust when the blob hits a crater.
+ *
+ * Particles are stored as parallel arrays and packed at the front: a dead
+ * particle is replaced by the last live one, so update() and draw() only
+ * walk [0, size()). Nothing is allocated after construction; emit() drops
+ * particles once the system is full.
+ *
+ * x is in world coordinates, i.e. without the scroll offset, so particles
+ * stay where they were emitted while the surface scrolls.
+ */
+public class ParticleSystem {
+	/** Particles fade out in this many alpha steps, one draw batch each */
+	public static final int ALPHA_BANDS = 4;
+
+	private final int mColor;
+	private final int mSize;
+	private final float mGravity;
+	private final float mLifetime;
+
+	float[] mX;
+	float[] mY;
+	float[] mDX;
+	float[] mDY;
+	float[] mLife;
+	int mCount;
+
+	private final Random mRandom = new Random();
+
+	/**
+	 * @param capacity maximum number of live particles
+	 * @param color ARGB color, the alpha is replaced while fading out
+	 * @param size point size in pixels
+	 * @param gravity downward acceleration in pixels/sec^2
+	 * @param lifetime average lifetime in seconds
+	 */
+	public ParticleSystem(int capacity, int color, int size, float gravity, float lifetime) {
+		mColor = color & 0x00FFFFFF;
+		mSize = size;
+		mGravity = gravity;
+		mLifetime = lifetime;
+		mX = new float[capacity];
+		mY = new float[capacity];
+		mDX = new float[capacity];
+		mDY = new float[capacity];
+		mLife = new float[capacity];
+	}
+
+	/**
+	 * An empty system that looks like template, e.g. to hand copies of it
+	 * to the render thread.
+	 */
+	public ParticleSystem(ParticleSystem template) {
+		this(template.capacity(), template.mColor, template.mSize,
+				template.mGravity, template.mLifetime);
+	}
+
+	public int size() {
+		return mCount;
+	}
+
+	public int capacity() {
+		return mX.length;
+	}
+
+	public void clear() {
+		mCount = 0;
+	}
+
+	/**
+	 * Emits up to n particles at (x, y) flying off in random directions
+	 * with speeds up to speed pixels/sec. Angles are in degrees, 0 is to the
+	 * right and -90 up; use 0 and 360 for a full circle.
+	 */
+	public void emit(float x, float y, int n, float speed, float fromAngle, float toAngle) {
+		int end = Math.min(mCount + n, mX.length);
+		for (int i = mCount; i < end; i++) {
+			float angle = fromAngle + mRandom.nextFloat() * (toAngle - fromAngle);
+			float v = speed * (0.25f + 0.75f * mRandom.nextFloat());
+			mX[i] = x;
+			mY[i] = y;
+			mDX[i] = v * FastMath.cosDeg(angle);
+			mDY[i] = v * FastMath.sinDeg(angle);
+			mLife[i] = mLifetime * (0.75f + 0.5f * mRandom.nextFloat());
+		}
+		mCount = end;
+	}
+
+	/**
+	 * Moves all particles by elapsed seconds and removes the dead ones.
+	 */
+	public void update(float elapsed) {
+		float ddy = mGravity * elapsed;
+		int i = 0;
+		while (i < mCount) {
+			float life = mLife[i] - elapsed;
+			if (life <= 0.0f) {
+				// swap-remove: the last particle takes this slot
+				int last = --mCount;
+				mX[i] = mX[last];
+				mY[i] = mY[last];
+				mDX[i] = mDX[last];
+				mDY[i] = mDY[last];
+				mLife[i] = mLife[last];
+				continue;
+			}
+			mLife[i] = life;
+			mDY[i] += ddy;
+			mX[i] += mDX[i] * elapsed;
+			mY[i] += mDY[i] * elapsed;
+			i++;
+		}
+	}
+
+	/**
+	 * Copies the positions and lifetimes of the live particles of other,
+	 * which must have the same capacity. Enough to draw them.
+	 */
+	public void set(ParticleSystem other) {
+		int n = other.mCount;
+		System.arraycopy(other.mX, 0, mX, 0, n);
+		System.arraycopy(other.mY, 0, mY, 0, n);
+		System.arraycopy(other.mLife, 0, mLife, 0, n);
+		mCount = n;
+	}
+
+	/**
+	 * Records all particles as one batch of points per alpha band.
+	 *
+	 * @param scrollX added to x, see the class comment
+	 */
+	public void draw(DrawList list, float scrollX) {
+		if (mCount == 0) return;
+		float toBand = ALPHA_BANDS / mLifetime;
+		for (int band = 0; band < ALPHA_BANDS; band++) {
+			int alpha = 255 * (band + 1) / ALPHA_BANDS;
+			list.points(alpha << 24 | mColor, mSize);
+			for (int i = 0; i < mCount; i++) {
+				int b = (int) (mLife[i] * toBand);
+				if (b == band || (band == ALPHA_BANDS - 1 && b > band)) {
+					list.point(mX[i] + scrollX, mY[i]);
+				}
+			}
+		}
+	}
+}
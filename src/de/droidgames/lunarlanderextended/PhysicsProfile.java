@@ -0,0 +1,111 @@
+package de.droidgames.lunarlanderextended;
+
+/**
+ * The physics of one planet at one difficulty, immutable. All profiles are
+ * built once when the class is loaded; get() is an array lookup, and World
+ * reads the fields of its current profile directly in every step. To change
+ * the physics a game is played with, a whole new profile is swapped in.
+ *
+ * Planets are numbered like R.array.prefs_skill_entries, difficulties like
+ * R.array.difficulties. PLANET_MOON is the moon the game was tuned on, and
+ * what is played until a planet is chosen.
+ *
+ * Real gravity would make Jupiter fifteen times as heavy as the moon, which
+ * nobody could play; the profiles use the square root of the ratio. The jump
+ * speed grows with its square root in turn, so the blob jumps equally high
+ * on every planet and clears the crater rims, only faster or slower.
+ */
+public final class PhysicsProfile {
+	public static final int PLANET_MOON = -1;
+	public static final int PLANETS = 9;
+
+	public static final int DIFFICULTY_EASY = 0;
+	public static final int DIFFICULTY_MEDIUM = 1;
+	public static final int DIFFICULTY_HARD = 2;
+	public static final int DIFFICULTY_IMPOSSIBLE = 3;
+	public static final int DIFFICULTIES = 4;
+
+	private static final String[] DIFFICULTY_NAMES = { "easy", "medium", "hard", "impossible" };
+
+	/** Surface gravity in m/s^2: Merkur ... Pluto */
+	private static final float[] GRAVITY = {
+		3.70f, 8.87f, 9.81f, 3.71f, 24.79f, 10.44f, 8.69f, 11.15f, 0.62f
+	};
+	private static final float GRAVITY_MOON = 1.6f;
+
+	/** Top speed and energy lost per step in a crater, by difficulty */
+	private static final float[] SPEED_FACTOR = { 1.0f, 1.15f, 1.3f, 1.5f };
+	private static final int[] ENERGY_DRAIN = { 1, 1, 2, 3 };
+
+	/** [planet + 1][difficulty] */
+	private static final PhysicsProfile[][] PROFILES = new PhysicsProfile[PLANETS + 1][DIFFICULTIES];
+
+	static {
+		for (int p = PLANET_MOON; p < PLANETS; p++) {
+			// the moon keeps the original constants exactly
+			float ratio = p == PLANET_MOON ? 1.0f : (float) Math.sqrt(GRAVITY[p] / GRAVITY_MOON);
+			for (int d = 0; d < DIFFICULTIES; d++) {
+				PROFILES[p + 1][d] = new PhysicsProfile(p, d,
+						World.PHYS_DOWN_ACCEL_SEC * ratio,
+						p == PLANET_MOON ? World.INITIAL_JUMP_SPEED
+								: World.INITIAL_JUMP_SPEED * (float) Math.sqrt(ratio),
+						d == DIFFICULTY_EASY ? World.PHYS_SPEED_MAX : World.PHYS_SPEED_MAX * SPEED_FACTOR[d],
+						ENERGY_DRAIN[d]);
+			}
+		}
+	}
+
+	public static final PhysicsProfile DEFAULT = get(PLANET_MOON, DIFFICULTY_EASY);
+
+	public final int planet;
+	public final int difficulty;
+
+	/** Downward acceleration in pixels/s^2 */
+	public final float gravity;
+	/** Vertical speed of a jump in pixels/s, negative is up */
+	public final float jumpSpeed;
+	/** Largest horizontal speed in pixels/s */
+	public final float speedMax;
+	/** Energy lost per step in the middle of a crater */
+	public final int energyDrain;
+
+	/*
+	 * The same in Q16.16 for the fixed point physics
+	 */
+	final int fixedGravity;
+	final int fixedJumpSpeed;
+	final int fixedSpeedMax;
+
+	private PhysicsProfile(int planet, int difficulty, float gravity, float jumpSpeed,
+			float speedMax, int energyDrain) {
+		this.planet = planet;
+		this.difficulty = difficulty;
+		this.gravity = gravity;
+		this.jumpSpeed = jumpSpeed;
+		this.speedMax = speedMax;
+		this.energyDrain = energyDrain;
+		fixedGravity = Fixed.fromFloat(gravity);
+		fixedJumpSpeed = Fixed.fromFloat(jumpSpeed);
+		fixedSpeedMax = Fixed.fromFloat(speedMax);
+	}
+
+	/**
+	 * The profile of a planet (PLANET_MOON or 0 ... PLANETS - 1) and
+	 * difficulty; values out of range fall back to the moon and easy.
+	 */
+	public static PhysicsProfile get(int planet, int difficulty) {
+		if (planet < PLANET_MOON || planet >= PLANETS) planet = PLANET_MOON;
+		if (difficulty < 0 || difficulty >= DIFFICULTIES) difficulty = DIFFICULTY_EASY;
+		return PROFILES[planet + 1][difficulty];
+	}
+
+	/** Short English name of a difficulty, for logs and tools */
+	public static String difficultyName(int difficulty) {
+		return DIFFICULTY_NAMES[difficulty];
+	}
+
+	public String toString() {
+		return String.format("planet %d, difficulty %d: gravity %.0f, jump %.0f, speed %.0f, drain %d",
+				planet, difficulty, gravity, jumpSpeed, speedMax, energyDrain);
+	}
+}
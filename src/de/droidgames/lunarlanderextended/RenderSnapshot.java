@@ -0,0 +1,61 @@
+package de.droidgames.lunarlanderextended;
+
+/**
+ * Everything FrameRecorder needs to know about the game at one point in time.
+ * Filled by the simulation thread and handed to the render thread through a
+ * TripleBuffer, so drawing never looks at the live World.
+ */
+public final class RenderSnapshot {
+	float blobX;
+	float blobY;
+	float heading;
+	float scrollX;
+	int diamonds;
+	int energy;
+	/** Time played, for the HUD */
+	int playMillis;
+
+	/** Inputs that led to this state, one per LatencyTracer.INPUT_* */
+	final LatencyTracer.Trace[] traces = {
+			new LatencyTracer.Trace(), new LatencyTracer.Trace() };
+
+	final float[] xDiamonds = new float[World.NUMBER_OF_DIAMONDS];
+	final float[] yDiamonds = new float[World.NUMBER_OF_DIAMONDS];
+	final boolean[] diamondsViz = new boolean[World.NUMBER_OF_DIAMONDS];
+	final float[] xCraters = new float[World.NUMBER_OF_CRATERS];
+
+	/** Direction of the maze hint arrow, a MazePathfinder.DX/DY pair; 0, 0 for none */
+	int hintX;
+	int hintY;
+
+	/** What the camera sees of the maze */
+	public final MazeWindow maze = new MazeWindow();
+
+	/** Copies of the simulation's particle systems */
+	public final ParticleSystem sparkles;
+	public final ParticleSystem dust;
+
+	public RenderSnapshot(ParticleSystem sparkles, ParticleSystem dust) {
+		this.sparkles = new ParticleSystem(sparkles);
+		this.dust = new ParticleSystem(dust);
+	}
+
+	/** Places the blob where World doesn't, e.g. for a tool */
+	public void setBlob(float x, float y) {
+		blobX = x;
+		blobY = y;
+	}
+
+	public void set(World w) {
+		blobX = w.mB.x;
+		blobY = w.mB.y;
+		heading = w.mHeading;
+		scrollX = w.mXDiamond;
+		diamonds = w.mDiamonds;
+		energy = w.mRemEnergy;
+		System.arraycopy(w.mXDiamonds, 0, xDiamonds, 0, xDiamonds.length);
+		System.arraycopy(w.mYDiamonds, 0, yDiamonds, 0, yDiamonds.length);
+		System.arraycopy(w.mDiamondsViz, 0, diamondsViz, 0, diamondsViz.length);
+		System.arraycopy(w.mXCrater, 0, xCraters, 0, xCraters.length);
+	}
+}
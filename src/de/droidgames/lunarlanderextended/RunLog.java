@@ -0,0 +1,206 @@
+package de.droidgames.lunarlanderextended;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Everything needed to play a moon surface game again: the seed of the
+ * level layout, the sizes the collision tests depend on, and the input of
+ * every World.step(). Together with the claimed outcome this is what a
+ * client submits for score verification (tools/.../ScoreServer).
+ *
+ * Binary format, big endian:
+ *
+ *   int   MAGIC, short VERSION
+ *   long  seed, byte difficulty, byte mode flags (MODE_*, since version 2)
+ *   byte  planet (PhysicsProfile, since version 3)
+ *   short canvas width, height, ball width, height, crater width, height
+ *   short claimed diamonds, byte claimed result (World.RESULT_*)
+ *   int   step count, then per step: float elapsed, float tilt, byte flags
+ */
+public class RunLog {
+	public static final int MAGIC = 0x4C4C524E; // "LLRN"
+	public static final int VERSION = 3;
+
+	/** Mode flags */
+	public static final int MODE_FIXED_POINT = 1;
+
+	/** Step flags */
+	public static final int FLAG_JUMP = 1;
+
+	/** Longest step the game takes, longer frames are cut to this */
+	public static final float MAX_ELAPSED = 0.25f;
+
+	/** Upper bound on steps, 10 minutes at 100 steps per second */
+	public static final int MAX_STEPS = 60000;
+
+	public long seed;
+	public int difficulty;
+	public int planet = PhysicsProfile.PLANET_MOON;
+	public boolean fixedPoint;
+	public int canvasWidth;
+	public int canvasHeight;
+	public int ballWidth;
+	public int ballHeight;
+	public int craterWidth;
+	public int craterHeight;
+
+	public int diamonds;
+	public int result;
+
+	float[] mElapsed = new float[1024];
+	float[] mTilt = new float[1024];
+	byte[] mFlags = new byte[1024];
+	int mSteps;
+
+	/**
+	 * The physics the run was played with.
+	 */
+	public PhysicsProfile getProfile() {
+		return PhysicsProfile.get(planet, difficulty);
+	}
+
+	/**
+	 * Starts a new run; the sizes and physics are taken from world.
+	 */
+	public void start(World world, long seed) {
+		this.seed = seed;
+		difficulty = world.getProfile().difficulty;
+		planet = world.getProfile().planet;
+		fixedPoint = world.isFixedPoint();
+		canvasWidth = world.mCanvasWidth;
+		canvasHeight = world.mCanvasHeight;
+		ballWidth = world.mBallWidth;
+		ballHeight = world.mBallHeight;
+		craterWidth = world.mCWidth;
+		craterHeight = world.mCHeight;
+		diamonds = 0;
+		result = World.RESULT_RUNNING;
+		mSteps = 0;
+	}
+
+	/**
+	 * Records the input of one step: tilt as passed to World.accelerate()
+	 * and whether World.jump() was called before World.step(elapsed).
+	 *
+	 * @return false if the log is full
+	 */
+	public boolean step(float elapsed, float tilt, boolean jump) {
+		if (mSteps == MAX_STEPS) return false;
+		if (mSteps == mElapsed.length) {
+			int n = Math.min(mSteps * 2, MAX_STEPS);
+			mElapsed = grow(mElapsed, n);
+			mTilt = grow(mTilt, n);
+			byte[] f = new byte[n];
+			System.arraycopy(mFlags, 0, f, 0, mSteps);
+			mFlags = f;
+		}
+		mElapsed[mSteps] = elapsed;
+		mTilt[mSteps] = tilt;
+		mFlags[mSteps] = (byte) (jump ? FLAG_JUMP : 0);
+		mSteps++;
+		return true;
+	}
+
+	/**
+	 * Records the outcome the client saw.
+	 */
+	public void finish(int diamonds, int result) {
+		this.diamonds = diamonds;
+		this.result = result;
+	}
+
+	public int getSteps() {
+		return mSteps;
+	}
+
+	public float getElapsed(int step) {
+		return mElapsed[step];
+	}
+
+	public float getTilt(int step) {
+		return mTilt[step];
+	}
+
+	public boolean isJump(int step) {
+		return (mFlags[step] & FLAG_JUMP) != 0;
+	}
+
+	public void write(OutputStream os) throws IOException {
+		DataOutputStream out = new DataOutputStream(os);
+		out.writeInt(MAGIC);
+		out.writeShort(VERSION);
+		out.writeLong(seed);
+		out.writeByte(difficulty);
+		out.writeByte(fixedPoint ? MODE_FIXED_POINT : 0);
+		out.writeByte(planet);
+		out.writeShort(canvasWidth);
+		out.writeShort(canvasHeight);
+		out.writeShort(ballWidth);
+		out.writeShort(ballHeight);
+		out.writeShort(craterWidth);
+		out.writeShort(craterHeight);
+		out.writeShort(diamonds);
+		out.writeByte(result);
+		out.writeInt(mSteps);
+		for (int i = 0; i < mSteps; i++) {
+			out.writeFloat(mElapsed[i]);
+			out.writeFloat(mTilt[i]);
+			out.writeByte(mFlags[i]);
+		}
+		out.flush();
+	}
+
+	/**
+	 * Reads a run written by write().
+	 *
+	 * @throws IOException if the data is truncated or not a run log
+	 */
+	public static RunLog read(InputStream is) throws IOException {
+		DataInputStream in = new DataInputStream(is);
+		if (in.readInt() != MAGIC) throw new IOException("not a run log");
+		int version = in.readShort();
+		if (version < 1 || version > VERSION) throw new IOException("unsupported run log version " + version);
+
+		RunLog log = new RunLog();
+		log.seed = in.readLong();
+		log.difficulty = in.readByte();
+		if (version >= 2) log.fixedPoint = (in.readByte() & MODE_FIXED_POINT) != 0;
+		if (version >= 3) {
+			log.planet = in.readByte();
+		} else {
+			// played before the profiles, with the physics of the easy moon
+			log.difficulty = PhysicsProfile.DIFFICULTY_EASY;
+		}
+		log.canvasWidth = in.readShort();
+		log.canvasHeight = in.readShort();
+		log.ballWidth = in.readShort();
+		log.ballHeight = in.readShort();
+		log.craterWidth = in.readShort();
+		log.craterHeight = in.readShort();
+		log.diamonds = in.readShort();
+		log.result = in.readByte();
+
+		int steps = in.readInt();
+		if (steps < 0 || steps > MAX_STEPS) throw new IOException("bad step count " + steps);
+		log.mElapsed = new float[Math.max(1, steps)];
+		log.mTilt = new float[Math.max(1, steps)];
+		log.mFlags = new byte[Math.max(1, steps)];
+		for (int i = 0; i < steps; i++) {
+			log.mElapsed[i] = in.readFloat();
+			log.mTilt[i] = in.readFloat();
+			log.mFlags[i] = in.readByte();
+		}
+		log.mSteps = steps;
+		return log;
+	}
+
+	private static float[] grow(float[] a, int n) {
+		float[] b = new float[n];
+		System.arraycopy(a, 0, b, 0, a.length);
+		return b;
+	}
+}
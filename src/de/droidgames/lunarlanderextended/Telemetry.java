@@ -0,0 +1,304 @@
+package de.droidgames.lunarlanderextended;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Gameplay telemetry: where players pick up diamonds, hit craters and die,
+ * how long games take and how smooth the frames are.
+ *
+ * Game threads emit fixed-size events into a lock-free ring buffer; emit()
+ * is a compare-and-set and four array stores, and when the ring is full the
+ * event is dropped and counted instead of waiting. A background writer
+ * drains the ring every FLUSH_INTERVAL_MS and collects the events until a
+ * batch is worth compressing, then appends it as one gzip member to
+ * telemetry-<n>.gz. Finished members survive a process kill, and zcat or
+ * GZIPInputStream read the concatenated members as one stream. A file is
+ * closed at FILE_SIZE bytes, and the oldest files are deleted while all of
+ * them together exceed the total size cap.
+ *
+ * Event format, big endian, EVENT_SIZE bytes:
+ *
+ *   int   ms since the telemetry was started
+ *   short type (EVENT_*), short a
+ *   int   b
+ *   float x
+ */
+public class Telemetry implements Runnable {
+	public static final String DIR = "telemetry";
+	public static final String PREFIX = "telemetry-";
+	public static final String SUFFIX = ".gz";
+
+	/*
+	 * Event types
+	 */
+	public static final short EVENT_START = 1;		// a: level, b: difficulty
+	public static final short EVENT_DIAMOND = 2;	// a: diamond, b: diamonds collected, x: world x of the blob
+	public static final short EVENT_CRATER = 3;		// a: crater, b: energy left, x: world x of the blob
+	public static final short EVENT_STATE = 4;		// a: new state, b: ms played, x: world x of the blob
+	public static final short EVENT_FRAMES = 5;		// a: frames, b: slowest frame in us, x: mean frame in ms
+	public static final short EVENT_DROPPED = 6;	// b: events dropped since the last one
+
+	public static final int EVENT_SIZE = 16;
+
+	/** Events in the ring; a power of two */
+	public static final int DEFAULT_CAPACITY = 4096;
+
+	/** Largest file before the writer starts the next one (compressed) */
+	public static final int FILE_SIZE = 256 * 1024;
+
+	/** Files are deleted, oldest first, while all of them exceed this */
+	public static final long DEFAULT_TOTAL_SIZE = 4 * 1024 * 1024;
+
+	/** How often the writer drains the ring */
+	public static final long FLUSH_INTERVAL_MS = 1000;
+
+	/** Events are compressed once there are this many bytes... */
+	public static final int BATCH_SIZE = 16 * 1024;
+	/** ...or the oldest has waited this long */
+	public static final long BATCH_INTERVAL_MS = 10000;
+
+	private final File mDir;
+	private final long mTotalSize;
+	private final long mStart = System.currentTimeMillis();
+
+	/*
+	 * The ring. A producer claims slot t by moving mTail from t to t + 1,
+	 * fills it and then publishes it by setting its sequence to t + 1. The
+	 * writer reads slots in order as long as they are published.
+	 */
+	private final int mMask;
+	private final int[] mEvents;
+	private final AtomicLongArray mSequence;
+	private final AtomicLong mTail = new AtomicLong();
+	private volatile long mHead;
+	private final AtomicInteger mDropped = new AtomicInteger();
+
+	private Thread mWriter;
+	private volatile boolean mRun;
+
+	/*
+	 * Writer state, only touched by the writer thread
+	 */
+	private final byte[] mBatch;
+	private int mBatchLength;
+	private long mBatchStart;
+	private File mFile;
+	private int mFileNumber;
+	private volatile long mWritten;
+
+	public Telemetry(File dir) {
+		this(dir, DEFAULT_CAPACITY, DEFAULT_TOTAL_SIZE);
+	}
+
+	/**
+	 * @param capacity events in the ring, rounded up to a power of two
+	 * @param totalSize cap on the size of all files in bytes
+	 */
+	public Telemetry(File dir, int capacity, long totalSize) {
+		int n = 1;
+		while (n < capacity) n <<= 1;
+		mMask = n - 1;
+		mEvents = new int[n * 4];
+		mSequence = new AtomicLongArray(n);
+		// one full ring on top of an almost full batch
+		mBatch = new byte[n * EVENT_SIZE + BATCH_SIZE];
+		mDir = dir;
+		mTotalSize = totalSize;
+
+		// continue numbering after the files of earlier runs
+		String[] names = dir.list();
+		if (names != null) {
+			for (int i = 0; i < names.length; i++) {
+				int number = number(names[i]);
+				if (number >= mFileNumber) mFileNumber = number + 1;
+			}
+		}
+	}
+
+	/**
+	 * Starts the background writer.
+	 */
+	public synchronized void start() {
+		if (mWriter != null) return;
+		mRun = true;
+		mWriter = new Thread(this, "Telemetry");
+		mWriter.setDaemon(true);
+		mWriter.start();
+	}
+
+	/**
+	 * Stops the writer after it has written what is in the ring.
+	 */
+	public void stop() {
+		Thread t;
+		synchronized (this) {
+			t = mWriter;
+			mWriter = null;
+			mRun = false;
+		}
+		if (t == null) return;
+		t.interrupt();
+		boolean retry = true;
+		while (retry) {
+			try {
+				t.join();
+				retry = false;
+			} catch (InterruptedException e) {
+			}
+		}
+	}
+
+	/**
+	 * Queues an event; may be called from any thread.
+	 *
+	 * @return false if the ring was full and the event was dropped
+	 */
+	public boolean emit(short type, int a, int b, float x) {
+		long t;
+		do {
+			t = mTail.get();
+			if (t - mHead > mMask) {
+				mDropped.incrementAndGet();
+				return false;
+			}
+		} while (!mTail.compareAndSet(t, t + 1));
+
+		int slot = (int) t & mMask;
+		int p = slot * 4;
+		mEvents[p] = (int) (System.currentTimeMillis() - mStart);
+		mEvents[p + 1] = type << 16 | (a & 0xffff);
+		mEvents[p + 2] = b;
+		mEvents[p + 3] = Float.floatToIntBits(x);
+		mSequence.set(slot, t + 1);
+		return true;
+	}
+
+	/** Events dropped because the ring was full, since the start */
+	public int getDropped() {
+		return mDropped.get();
+	}
+
+	/** Uncompressed bytes written to the files so far */
+	public long getWritten() {
+		return mWritten;
+	}
+
+	public void run() {
+		int reported = 0;
+		while (mRun) {
+			try {
+				Thread.sleep(FLUSH_INTERVAL_MS);
+			} catch (InterruptedException e) {
+			}
+			int dropped = mDropped.get();
+			if (dropped != reported) {
+				emit(EVENT_DROPPED, 0, dropped - reported, 0.0f);
+				reported = dropped;
+			}
+			drain();
+			long now = System.currentTimeMillis();
+			if (mBatchLength >= BATCH_SIZE
+					|| (mBatchLength > 0 && now - mBatchStart >= BATCH_INTERVAL_MS))
+				write();
+		}
+		drain();
+		write();
+	}
+
+	/**
+	 * Moves all published events from the ring into the batch.
+	 */
+	private void drain() {
+		long head = mHead;
+		if (mBatchLength == 0) mBatchStart = System.currentTimeMillis();
+		int o = mBatchLength;
+		while (mSequence.get((int) head & mMask) == head + 1) {
+			int p = ((int) head & mMask) * 4;
+			putInt(mBatch, o, mEvents[p]);
+			putInt(mBatch, o + 4, mEvents[p + 1]);
+			putInt(mBatch, o + 8, mEvents[p + 2]);
+			putInt(mBatch, o + 12, mEvents[p + 3]);
+			o += EVENT_SIZE;
+			head++;
+		}
+		mBatchLength = o;
+		// frees the slots for the producers
+		mHead = head;
+	}
+
+	/**
+	 * Compresses the batch and appends it to the current file as a gzip
+	 * member.
+	 */
+	private void write() {
+		if (mBatchLength == 0) return;
+		try {
+			if (mFile == null) {
+				mDir.mkdirs();
+				mFile = new File(mDir, PREFIX + mFileNumber++ + SUFFIX);
+			}
+			GZIPOutputStream out = new GZIPOutputStream(new FileOutputStream(mFile, true));
+			try {
+				out.write(mBatch, 0, mBatchLength);
+			} finally {
+				out.close();
+			}
+			mWritten += mBatchLength;
+			if (mFile.length() >= FILE_SIZE) {
+				mFile = null;
+				trim();
+			}
+		} catch (IOException e) {
+			// the batch is lost, but the writer keeps going
+			System.err.println("Telemetry: " + e);
+			mFile = null;
+		}
+		mBatchLength = 0;
+	}
+
+	/**
+	 * Deletes the oldest files until the rest fits into the total size.
+	 */
+	private void trim() {
+		String[] names = mDir.list();
+		if (names == null) return;
+		long total = 0;
+		int oldest = Integer.MAX_VALUE;
+		for (int i = 0; i < names.length; i++) {
+			int number = number(names[i]);
+			if (number < 0) continue;
+			total += new File(mDir, names[i]).length();
+			if (number < oldest) oldest = number;
+		}
+		for (int i = oldest; total > mTotalSize && i < mFileNumber; i++) {
+			File f = new File(mDir, PREFIX + i + SUFFIX);
+			long size = f.length();
+			if (f.delete()) total -= size;
+		}
+	}
+
+	/**
+	 * Number of a telemetry file, or -1 for other names.
+	 */
+	private static int number(String name) {
+		if (!name.startsWith(PREFIX) || !name.endsWith(SUFFIX)) return -1;
+		try {
+			return Integer.parseInt(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	private static void putInt(byte[] b, int o, int v) {
+		b[o] = (byte) (v >>> 24);
+		b[o + 1] = (byte) (v >>> 16);
+		b[o + 2] = (byte) (v >>> 8);
+		b[o + 3] = (byte) v;
+	}
+}
@@ -0,0 +1,59 @@
+package de.droidgames.lunarlanderextended;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lock-free hand-over of values from one producer thread to one consumer
+ * thread.
+ *
+ * The producer fills back() and calls publish(); the consumer calls latest()
+ * and reads the returned value until its next call. Three buffers rotate so
+ * neither side ever waits for the other, and the consumer always gets the
+ * most recently published value. Buffers are reused, nothing is allocated
+ * after construction.
+ */
+public final class TripleBuffer<T> {
+	/** Set in mMiddle when it holds a value the consumer has not seen. */
+	private static final int FRESH = 4;
+
+	private final T[] mBuffers;
+
+	/** Index of the buffer between producer and consumer, plus FRESH. */
+	private final AtomicInteger mMiddle = new AtomicInteger(1);
+
+	/** Only touched by the producer. */
+	private int mBack = 0;
+
+	/** Only touched by the consumer. */
+	private int mFront = 2;
+
+	public TripleBuffer(T[] buffers) {
+		if (buffers.length != 3)
+			throw new IllegalArgumentException("need exactly 3 buffers");
+		mBuffers = buffers;
+	}
+
+	/**
+	 * Returns the buffer the producer may write to.
+	 */
+	public T back() {
+		return mBuffers[mBack];
+	}
+
+	/**
+	 * Makes the back buffer available to the consumer.
+	 */
+	public void publish() {
+		mBack = mMiddle.getAndSet(mBack | FRESH) & 3;
+	}
+
+	/**
+	 * Returns the most recently published buffer. If nothing was published
+	 * since the last call, the same buffer is returned again.
+	 */
+	public T latest() {
+		if ((mMiddle.get() & FRESH) != 0)
+			mFront = mMiddle.getAndSet(mFront) & 3;
+		return mBuffers[mFront];
+	}
+}
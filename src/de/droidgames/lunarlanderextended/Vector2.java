@@ -18,13 +18,16 @@ package de.droidgames.lunarlanderextended;
 
 /**
  * Simple 2D vector class.  Handles basic vector math for 2D vectors.
+ *
+ * Instances are mutable, so there are no shared constants; use new Vector2()
+ * or zero() for a zero vector. The static methods work on many vectors at
+ * once, stored as packed x and y float arrays, and are plain counted loops
+ * the JIT can unroll and vectorise.
  */
 public final class Vector2 {
     public float x;
     public float y;
 
-    public static final Vector2 ZERO = new Vector2(0, 0);
-    
     public Vector2() {
     	zero();
     }
@@ -120,4 +123,62 @@ public final class Vector2 {
     public final void flipVertical(float aboutHeight) {
         y = (aboutHeight - y);
     }
+
+    /**
+     * y[i] += a * x[i] for the first n entries.
+     */
+    public static void axpy(float a, float[] x, float[] y, int n) {
+        axpy(a, x, y, 0, n);
+    }
+
+    /**
+     * y[i] += a * x[i] for i in [from, to).
+     */
+    public static void axpy(float a, float[] x, float[] y, int from, int to) {
+        for (int i = from; i < to; i++) {
+            y[i] += a * x[i];
+        }
+    }
+
+    /**
+     * Clamps the first n entries of v to [min, max].
+     */
+    public static void clamp(float[] v, int n, float min, float max) {
+        for (int i = 0; i < n; i++) {
+            float f = v[i];
+            v[i] = f < min ? min : (f > max ? max : f);
+        }
+    }
+
+    /**
+     * Reverses vel[i] wherever pos[i] is outside [min, max]. Positions are
+     * left alone, an entity just turns around on its next step.
+     */
+    public static void reflect(float[] pos, float[] vel, int n, float min, float max) {
+        reflect(pos, vel, 0, n, min, max);
+    }
+
+    /**
+     * reflect() for i in [from, to).
+     */
+    public static void reflect(float[] pos, float[] vel, int from, int to, float min, float max) {
+        for (int i = from; i < to; i++) {
+            float p = pos[i];
+            if (p > max || p < min) {
+                vel[i] = -vel[i];
+            }
+        }
+    }
+
+    /**
+     * out[i] = squared distance of (x[i] + offsetX, y[i]) to (px, py).
+     */
+    public static void distance2(float[] x, float[] y, int n, float offsetX,
+            float px, float py, float[] out) {
+        for (int i = 0; i < n; i++) {
+            float dx = x[i] + offsetX - px;
+            float dy = y[i] - py;
+            out[i] = dx * dx + dy * dy;
+        }
+    }
 }
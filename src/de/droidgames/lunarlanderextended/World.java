@@ -0,0 +1,671 @@
+package de.droidgames.lunarlanderextended;
+
+import java.util.Random;
+
+/**
+ * The rules of the moon surface level: blob, diamonds and craters.
+ *
+ * No Android classes are used, so the same rules run in LunarThread on the
+ * device and in headless tools on a desktop JVM.
+ * All x/y are screen pixels; the blob stays at a fixed x while the world
+ * scrolls by mXDiamond underneath it.
+ *
+ * In fixed point mode (setFixedPoint()) step() integrates in Q16.16 ints
+ * instead of floats, so a game takes bit for bit the same course on every
+ * device and VM; stateHash() lets tools compare runs tick by tick. The
+ * float fields are then only a copy for drawing and bots, updated after
+ * every step. Positions have to stay within +-32768 pixels.
+ */
+public class World {
+	public static final float PI = 3.14159265358979f;
+
+	/** Diamonds of a normal game */
+	public static final int NUMBER_OF_DIAMONDS = 20;
+	public static final int NUMBER_OF_CRATERS = 8;
+	public static final float mTotalEnergy = 100.0f;
+
+	/**
+	 * Diamond count from which the diamonds are moved in parallel, if an
+	 * updater is set. A barrier round trip costs tens of microseconds, a
+	 * diamond about a nanosecond; tools/.../ParallelBench finds the actual
+	 * crossover on a device.
+	 */
+	public static final int DEFAULT_PARALLEL_THRESHOLD = 32768;
+
+	/*
+	 * Physics constants, of the moon at the easiest difficulty; see
+	 * PhysicsProfile for the others
+	 */
+	public static final int PHYS_DOWN_ACCEL_SEC = 300;
+	public static final int PHYS_ACCEL_FACTOR_X = 3;
+	public static final int INITIAL_JUMP_SPEED = -275;
+	public static final int PHYS_SPEED_MAX = 180;
+	public static final float GRAVITY_MOON = 1.6f;
+
+	/*
+	 * Results of step()
+	 */
+	public static final int RESULT_RUNNING = 0;
+	public static final int RESULT_WIN = 1;
+	public static final int RESULT_LOSE = 2;
+
+	/*
+	 * Sprite sizes the collision tests are based on
+	 */
+	final int mBallWidth;
+	final int mBallHeight;
+	final int mCWidth;
+	final int mCHeight;
+
+	int mCanvasWidth = 1;
+	int mCanvasHeight = 1;
+
+	/**
+	 * Gravity, jump and speed limits; replaced as a whole, and read once per
+	 * step, so a profile changed from another thread takes effect between
+	 * two steps and never halfway through one.
+	 */
+	private volatile PhysicsProfile mProfile = PhysicsProfile.DEFAULT;
+
+	/** X/Y of Blob */
+	final Vector2 mB = new Vector2(1.0f, 1.0f);
+
+	/** Velocity dx/dy. */
+	final Vector2 mD = new Vector2();
+
+	/** Rotation Angle of Blob */
+	float mHeading = 0.0f;
+	float mTiltAngle = 0.0f;
+
+	/** Scroll offset of the world */
+	float mXDiamond;
+
+	final int mDiamondCount;
+	float[] mXDiamonds;
+	float[] mYDiamonds;
+	boolean[] mDiamondsViz;
+	float[] mDiamondsSpeed;
+
+	float[] mXCrater = new float[NUMBER_OF_CRATERS];
+
+	/** Number of Diamond collected */
+	int mDiamonds;
+
+	/** Remaining Energy */
+	int mRemEnergy = 100;
+
+	/** Where step() posts pickups and crater hits, or null */
+	private GameEvents mEvents;
+
+	/** Moves the diamonds on several threads above mParallelThreshold */
+	private ParallelUpdater mUpdater;
+	private int mParallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+
+	/** Diamond update for ParallelUpdater; mElapsed is the current step */
+	private float mElapsed;
+	private int mFElapsed;
+	private final ParallelUpdater.Kernel mMoveDiamonds = new ParallelUpdater.Kernel() {
+		public void run(int from, int to) {
+			if (mFixed) moveDiamondsFixed(mFElapsed, from, to);
+			else moveDiamonds(mElapsed, from, to);
+		}
+	};
+
+	/** Far faster than the blob can fall across any screen */
+	private static final int MAX_FALL_SPEED = 8192 << Fixed.SHIFT;
+
+	/*
+	 * Fixed point state, Q16.16; the same meaning as the float fields
+	 */
+	private boolean mFixed;
+	private int mFBx;
+	private int mFBy;
+	private int mFDx;
+	private int mFDy;
+	private int mFTilt;
+	private int mFScroll;
+	private int[] mFXDiamonds;
+	private int[] mFYDiamonds;
+	private int[] mFDiamondsSpeed;
+	private final int[] mFXCrater = new int[NUMBER_OF_CRATERS];
+
+	public World(int ballWidth, int ballHeight, int craterWidth, int craterHeight) {
+		this(ballWidth, ballHeight, craterWidth, craterHeight, NUMBER_OF_DIAMONDS);
+	}
+
+	/**
+	 * A world with a different number of diamonds, e.g. for stress levels.
+	 */
+	public World(int ballWidth, int ballHeight, int craterWidth, int craterHeight, int diamonds) {
+		mBallWidth = ballWidth;
+		mBallHeight = ballHeight;
+		mCWidth = craterWidth;
+		mCHeight = craterHeight;
+
+		mDiamondCount = diamonds;
+		mXDiamonds = new float[diamonds];
+		mYDiamonds = new float[diamonds];
+		mDiamondsViz = new boolean[diamonds];
+		mDiamondsSpeed = new float[diamonds];
+	}
+
+	public void setEvents(GameEvents events) {
+		mEvents = events;
+	}
+
+	public void setSize(int width, int height) {
+		mCanvasWidth = width;
+		mCanvasHeight = height;
+	}
+
+	/**
+	 * Switches to the profile of the same planet at another difficulty.
+	 */
+	public void setDifficulty(int difficulty) {
+		setProfile(PhysicsProfile.get(mProfile.planet, difficulty));
+	}
+
+	public int getDifficulty() {
+		return mProfile.difficulty;
+	}
+
+	/**
+	 * Sets the physics for the next step; may be called from any thread.
+	 */
+	public void setProfile(PhysicsProfile profile) {
+		mProfile = profile;
+	}
+
+	public PhysicsProfile getProfile() {
+		return mProfile;
+	}
+
+	public int getDiamondCount() {
+		return mDiamondCount;
+	}
+
+	/**
+	 * Lets step() move the diamonds on the updater's threads once there are
+	 * at least threshold of them. null turns this off.
+	 */
+	public void setUpdater(ParallelUpdater updater) {
+		mUpdater = updater;
+	}
+
+	public void setParallelThreshold(int threshold) {
+		mParallelThreshold = threshold;
+	}
+
+	public int getDiamonds() {
+		return mDiamonds;
+	}
+
+	public int getEnergy() {
+		return mRemEnergy;
+	}
+
+	/**
+	 * Switches between float and fixed point physics. Switching to fixed
+	 * point takes over the current float state.
+	 */
+	public void setFixedPoint(boolean fixed) {
+		mFixed = fixed;
+		if (fixed) {
+			if (mFXDiamonds == null) {
+				mFXDiamonds = new int[mDiamondCount];
+				mFYDiamonds = new int[mDiamondCount];
+				mFDiamondsSpeed = new int[mDiamondCount];
+			}
+			fromFloats();
+		}
+	}
+
+	public boolean isFixedPoint() {
+		return mFixed;
+	}
+
+	/**
+	 * Takes over the float state after it was changed from outside, e.g.
+	 * restored from the journal. Only needed in fixed point mode.
+	 */
+	public void fromFloats() {
+		if (!mFixed) return;
+		mFBx = Fixed.fromFloat(mB.x);
+		mFBy = Fixed.fromFloat(mB.y);
+		mFDx = Fixed.fromFloat(mD.x);
+		mFDy = Fixed.fromFloat(mD.y);
+		mFTilt = Fixed.fromFloat(mTiltAngle);
+		mFScroll = Fixed.fromFloat(mXDiamond);
+		for (int i = 0; i < mDiamondCount; i++) {
+			mFXDiamonds[i] = Fixed.fromFloat(mXDiamonds[i]);
+			mFYDiamonds[i] = Fixed.fromFloat(mYDiamonds[i]);
+			mFDiamondsSpeed[i] = Fixed.fromFloat(mDiamondsSpeed[i]);
+		}
+		for (int i = 0; i < NUMBER_OF_CRATERS; i++)
+			mFXCrater[i] = Fixed.fromFloat(mXCrater[i]);
+	}
+
+	/**
+	 * Copies the fixed point state to the float fields.
+	 */
+	private void toFloats() {
+		mB.set(Fixed.toFloat(mFBx), Fixed.toFloat(mFBy));
+		mD.set(Fixed.toFloat(mFDx), Fixed.toFloat(mFDy));
+		mXDiamond = Fixed.toFloat(mFScroll);
+		for (int i = 0; i < mDiamondCount; i++) {
+			mYDiamonds[i] = Fixed.toFloat(mFYDiamonds[i]);
+			mDiamondsSpeed[i] = Fixed.toFloat(mFDiamondsSpeed[i]);
+		}
+	}
+
+	/**
+	 * FNV-1a hash of everything step() depends on: the fixed point state in
+	 * fixed point mode, the bits of the floats otherwise.
+	 */
+	public long stateHash() {
+		long h = 0xcbf29ce484222325L;
+		if (mFixed) {
+			h = hash(h, mFBy);
+			h = hash(h, mFDx);
+			h = hash(h, mFDy);
+			h = hash(h, mFScroll);
+			for (int i = 0; i < mDiamondCount; i++) {
+				h = hash(h, mFYDiamonds[i]);
+				h = hash(h, mFDiamondsSpeed[i]);
+			}
+		} else {
+			h = hash(h, Float.floatToIntBits(mB.y));
+			h = hash(h, Float.floatToIntBits(mD.x));
+			h = hash(h, Float.floatToIntBits(mD.y));
+			h = hash(h, Float.floatToIntBits(mXDiamond));
+			for (int i = 0; i < mDiamondCount; i++) {
+				h = hash(h, Float.floatToIntBits(mYDiamonds[i]));
+				h = hash(h, Float.floatToIntBits(mDiamondsSpeed[i]));
+			}
+		}
+		for (int i = 0; i < mDiamondCount; i++)
+			h = hash(h, mDiamondsViz[i] ? 1 : 0);
+		h = hash(h, mDiamonds);
+		return hash(h, mRemEnergy);
+	}
+
+	private static long hash(long h, int v) {
+		for (int i = 0; i < 4; i++) {
+			h ^= v & 0xff;
+			h *= 0x100000001b3L;
+			v >>>= 8;
+		}
+		return h;
+	}
+
+	/**
+	 * Lays out a new game. All randomness comes from rnd, so a seeded Random
+	 * always produces the same level.
+	 */
+	public void start(Random rnd) {
+		mB.set(mCanvasWidth / 4.0f, mCanvasHeight-mBallHeight/4.0f);
+		mD.set(0.0f, 0.0f);
+		mDiamonds = 0;
+		mRemEnergy = 100;
+		mXDiamonds[0]= mCanvasWidth /3.0f;
+		mYDiamonds[0] = mCanvasHeight-mBallHeight-rnd.nextFloat()*40.0f;
+		mDiamondsViz[0] = true;
+		mDiamondsSpeed[0] = rnd.nextFloat()*40.0f;
+		for (int i=1 ;i<mDiamondCount;i++) {
+			mXDiamonds[i] = mXDiamonds[i-1] + rnd.nextFloat()*200.0f;
+			mYDiamonds[i] = mCanvasHeight-mBallHeight-rnd.nextFloat()*40.0f;
+			mDiamondsViz[i] = true;
+			mDiamondsSpeed[i] = rnd.nextFloat()*40.0f+2.0f;
+		}
+		mXCrater[0] = mCanvasWidth / 2;
+		for (int i=1 ;i<NUMBER_OF_CRATERS;i++) {
+			mXCrater[i] = mXCrater[i-1] + rnd.nextFloat()*350.0f + mCWidth;
+		}
+
+		mXDiamond = mCanvasWidth/2;
+		fromFloats();
+	}
+
+	/**
+	 * Jumps, if the blob is on the ground.
+	 */
+	public void jump() {
+		PhysicsProfile p = mProfile;
+		if (mFixed) {
+			if (mFBy >= Fixed.fromInt(mCanvasHeight)) {
+				mFDy = p.fixedJumpSpeed;
+				mD.y = Fixed.toFloat(p.fixedJumpSpeed);
+			}
+			return;
+		}
+		if (mB.y >= mCanvasHeight) {
+			mD.y=p.jumpSpeed;
+		}
+	}
+
+	/**
+	 * Sets the tilt of the device in degrees; positive values move the blob
+	 * to the right.
+	 */
+	public void accelerate(float tiltAngle) {
+		mTiltAngle = -tiltAngle;
+		mFTilt = Fixed.fromFloat(mTiltAngle);
+	}
+
+	/**
+	 * Advances the world by elapsed seconds.
+	 *
+	 * @return one of the RESULT_* constants
+	 */
+	public int step(float elapsed) {
+		PhysicsProfile p = mProfile;
+		if (mFixed) return stepFixed(p, Fixed.fromFloat(elapsed));
+
+		// Base accelerations -- 0 for x, gravity for y
+		float ddx = PHYS_DOWN_ACCEL_SEC * PHYS_ACCEL_FACTOR_X * elapsed * FastMath.sinDeg(mTiltAngle) * PHYS_ACCEL_FACTOR_X/2.0f;
+		float ddy = p.gravity * elapsed;
+
+		float dxOld = mD.x;
+		float dyOld = mD.y;
+
+		// where the world was relative to the blob, for the swept tests
+		float scrollOld = mXDiamond;
+		float yOld = mB.y;
+
+		// figure speeds for the end of the period
+		mD.x += ddx;
+		if (mD.x > p.speedMax) {
+			mD.x = p.speedMax;
+		} else if (mD.x < -p.speedMax) {
+			mD.x = -p.speedMax;
+		}
+
+		mD.y += ddy;
+
+		// figure position based on average speed during the period
+		mXDiamond += elapsed * (mD.x + dxOld) / 2.0f;
+		mB.y += elapsed * (mD.y + dyOld) / 2.0f;
+		if (mXDiamond > 150.0f) {
+			mXDiamond = 150.0f;
+			mD.x = 0.0f;
+		}
+		if (mXDiamond < -4*mCanvasWidth) {
+			mXDiamond = -4*mCanvasWidth;
+			mD.x = 0.0f;
+		}
+		if (mB.y<0.0f) {
+			mB.y = 0.0f;
+		} else {
+			if (mB.y>=mCanvasHeight) {
+				mB.y = mCanvasHeight;
+			}
+		}
+		mHeading = mXDiamond / 223.0f;
+		mHeading = 360.0f-(mHeading - FastMath.floor(mHeading))*360.0f;
+
+		// Move Diamonds
+		if (mUpdater != null && mDiamondCount >= mParallelThreshold) {
+			mElapsed = elapsed;
+			mUpdater.run(mMoveDiamonds, mDiamondCount);
+		} else {
+			moveDiamonds(elapsed, 0, mDiamondCount);
+		}
+
+		// Evaluate if we have touched a Diamond ... Count
+		// or if we touch a Crater - Stop
+		if (mDiamonds >= mDiamondCount) return RESULT_WIN;
+
+		// the blob is drawn half its image size, bottom centered on mB
+		float left = mB.x-mBallWidth/4.0f;
+		float top = mB.y-mBallHeight/2.0f;
+		float right = mB.x+mBallWidth/4.0f;
+		float bottom = mB.y;
+
+		// Diamonds and crater edges are hit if they were inside the blob's
+		// box at any time during the step, not just at its end, so fast
+		// movement or long steps don't skip them. Seen from the blob, a
+		// world point moves from (x + scrollOld, y - yOld) to
+		// (x + mXDiamond, y - mB.y); both relative to the blob's box.
+		float boxLeft = -mBallWidth/4.0f;
+		float boxTop = -mBallHeight/2.0f;
+		float boxRight = mBallWidth/4.0f;
+		float x0 = scrollOld - mB.x;
+		float x1 = mXDiamond - mB.x;
+
+		int result = RESULT_RUNNING;
+		for (int i=0;i<mDiamondCount;i++) {
+			if (mDiamondsViz[i] && sweep(mXDiamonds[i]+x0, mYDiamonds[i]-yOld,
+					mXDiamonds[i]+x1, mYDiamonds[i]-mB.y, boxLeft, boxTop, boxRight, 0.0f)) {
+				mDiamonds++;
+				mDiamondsViz[i]=false;
+				if (mEvents != null) mEvents.post(GameEvents.PICKUP, i, mDiamonds);
+			}
+		}
+
+		// touch Crater
+		for (int i=0;i<NUMBER_OF_CRATERS;i++) {
+			float edgeY = mCanvasHeight-10.0f;
+			float leftEdge = mXCrater[i]-mCWidth/3.0f;
+			float rightEdge = mXCrater[i]+mCWidth/3.0f;
+			if (sweep(leftEdge+x0, edgeY-yOld, leftEdge+x1, edgeY-mB.y, boxLeft, boxTop, boxRight, 0.0f)
+					|| sweep(rightEdge+x0, edgeY-yOld, rightEdge+x1, edgeY-mB.y, boxLeft, boxTop, boxRight, 0.0f)) {
+				mD.x*=0.5f;
+				mD.y=-150.0f;
+			}
+
+			// zaehlt nur runter, wenn man in der Mitte des Kraters ist.
+			if (left > mXCrater[i]+mXDiamond-mCWidth/3 &&
+					right < mXCrater[i]+mXDiamond+mCWidth/3
+					&& bottom > mCanvasHeight-mCHeight/2) {
+				mRemEnergy -= p.energyDrain;
+				if (mEvents != null) mEvents.post(GameEvents.CRATER_HIT, i, mRemEnergy);
+				if (mRemEnergy <=0) {
+					mRemEnergy = 0;
+					if (mEvents != null && result != RESULT_LOSE)
+						mEvents.post(GameEvents.ENERGY_DEPLETED, i, 0);
+					result = RESULT_LOSE;
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * step() in Q16.16: the same rules, with elapsed in fixed point seconds.
+	 */
+	private int stepFixed(PhysicsProfile p, int elapsed) {
+		final int one = Fixed.ONE;
+		int width = Fixed.fromInt(mCanvasWidth);
+		int height = Fixed.fromInt(mCanvasHeight);
+
+		// PHYS_DOWN_ACCEL_SEC * PHYS_ACCEL_FACTOR_X * PHYS_ACCEL_FACTOR_X/2
+		int ddx = Fixed.mul(elapsed, Fixed.sinDeg(mFTilt))
+				* (PHYS_DOWN_ACCEL_SEC * PHYS_ACCEL_FACTOR_X * PHYS_ACCEL_FACTOR_X / 2);
+		int ddy = Fixed.mul(elapsed, p.fixedGravity);
+
+		int dxOld = mFDx;
+		int dyOld = mFDy;
+		int scrollOld = mFScroll;
+		int yOld = mFBy;
+
+		int speedMax = p.fixedSpeedMax;
+		mFDx += ddx;
+		if (mFDx > speedMax) {
+			mFDx = speedMax;
+		} else if (mFDx < -speedMax) {
+			mFDx = -speedMax;
+		}
+		mFDy += ddy;
+		// keeps growing while the blob rests on the ground; stop long
+		// before the position update could overflow
+		if (mFDy > MAX_FALL_SPEED) mFDy = MAX_FALL_SPEED;
+
+		mFScroll += Fixed.mul(elapsed, mFDx + dxOld) >> 1;
+		mFBy += Fixed.mul(elapsed, mFDy + dyOld) >> 1;
+		if (mFScroll > 150 * one) {
+			mFScroll = 150 * one;
+			mFDx = 0;
+		}
+		if (mFScroll < -4 * width) {
+			mFScroll = -4 * width;
+			mFDx = 0;
+		}
+		if (mFBy < 0) {
+			mFBy = 0;
+		} else if (mFBy >= height) {
+			mFBy = height;
+		}
+
+		if (mUpdater != null && mDiamondCount >= mParallelThreshold) {
+			mFElapsed = elapsed;
+			mUpdater.run(mMoveDiamonds, mDiamondCount);
+		} else {
+			moveDiamondsFixed(elapsed, 0, mDiamondCount);
+		}
+
+		toFloats();
+		mHeading = mXDiamond / 223.0f;
+		mHeading = 360.0f-(mHeading - FastMath.floor(mHeading))*360.0f;
+
+		if (mDiamonds >= mDiamondCount) return RESULT_WIN;
+
+		int left = mFBx - (mBallWidth << Fixed.SHIFT) / 4;
+		int right = mFBx + (mBallWidth << Fixed.SHIFT) / 4;
+		int bottom = mFBy;
+
+		// swept tests as in step()
+		int boxLeft = -(mBallWidth << Fixed.SHIFT) / 4;
+		int boxTop = -(mBallHeight << Fixed.SHIFT) / 2;
+		int boxRight = (mBallWidth << Fixed.SHIFT) / 4;
+		int x0 = scrollOld - mFBx;
+		int x1 = mFScroll - mFBx;
+
+		int result = RESULT_RUNNING;
+		for (int i=0;i<mDiamondCount;i++) {
+			if (mDiamondsViz[i] && sweepFixed(mFXDiamonds[i]+x0, mFYDiamonds[i]-yOld,
+					mFXDiamonds[i]+x1, mFYDiamonds[i]-mFBy, boxLeft, boxTop, boxRight, 0)) {
+				mDiamonds++;
+				mDiamondsViz[i]=false;
+				if (mEvents != null) mEvents.post(GameEvents.PICKUP, i, mDiamonds);
+			}
+		}
+
+		int edgeY = height - 10 * one;
+		int edge = (mCWidth << Fixed.SHIFT) / 3;
+		// the energy test uses whole pixels, like step()
+		int middle = Fixed.fromInt(mCWidth / 3);
+		int deep = height - Fixed.fromInt(mCHeight / 2);
+		for (int i=0;i<NUMBER_OF_CRATERS;i++) {
+			int leftEdge = mFXCrater[i] - edge;
+			int rightEdge = mFXCrater[i] + edge;
+			if (sweepFixed(leftEdge+x0, edgeY-yOld, leftEdge+x1, edgeY-mFBy, boxLeft, boxTop, boxRight, 0)
+					|| sweepFixed(rightEdge+x0, edgeY-yOld, rightEdge+x1, edgeY-mFBy, boxLeft, boxTop, boxRight, 0)) {
+				mFDx >>= 1;
+				mFDy = -150 * one;
+				mD.set(Fixed.toFloat(mFDx), Fixed.toFloat(mFDy));
+			}
+
+			if (left > mFXCrater[i] + mFScroll - middle
+					&& right < mFXCrater[i] + mFScroll + middle
+					&& bottom > deep) {
+				mRemEnergy -= p.energyDrain;
+				if (mEvents != null) mEvents.post(GameEvents.CRATER_HIT, i, mRemEnergy);
+				if (mRemEnergy <=0) {
+					mRemEnergy = 0;
+					if (mEvents != null && result != RESULT_LOSE)
+						mEvents.post(GameEvents.ENERGY_DEPLETED, i, 0);
+					result = RESULT_LOSE;
+				}
+			}
+		}
+		return result;
+	}
+
+	void moveDiamondsFixed(int elapsed, int from, int to) {
+		int min = Fixed.fromInt(10);
+		int max = Fixed.fromInt(mCanvasHeight - 10);
+		for (int i = from; i < to; i++) {
+			int y = mFYDiamonds[i] + Fixed.mul(elapsed, mFDiamondsSpeed[i]);
+			mFYDiamonds[i] = y;
+			if (y > max || y < min) mFDiamondsSpeed[i] = -mFDiamondsSpeed[i];
+		}
+	}
+
+	/**
+	 * Moves diamonds [from, to); they bounce between 10 and mCanvasHeight-10.
+	 */
+	void moveDiamonds(float elapsed, int from, int to) {
+		Vector2.axpy(elapsed, mDiamondsSpeed, mYDiamonds, from, to);
+		Vector2.reflect(mYDiamonds, mDiamondsSpeed, from, to, 10, mCanvasHeight-10);
+	}
+
+	/**
+	 * Does the segment from (x0, y0) to (x1, y1) touch the box? Slab test:
+	 * clips the segment's parameter range [0, 1] against both axes. Like
+	 * RectF.contains(), a segment standing still on the right or bottom
+	 * edge is outside.
+	 */
+	static boolean sweep(float x0, float y0, float x1, float y1,
+			float left, float top, float right, float bottom) {
+		float tMin = 0.0f;
+		float tMax = 1.0f;
+
+		float dx = x1 - x0;
+		if (dx == 0.0f) {
+			if (x0 < left || x0 >= right) return false;
+		} else {
+			float ta = (left - x0) / dx;
+			float tb = (right - x0) / dx;
+			if (ta > tb) { float t = ta; ta = tb; tb = t; }
+			if (ta > tMin) tMin = ta;
+			if (tb < tMax) tMax = tb;
+			if (tMin > tMax) return false;
+		}
+
+		float dy = y1 - y0;
+		if (dy == 0.0f) {
+			if (y0 < top || y0 >= bottom) return false;
+		} else {
+			float ta = (top - y0) / dy;
+			float tb = (bottom - y0) / dy;
+			if (ta > tb) { float t = ta; ta = tb; tb = t; }
+			if (ta > tMin) tMin = ta;
+			if (tb < tMax) tMax = tb;
+		}
+		return tMin <= tMax;
+	}
+
+	/**
+	 * sweep() in Q16.16; the segment parameters are kept in longs since a
+	 * short dx makes them large.
+	 */
+	static boolean sweepFixed(int x0, int y0, int x1, int y1,
+			int left, int top, int right, int bottom) {
+		long tMin = 0;
+		long tMax = Fixed.ONE;
+
+		long dx = (long) x1 - x0;
+		if (dx == 0) {
+			if (x0 < left || x0 >= right) return false;
+		} else {
+			long ta = (((long) left - x0) << Fixed.SHIFT) / dx;
+			long tb = (((long) right - x0) << Fixed.SHIFT) / dx;
+			if (ta > tb) { long t = ta; ta = tb; tb = t; }
+			if (ta > tMin) tMin = ta;
+			if (tb < tMax) tMax = tb;
+			if (tMin > tMax) return false;
+		}
+
+		long dy = (long) y1 - y0;
+		if (dy == 0) {
+			if (y0 < top || y0 >= bottom) return false;
+		} else {
+			long ta = (((long) top - y0) << Fixed.SHIFT) / dy;
+			long tb = (((long) bottom - y0) << Fixed.SHIFT) / dy;
+			if (ta > tb) { long t = ta; ta = tb; tb = t; }
+			if (ta > tMin) tMin = ta;
+			if (tb < tMax) tMax = tb;
+		}
+		return tMin <= tMax;
+	}
+}
@@ -126,8 +126,10 @@ public class llext extends Activity {
         mLunarView.setTextView2((TextView) findViewById(R.id.DiamondsText));
 
         if (savedInstanceState == null) {
-            // we were just launched: set up a new game
-            mLunarThread.setState(LunarThread.STATE_READY);
+            // we were just launched: resume a game the process was killed in,
+            // otherwise set up a new game
+            if (!mLunarThread.restoreJournal())
+                mLunarThread.setState(LunarThread.STATE_READY);
             Log.w(this.getClass().getName(), "SIS is null");
         } else {
             // we are being restored: resume a previous game
@@ -145,6 +147,16 @@ public class llext extends Activity {
         mLunarView.getThread().pause(); // pause game when Activity pauses
     }
 
+    /**
+     * Invoked when the Activity is destroyed, e.g. finished or recreated for
+     * a new configuration.
+     */
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mLunarView.release();
+    }
+
     /**
      * Notification that something is about to happen, to give the Activity a
      * chance to save state.
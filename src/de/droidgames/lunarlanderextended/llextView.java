@@ -18,15 +18,29 @@
 
 package de.droidgames.lunarlanderextended;
 
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.content.res.Configuration;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
-import android.graphics.Color;
 import android.graphics.Paint;
-import android.graphics.RectF;
+import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
 import android.hardware.SensorListener;
 import android.hardware.SensorManager;
@@ -34,8 +48,8 @@ import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
 import android.os.Vibrator;
+import android.preference.PreferenceManager;
 import android.util.AttributeSet;
-import android.util.FloatMath;
 import android.util.Log;
 import android.view.KeyEvent;
 import android.view.MotionEvent;
@@ -43,6 +57,7 @@ import android.view.SurfaceHolder;
 import android.view.SurfaceView;
 import android.view.View;
 import android.widget.TextView;
+import android.widget.Toast;
 
 
 /**
@@ -55,32 +70,33 @@ import android.widget.TextView;
  * by the system.
  */
 class llextView extends SurfaceView implements SurfaceHolder.Callback {
-	class LunarThread extends Thread implements SensorListener {
+	class LunarThread extends Thread implements SensorListener, Bot.Controls,
+			SharedPreferences.OnSharedPreferenceChangeListener {
 		public static final float PI = 3.14159265358979f;
 		
 		/*
-		 * Difficulty setting constants
+		 * Difficulty setting constants, in the order of R.array.difficulties
 		 */
-		public static final int DIFFICULTY_EASY = 0;
-		public static final int DIFFICULTY_HARD = 1;
-		public static final int DIFFICULTY_MEDIUM = 2;
-		public static final int NUMBER_OF_DIAMONDS = 20;
-		public static final int NUMBER_OF_CRATERS = 8;
-		public static final float mTotalEnergy = 100.0f;
+		public static final int DIFFICULTY_EASY = PhysicsProfile.DIFFICULTY_EASY;
+		public static final int DIFFICULTY_MEDIUM = PhysicsProfile.DIFFICULTY_MEDIUM;
+		public static final int DIFFICULTY_HARD = PhysicsProfile.DIFFICULTY_HARD;
+		public static final int DIFFICULTY_IMPOSSIBLE = PhysicsProfile.DIFFICULTY_IMPOSSIBLE;
 		/*
 		 * Physics constants
 		 */
-		public static final int PHYS_DOWN_ACCEL_SEC = 300;
-		public static final int PHYS_ACCEL_FACTOR_X = 3;
-		public static final int INITIAL_JUMP_SPEED = -275;
 		public static final int PHYS_FIRE_ACCEL_SEC = 80;
 		public static final int PHYS_FUEL_INIT = 60;
 		public static final int PHYS_FUEL_MAX = 100;
 		public static final int PHYS_FUEL_SEC = 10;
 		public static final int PHYS_SLEW_SEC = 120; // degrees/second rotate
 		public static final int PHYS_SPEED_INIT = 30;
-		public static final int PHYS_SPEED_MAX = 180;
 		public static final int MAX_DIAMOND_MOVEMENT = 40;
+		/** How often the blob position is written to the autosave journal */
+		public static final long CHECKPOINT_INTERVAL_MS = 250;
+		/** Target time between two simulation steps */
+		public static final long SIM_TICK_MS = 16;
+		/** Last finished moon surface game, for score verification */
+		public static final String RUN_FILE = "lastrun.bin";
 		/*
 		 * State-tracking constants
 		 */
@@ -93,7 +109,12 @@ class llextView extends SurfaceView implements SurfaceHolder.Callback {
 		public static final int LEVEL1 = 1;
 		public static final int LEVEL2 = 2;
 
-		public static final int gaugeWidth = 150; // width of gauge Bar in pixels
+		public static final int MAX_SPARKLES = 512; // diamond pickup particles
+		public static final int MAX_DUST = 512; // crater particles
+		public static final int GHOST_ALPHA = 96; // ghost blobs are see-through
+		public static final long HUD_FLASH_NS = 300000000L; // diamond count lights up after a pickup
+		public static final int BUZZ_MS = 100; // vibration in a crater
+		public static final int BUZZ_EMPTY_MS = 400; // vibration when the energy runs out
 
 		/*
 		 * UI constants (i.e. the speed & fuel bars)
@@ -108,11 +129,27 @@ class llextView extends SurfaceView implements SurfaceHolder.Callback {
 		private static final String KEY_X = "mXB";
 		private static final String KEY_Y = "mYB";
 
+		/*
+		 * Keys in res/xml/preferences.xml
+		 */
+		public static final String PREF_RENDER_SCALE = "renderScale";
+		public static final String PREF_HUD_NATIVE = "hudNative";
+		public static final String PREF_GHOST_SERVER = "ghostServer";
+		public static final String PREF_FIXED_POINT = "fixedPoint";
+		public static final String PREF_USERNAME = "username";
+		public static final String PREF_PLANET = "planet";
+		public static final String PREF_DIFFICULTY = "Difficulty";
+		public static final String PREF_LATENCY_OVERLAY = "latencyOverlay";
+
+		/** Latency histograms written when the thread ends, in the files dir */
+		public static final String LATENCY_FILE = "latency.csv";
+
 		/*
 		 * Member (state) fields
 		 */
 		/** The drawable to use as the background of the animation canvas */
-		private Bitmap mBackgroundImage;
+		private volatile Bitmap mBackgroundImage;
+		private Bitmap mBackgroundSource;
 
 		/**
 		 * Current height of the surface/canvas.
@@ -128,15 +165,6 @@ class llextView extends SurfaceView implements SurfaceHolder.Callback {
 		 */
 		private int mCanvasWidth = 1;
 
-		/**
-		 * Current difficulty -- amount of fuel, allowed angle, etc. Default is
-		 * MEDIUM.
-		 */
-		private int mDifficulty;
-
-		/** Velocity dx/dy. */
-		private Vector2 mD;
-
 		/** Message handler used by thread to interact with TextView */
 		private Handler mHandler;
 
@@ -146,7 +174,8 @@ class llextView extends SurfaceView implements SurfaceHolder.Callback {
 		private int mBallHeight;
 
 		/** What to draw for Ground */
-		private Drawable mGroundImage;
+		private Bitmap mGroundSource;
+		private volatile Bitmap mGroundTile;
 		private int mGHeight;
 
 		/** What to draw for a diamond */
@@ -163,58 +192,159 @@ class llextView extends SurfaceView implements SurfaceHolder.Callback {
 		private Drawable mCraterImage;
 		private int mCWidth;
 		private int mCHeight;
-		private Drawable mMidImage;
+
+		/** Filling between two craters */
+		private Bitmap mMidSource;
+		private volatile Bitmap mMidTile;
 
 		/** Used to figure out elapsed time between frames */
 		private long mLastTime;
 
+		/** Time of the last checkpoint written to the journal */
+		private long mLastCheckpoint;
+
+		/** Seconds played in the current game, for the leaderboard */
+		private float mPlayTime;
+
+		/** Frame statistics of the render thread, sent to the telemetry once a second */
+		private long mFramesStart;
+		private int mFrames;
+		private long mFrameMaxNs;
+
 		/** Paint to draw the lines on screen. */
 		private Paint mLinePaint;
 
-		/** The state of the game. One of READY, RUNNING, PAUSE, LOSE, or WIN */
-		private int mMode;
+		/** Draw commands of the current frame, replayed by mBackend */
+		private final DrawList mDrawList = new DrawList();
+		private CanvasBackend mBackend;
+		/** Records the frames; its layers' tiles are scaled in setSurfaceSize */
+		private FrameRecorder mRecorder;
 
-		/** Indicate whether the surface has been created & is ready to draw */
-		private boolean mRun = false;
+		/** HUD commands, drawn after the rest of the frame */
+		private final DrawList mHudList = new DrawList();
+		private HudText mHudText;
+		private GlyphAtlas mHudAtlas;
+
+		/*
+		 * Game events: posted by the physics and setState() under the
+		 * surface lock, journaled as they are posted and published once per
+		 * tick, then handled by the simulation (telemetry, particles), the
+		 * effects thread (sound, vibration) and the render thread (HUD)
+		 */
+		private final GameEvents mEvents = new GameEvents();
+		private final GameEvents.Cursor mTickCursor = mEvents.subscribe();
+		private final GameEvents.Cursor mEffectsCursor = mEvents.subscribe();
+		private final GameEvents.Cursor mHudCursor = mEvents.subscribe();
+		private volatile Thread mEffects;
 
-		/** Scratch rect object. */
-		private RectF mScratchRect;
+		/** Longest vibration asked for by the current batch, effects thread only */
+		private int mBuzzMs;
 
-		/** Handle to the surface manager object we interact with */
-		private SurfaceHolder mSurfaceHolder;
+		/** Last mode the current batch changed to, or 0; effects thread only */
+		private int mShowMode;
 
-		/** Is the ball jumping? */
-		private boolean mJumping;
-		private float mTiltAngle = 0.0f;
+		/** Ghost race error shown last, effects thread only */
+		private String mGhostError;
 
-		private float[] mXCrater = new float[NUMBER_OF_CRATERS];
+		/** Until when the diamond count flashes, render thread only */
+		private long mHudFlashUntil;
 
-		/** Number of Diamond collected */
-		private int mDiamonds;
+		/** Render resolution in percent of the surface size */
+		private int mRenderScale = 100;
 
-		/** X of Diamond */
-		private float mXDiamond;
-		private float[] mXDiamonds = new float[NUMBER_OF_DIAMONDS];
-		private boolean[] mDiamondsViz = new boolean[NUMBER_OF_DIAMONDS];
+		/** Draw the HUD at surface resolution on top of the upscaled frame */
+		private boolean mHudNative = true;
 
-		/**Y of Diamond */
-		private float[] mYDiamonds = new float[NUMBER_OF_DIAMONDS];
-		private float[] mDiamondsSpeed = new float[NUMBER_OF_DIAMONDS];
+		/** host:port of the ghost race server, empty for none */
+		private String mGhostAddress;
 
-		/** X/Y of Blob */
-		private Vector2 mB;
-		
-		/** Rotation Angle of Blob */
-		private float mHeading=0.0f;
+		/** Integer physics, the same on every device, see World */
+		private boolean mFixedPoint;
+
+		/** Name the scores are filed under, with the planet of the physics */
+		private String mPlayerName;
+
+		/** Physics from the planet and difficulty preferences */
+		private PhysicsProfile mProfile = PhysicsProfile.DEFAULT;
+
+		/** Connection to the ghost race while the thread runs, or null */
+		private volatile GhostClient mGhosts;
+		private Drawable mGhostImage;
+
+		/** Offscreen frame at render resolution, unused at 100% */
+		private Bitmap mRenderBuffer;
+		private Canvas mRenderCanvas;
+		private final Rect mSurfaceRect = new Rect();
+		private final Paint mScalePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+		/**
+		 * The state of the game. One of READY, RUNNING, PAUSE, LOSE, or WIN.
+		 * Changed under the surface lock, read by input without it.
+		 */
+		private volatile int mMode;
+
+		/** Text to show with the mode set last, or null */
+		private CharSequence mStateMessage;
+
+		/** Diamonds collected when the mode was set last, for its text */
+		private int mStateDiamonds;
+
+		/** Indicate whether the surface has been created & is ready to draw */
+		private volatile boolean mRun = false;
+
+		/** Sparkles of picked up diamonds and dust kicked up in craters */
+		private final ParticleSystem mSparkles = new ParticleSystem(MAX_SPARKLES, 0xFFFFFF60, 3, 200.0f, 0.6f);
+		private final ParticleSystem mDust = new ParticleSystem(MAX_DUST, 0xFFB0A890, 2, 300.0f, 0.4f);
+
+		/** World state handed from the simulation to the render thread */
+		private final TripleBuffer<RenderSnapshot> mSnapshots = new TripleBuffer<RenderSnapshot>(
+				new RenderSnapshot[] { new RenderSnapshot(mSparkles, mDust),
+						new RenderSnapshot(mSparkles, mDust), new RenderSnapshot(mSparkles, mDust) });
+
+		/**
+		 * Input waiting for the next simulation step. Touch, keys and sensor
+		 * only write these, so they never wait for the simulation.
+		 */
+		private volatile float mTiltInput;
+		private final AtomicBoolean mJumpInput = new AtomicBoolean();
+
+		/** Event times of the pending input, see LatencyTracer */
+		private volatile long mJumpStamp;
+		private volatile long mTiltStamp;
+		/** Inputs on their way to the screen, simulation thread only */
+		private final LatencyTracer.Trace[] mTraces = {
+				new LatencyTracer.Trace(), new LatencyTracer.Trace() };
+		/** Draw the latency statistics over the game */
+		private boolean mLatencyOverlay;
+		private final String[] mLatencyLines = new String[LatencyTracer.INPUTS];
+
+		/** Handle to the surface manager object we interact with */
+		private SurfaceHolder mSurfaceHolder;
+
+		/** Blob, diamonds and craters of the moon surface level */
+		private World mWorld;
+
+		/** Source of the random level layout */
+		private final Random mRandom = new Random();
 
-		/** Remaining Energy */
-		private int mRemEnergy = 100;
+		/** Seed and input of the current game, see RunLog */
+		private final RunLog mRunLog = new RunLog();
+		private boolean mRecording;
+
+		/** Computer player driving the controls, or null */
+		private Bot mBot;
 
 		/** Sound **/
 		private Sound mSound;
 
 		private int actLevel = LEVEL1;
-		Maze myMaze = null;
+		volatile Maze myMaze = null;
+		private int mMazeLevel;
+		private MazePhysics mMazePhysics;
+		private MazePathfinder mPathfinder;
+
+		/** Is the blob standing on a maze tile? */
+		private boolean mOnGround;
 		Vibrator Vibrator;
 		SensorManager sm = null;
 		private int deviceOrientation;
@@ -235,18 +365,29 @@ class llextView extends SurfaceView implements SurfaceHolder.Callback {
 			mLinePaint.setAntiAlias(true);
 			mLinePaint.setARGB(255, 0, 255, 0);
 
+			// the HUD texts, rendered once
+			mHudText = new HudText(new String[] { "Diamanten: ", "Zeit: " });
+			mHudAtlas = new GlyphAtlas(mLinePaint, mHudText);
+			mRecorder = new FrameRecorder(mHudText);
+
+			readPreferences(context);
+
 			Resources res = context.getResources();
 			// cache handles to our key sprites & other drawables
 
 			mBallImage = context.getResources().getDrawable(R.drawable.ball);
-			mGroundImage = context.getResources().getDrawable(R.drawable.ground);
 			mDiamondImage = context.getResources().getDrawable(R.drawable.diamond2);
 			mCraterImage = context.getResources().getDrawable(R.drawable.krater);
-			mMidImage = context.getResources().getDrawable(R.drawable.mid);
 			mLanderImage = context.getResources().getDrawable(R.drawable.lander_plain);
-			// load background image as a Bitmap instead of a Drawable b/c
-			// we don't need to transform it and it's faster to draw this way
-			mBackgroundImage = BitmapFactory.decodeResource(res,R.drawable.earthrise);
+			// own copy, so the alpha doesn't change mBallImage
+			mGhostImage = context.getResources().getDrawable(R.drawable.ball).mutate();
+			mGhostImage.setAlpha(GHOST_ALPHA);
+			// load the layers as Bitmaps instead of Drawables b/c they are
+			// scaled once into tiles and it's faster to draw them this way
+			mBackgroundSource = BitmapFactory.decodeResource(res,R.drawable.earthrise);
+			mBackgroundImage = mBackgroundSource;
+			mGroundSource = BitmapFactory.decodeResource(res,R.drawable.ground);
+			mMidSource = BitmapFactory.decodeResource(res,R.drawable.mid);
 
 			// Use the regular lander image as the model size for all sprites
 			mBallWidth = mBallImage.getIntrinsicWidth();
@@ -257,20 +398,29 @@ class llextView extends SurfaceView implements SurfaceHolder.Callback {
 			mCHeight = mCraterImage.getIntrinsicHeight();
 			mLWidth = mLanderImage.getIntrinsicWidth();
 			mLHeight = mLanderImage.getIntrinsicHeight();
-
-			mGHeight = mGroundImage.getIntrinsicHeight();            
-
-			mScratchRect = new RectF(0, 0, 0, 0);
-
-			mDiamonds = 0;
-			mDifficulty = DIFFICULTY_EASY;
-
-			// initial show-up of lander (not yet playing)
-			mB = new Vector2(1.0f, 1.0f);
-			mD = Vector2.ZERO;
+			mRecorder.setSpriteSize(FrameRecorder.SPRITE_BALL, mBallWidth, mBallHeight);
+			mRecorder.setSpriteSize(FrameRecorder.SPRITE_DIAMOND, mDWidth, mDHeight);
+			mRecorder.setSpriteSize(FrameRecorder.SPRITE_CRATER, mCWidth, mCHeight);
+			mRecorder.setSpriteSize(FrameRecorder.SPRITE_LANDER, mLWidth, mLHeight);
+
+			mGHeight = mGroundSource.getHeight();            
+
+			mBackend = new CanvasBackend(FrameRecorder.SPRITE_COUNT, FrameRecorder.BITMAP_COUNT, mLinePaint);
+			mBackend.setSprite(FrameRecorder.SPRITE_BALL, mBallImage);
+			mBackend.setSprite(FrameRecorder.SPRITE_DIAMOND, mDiamondImage);
+			mBackend.setSprite(FrameRecorder.SPRITE_LANDER, mLanderImage);
+			mBackend.setSprite(FrameRecorder.SPRITE_CRATER, mCraterImage);
+			mBackend.setSprite(FrameRecorder.SPRITE_GHOST, mGhostImage);
+			mBackend.setGlyphs(mHudAtlas);
+
+			mWorld = new World(mBallWidth, mBallHeight, mCWidth, mCHeight);
+			mWorld.setEvents(mEvents);
+			mEvents.setRecorder(mRecordEvents);
+			mWorld.setProfile(mProfile);
+			mWorld.setFixedPoint(mFixedPoint);
 			
-			if (actLevel == LEVEL2) 
-				myMaze = new Maze(context.getAssets(), 1);
+			if (actLevel == LEVEL2 && !setMazeLevel(1))
+				actLevel = LEVEL1;
 
 			Vibrator = (Vibrator) context.getSystemService(context.VIBRATOR_SERVICE);
 			sm = (SensorManager) context.getSystemService(context.SENSOR_SERVICE);
@@ -278,18 +428,6 @@ class llextView extends SurfaceView implements SurfaceHolder.Callback {
 					SensorManager.SENSOR_ORIENTATION |
 					SensorManager.SENSOR_ACCELEROMETER,
 					SensorManager.SENSOR_DELAY_NORMAL);
-
-			/*
-			 *  SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
-
-            try {
-                String sval = prefs.getString("skillLevel", skillLevel.toString());
-                skillLevel = GameView.Difficulty.valueOf(sval);
-            } catch (Exception e) {
-            }
-            mLunarView.setDifficulty(skillLevel);
-			 */
-
 		}
 
 		public int getMode() {
@@ -301,26 +439,32 @@ class llextView extends SurfaceView implements SurfaceHolder.Callback {
 		 */
 		public void doStart() {
 			synchronized (mSurfaceHolder) {
-				mB.set(mCanvasWidth / 4.0f, mCanvasHeight-mBallHeight/4.0f);
-				mD.set(0.0f, 0.0f);
-				mRemEnergy = 100;                
-				mXDiamonds[0]= mCanvasWidth /3.0f;
-				mYDiamonds[0] = mCanvasHeight-mBallHeight-(float)(Math.random()*40.0f);
-				mDiamondsViz[0] = true;
-				mDiamondsSpeed[0] = (float)Math.random()*40.0f;
-				for (int i=1 ;i<NUMBER_OF_DIAMONDS;i++) {
-					mXDiamonds[i] = mXDiamonds[i-1] + (float)(Math.random()*200.0f);
-					mYDiamonds[i] = mCanvasHeight-mBallHeight-(float)(Math.random()*40.0f);
-					mDiamondsViz[i] = true;
-					mDiamondsSpeed[i] = (float)(Math.random()*40.0f+2.0f);
-				}
-				mXCrater[0] = mCanvasWidth / 2;
-				for (int i=1 ;i<NUMBER_OF_CRATERS;i++) {
-					mXCrater[i] = mXCrater[i-1] + (float)(Math.random()*350.0f) + mCWidth;                	
+				// a seed of its own, so the layout can be replayed from the RunLog
+				long seed = mRandom.nextLong();
+				mWorld.start(new Random(seed));
+				mRunLog.start(mWorld, seed);
+				mRecording = actLevel == LEVEL1;
+				mJumpInput.set(false);
+				mSparkles.clear();
+				mDust.clear();
+				mPlayTime = 0.0f;
+				mTelemetry.emit(Telemetry.EVENT_START, actLevel, mWorld.getDifficulty(), 0.0f);
+				if (actLevel == LEVEL2) {
+					// start where the level compiler placed the blob
+					mWorld.mB.set(myMaze.getStartX(), myMaze.getStartY());
 				}
-
-				mXDiamond = mCanvasWidth/2;
 				mLastTime = System.currentTimeMillis() + 100;
+
+				// record the new layout so the game can be resumed after a crash
+				mJournal.append(Journal.REC_START, 0, mWorld.getDifficulty(), 0.0f, 0.0f);
+				for (int i=0; i<World.NUMBER_OF_DIAMONDS; i++)
+					mJournal.append(Journal.REC_DIAMOND_POS, i, 0, mWorld.mXDiamonds[i], mWorld.mYDiamonds[i]);
+				for (int i=0; i<World.NUMBER_OF_CRATERS; i++)
+					mJournal.append(Journal.REC_CRATER_POS, i, 0, mWorld.mXCrater[i], 0.0f);
+				mJournal.append(Journal.REC_ENERGY, 0, mWorld.mRemEnergy, 0.0f, 0.0f);
+				mJournal.append(Journal.REC_CHECKPOINT, 0, (int)mWorld.mB.x, mWorld.mXDiamond, mWorld.mB.y);
+				mLastCheckpoint = mLastTime;
+
 				setState(STATE_RUNNING);
 			}
 		}
@@ -332,6 +476,7 @@ class llextView extends SurfaceView implements SurfaceHolder.Callback {
 			synchronized (mSurfaceHolder) {
 				if (mMode == STATE_RUNNING) setState(STATE_PAUSE);
 			}
+			mJournal.flush();
 		}
 
 		/**
@@ -344,38 +489,301 @@ class llextView extends SurfaceView implements SurfaceHolder.Callback {
 		public synchronized void restoreState(Bundle savedState) {
 			synchronized (mSurfaceHolder) {
 				setState(STATE_PAUSE);
+				mRecording = false;
 
-				mDifficulty = savedState.getInt(KEY_DIFFICULTY);
-				mB.set(savedState.getFloat(KEY_X), savedState.getFloat(KEY_Y));
-				mD.set(savedState.getFloat(KEY_DX), savedState.getFloat(KEY_DY));
+				mWorld.setDifficulty(savedState.getInt(KEY_DIFFICULTY));
+				mWorld.mB.set(savedState.getFloat(KEY_X), savedState.getFloat(KEY_Y));
+				mWorld.mD.set(savedState.getFloat(KEY_DX), savedState.getFloat(KEY_DY));
 
 				mBallWidth = savedState.getInt(KEY_BALL_WIDTH);
 				mBallHeight = savedState.getInt(KEY_BALL_HEIGHT);
 
-				mDiamonds = savedState.getInt(KEY_DIAMONDS);
+				mWorld.mDiamonds = savedState.getInt(KEY_DIAMONDS);
+				mWorld.fromFloats();
+
+			}
+		}
+
+		/**
+		 * Restores the game from the autosave journal. Used when the process
+		 * was killed and there is no saved instance state.
+		 * 
+		 * @return true if an unfinished game was found and restored
+		 */
+		public boolean restoreJournal() {
+			Journal.Snapshot s = mJournal.restore();
+			if (s == null) return false;
+
+			synchronized (mSurfaceHolder) {
+				mRecording = false;
+				mWorld.setDifficulty(s.difficulty);
+				mWorld.mDiamonds = s.diamonds;
+				mWorld.mRemEnergy = s.energy;
+				mWorld.mXDiamond = s.scrollX;
+				mWorld.mB.set(s.blobX, s.blobY);
+				mWorld.mD.set(0.0f, 0.0f);
+				for (int i=0; i<World.NUMBER_OF_DIAMONDS; i++) {
+					mWorld.mXDiamonds[i] = s.xDiamonds[i];
+					mWorld.mYDiamonds[i] = s.yDiamonds[i];
+					mWorld.mDiamondsViz[i] = s.diamondsViz[i];
+					mWorld.mDiamondsSpeed[i] = mRandom.nextFloat()*40.0f+2.0f;
+				}
+				for (int i=0; i<World.NUMBER_OF_CRATERS; i++)
+					mWorld.mXCrater[i] = s.xCraters[i];
+				mWorld.fromFloats();
 
+				setState(STATE_PAUSE);
 			}
+			return true;
 		}
 
+		/**
+		 * Render loop. The simulation runs on its own thread and publishes
+		 * snapshots, so drawing holds no lock and runs in parallel with the
+		 * next physics step.
+		 */
 		@Override
 		public void run() {
+			Thread sim = new Thread(new Runnable() {
+				public void run() {
+					simulate();
+				}
+			}, "Simulation");
+			sim.start();
+			mEffects = new Thread(new Runnable() {
+				public void run() {
+					playEffects();
+				}
+			}, "Effects");
+			mEffects.start();
+
+			SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+			prefs.registerOnSharedPreferenceChangeListener(this);
+
+			GhostClient ghosts = GhostClient.create(mGhostAddress);
+			if (ghosts != null) ghosts.start();
+			mGhosts = ghosts;
+
+			mFramesStart = System.nanoTime();
 			while (mRun) {
+				long frameStart = System.nanoTime();
+				// ours until the next latest(), the simulation won't touch it
+				RenderSnapshot s = mSnapshots.latest();
+				long picked = System.nanoTime();
+				mEvents.dispatch(mHudCursor, mHudEvents);
+				mDrawList.reset();
+				mHudList.reset();
+				doDraw(mDrawList, mHudList, s);
+				mBackend.setBitmap(FrameRecorder.BITMAP_BACKGROUND, mBackgroundImage);
+				mBackend.setBitmap(FrameRecorder.BITMAP_GROUND, mGroundTile);
+				mBackend.setBitmap(FrameRecorder.BITMAP_MID, mMidTile);
+
 				Canvas c = null;
 				try {
 					c = mSurfaceHolder.lockCanvas(null);
-					synchronized (mSurfaceHolder) {
-						if (mMode == STATE_RUNNING) updatePhysics();
-						doDraw(c);
-					}
+					if (c != null) drawFrame(c);
 				} finally {
 					// do this in a finally so that if an exception is thrown
 					// during the above, we don't leave the Surface in an
 					// inconsistent state
 					if (c != null) {
 						mSurfaceHolder.unlockCanvasAndPost(c);
+						mLatency.frame(s.traces, picked, System.nanoTime());
+					}
+				}
+				countFrame(frameStart);
+			}
+
+			boolean retry = true;
+			while (retry) {
+				try {
+					sim.join();
+					LockSupport.unpark(mEffects);
+					mEffects.join();
+					retry = false;
+				} catch (InterruptedException e) {
+				}
+			}
+
+			mGhosts = null;
+			if (ghosts != null) ghosts.stop();
+			prefs.unregisterOnSharedPreferenceChangeListener(this);
+			saveLatency();
+		}
+
+		/**
+		 * Logs the latency summaries and writes the histograms to
+		 * LATENCY_FILE, for adb pull.
+		 */
+		private void saveLatency() {
+			for (int i = 0; i < LatencyTracer.INPUTS; i++)
+				Log.i("LOG", "latency " + mLatency.summary(i));
+			try {
+				Writer out = new BufferedWriter(new FileWriter(new File(mContext.getFilesDir(), LATENCY_FILE)));
+				try {
+					mLatency.writeCsv(out);
+				} finally {
+					out.close();
+				}
+			} catch (IOException e) {
+				Log.w("LOG", "saving latency failed: " + e);
+			}
+		}
+
+		/**
+		 * Adds a frame to the frame statistics and sends them to the
+		 * telemetry once a second.
+		 */
+		private void countFrame(long frameStart) {
+			long now = System.nanoTime();
+			long frame = now - frameStart;
+			mFrames++;
+			if (frame > mFrameMaxNs) mFrameMaxNs = frame;
+			if (now - mFramesStart >= 1000000000L) {
+				mTelemetry.emit(Telemetry.EVENT_FRAMES, mFrames, (int) (mFrameMaxNs / 1000),
+						(now - mFramesStart) / 1e6f / mFrames);
+				mFramesStart = now;
+				mFrames = 0;
+				mFrameMaxNs = 0;
+				if (mLatencyOverlay) {
+					for (int i = 0; i < LatencyTracer.INPUTS; i++)
+						mLatencyLines[i] = mLatency.summary(i);
+				}
+			}
+		}
+
+		/**
+		 * Plays the recorded frame on the surface canvas. Below 100% render
+		 * scale the frame goes into a smaller offscreen bitmap first, which is
+		 * then stretched over the surface in a single blit.
+		 */
+		private void drawFrame(Canvas c) {
+			if (mRenderScale >= 100) {
+				mBackend.draw(mDrawList, c);
+				mBackend.draw(mHudList, c);
+				return;
+			}
+
+			float scale = mRenderScale / 100.0f;
+			int w = Math.max(1, (int)(c.getWidth() * scale));
+			int h = Math.max(1, (int)(c.getHeight() * scale));
+			if (mRenderBuffer == null || mRenderBuffer.getWidth() != w
+					|| mRenderBuffer.getHeight() != h) {
+				if (mRenderBuffer != null) mRenderBuffer.recycle();
+				// same format as the surface, so the upscale is a plain copy
+				mRenderBuffer = Bitmap.createBitmap(w, h, Bitmap.Config.RGB_565);
+				mRenderCanvas = new Canvas(mRenderBuffer);
+			}
+
+			mBackend.draw(mDrawList, mRenderCanvas, scale);
+			if (!mHudNative) mBackend.draw(mHudList, mRenderCanvas, scale);
+
+			mSurfaceRect.set(0, 0, c.getWidth(), c.getHeight());
+			c.drawBitmap(mRenderBuffer, null, mSurfaceRect, mScalePaint);
+			if (mHudNative) mBackend.draw(mHudList, c);
+		}
+
+		/**
+		 * Reads the settings when the thread is created. Only the planet and
+		 * difficulty change while it runs, see onSharedPreferenceChanged();
+		 * the others take effect with the next thread.
+		 */
+		private void readPreferences(Context context) {
+			SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+			try {
+				mRenderScale = Integer.parseInt(prefs.getString(PREF_RENDER_SCALE, "100"));
+			} catch (NumberFormatException e) {
+				mRenderScale = 100;
+			}
+			if (mRenderScale < 25 || mRenderScale > 100) mRenderScale = 100;
+			mHudNative = prefs.getBoolean(PREF_HUD_NATIVE, true);
+			mGhostAddress = prefs.getString(PREF_GHOST_SERVER, "");
+			mFixedPoint = prefs.getBoolean(PREF_FIXED_POINT, false);
+			mPlayerName = prefs.getString(PREF_USERNAME, "");
+			mLatencyOverlay = prefs.getBoolean(PREF_LATENCY_OVERLAY, false);
+			mProfile = readProfile(prefs);
+		}
+
+		/**
+		 * Resolves the planet and difficulty preferences into their physics.
+		 * Without a planet the game is played on the moon.
+		 */
+		private PhysicsProfile readProfile(SharedPreferences prefs) {
+			Resources res = mContext.getResources();
+			int planet = indexOf(res.getStringArray(R.array.prefs_skill_entries),
+					prefs.getString(PREF_PLANET, null), PhysicsProfile.PLANET_MOON);
+			int difficulty = indexOf(res.getStringArray(R.array.difficulties),
+					prefs.getString(PREF_DIFFICULTY, null), DIFFICULTY_EASY);
+			return PhysicsProfile.get(planet, difficulty);
+		}
+
+		private int indexOf(String[] entries, String value, int otherwise) {
+			for (int i = 0; i < entries.length; i++) {
+				if (entries[i].equals(value)) return i;
+			}
+			return otherwise;
+		}
+
+		/**
+		 * Swaps in new physics when the planet or difficulty is changed
+		 * while the thread runs. The world reads its profile once per step,
+		 * so this needs no lock; the simulation stops recording the run,
+		 * which can't be replayed with one profile any more.
+		 */
+		public void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
+			if (!PREF_PLANET.equals(key) && !PREF_DIFFICULTY.equals(key)) return;
+			mProfile = readProfile(prefs);
+			mWorld.setProfile(mProfile);
+		}
+
+		/**
+		 * Simulation loop: advances the physics every SIM_TICK_MS and
+		 * publishes a snapshot for the render thread.
+		 */
+		private void simulate() {
+			while (mRun) {
+				long start = System.currentTimeMillis();
+				synchronized (mSurfaceHolder) {
+					if (mMode == STATE_RUNNING) updatePhysics();
+					if (mEvents.publish() > 0) {
+						mEvents.dispatch(mTickCursor, mTickEvents);
+						LockSupport.unpark(mEffects);
 					}
+					publishSnapshot();
 				}
+				long wait = SIM_TICK_MS - (System.currentTimeMillis() - start);
+				if (wait > 0) {
+					try {
+						Thread.sleep(wait);
+					} catch (InterruptedException e) {
+					}
+				}
+			}
+		}
+
+		private void publishSnapshot() {
+			RenderSnapshot s = mSnapshots.back();
+			s.set(mWorld);
+			s.playMillis = (int) (mPlayTime * 1000.0f);
+			long now = System.nanoTime();
+			for (int i = 0; i < LatencyTracer.INPUTS; i++) {
+				LatencyTracer.Trace t = mTraces[i];
+				if (t.input != 0 && t.publish == 0) t.publish = now;
+				s.traces[i].set(t);
 			}
+			s.sparkles.set(mSparkles);
+			s.dust.set(mDust);
+			int hint = MazePathfinder.DIR_NONE;
+			if (actLevel == LEVEL2 && mPathfinder != null) {
+				hint = mPathfinder.getDirection((int)(mWorld.mB.x / Maze.TILE_SIZE),
+						(int)((mWorld.mB.y - 1.0f) / Maze.TILE_SIZE));
+			}
+			s.hintX = MazePathfinder.DX[hint];
+			s.hintY = MazePathfinder.DY[hint];
+			// the camera follows the blob
+			if (actLevel == LEVEL2 && myMaze != null)
+				myMaze.fill(s.maze, mWorld.mB.x, mWorld.mB.y - mBallHeight/4.0f, mCanvasWidth, mCanvasHeight);
+			mSnapshots.publish();
 		}
 
 		/**
@@ -387,20 +795,47 @@ class llextView extends SurfaceView implements SurfaceHolder.Callback {
 		public Bundle saveState(Bundle map) {
 			synchronized (mSurfaceHolder) {
 				if (map != null) {
-					map.putInt(KEY_DIFFICULTY, Integer.valueOf(mDifficulty));
-					map.putFloat(KEY_X, Float.valueOf(mB.x));
-					map.putFloat(KEY_Y, Float.valueOf(mB.y));
-					map.putFloat(KEY_DX, Float.valueOf(mD.x));
-					map.putFloat(KEY_DY, Float.valueOf(mD.y));
+					map.putInt(KEY_DIFFICULTY, Integer.valueOf(mWorld.getDifficulty()));
+					map.putFloat(KEY_X, Float.valueOf(mWorld.mB.x));
+					map.putFloat(KEY_Y, Float.valueOf(mWorld.mB.y));
+					map.putFloat(KEY_DX, Float.valueOf(mWorld.mD.x));
+					map.putFloat(KEY_DY, Float.valueOf(mWorld.mD.y));
 					map.putInt(KEY_BALL_WIDTH, Integer.valueOf(mBallWidth));
 					map.putInt(KEY_BALL_HEIGHT, Integer.valueOf(mBallHeight));
-					map.putInt(KEY_DIAMONDS, Integer.valueOf(mDiamonds));
+					map.putInt(KEY_DIAMONDS, Integer.valueOf(mWorld.mDiamonds));
 
 				}
 			}
 			return map;
 		}
 
+		/**
+		 * Switches to the given maze level and starts parsing the one after
+		 * it in the background, so the next switch is instant. Stays on the
+		 * current level if the new one can't be loaded.
+		 * 
+		 * @param level number of the level file
+		 * @return false if the level can't be loaded
+		 */
+		public boolean setMazeLevel(int level) {
+			Maze maze = mLevels.get(level);
+			if (maze == null) {
+				Log.w("LOG", "cannot load maze level " + level);
+				return false;
+			}
+			synchronized (mSurfaceHolder) {
+				myMaze = maze;
+				mMazeLevel = level;
+				mMazePhysics = new MazePhysics(maze);
+				// no hints in mazes too large for a flow field
+				mPathfinder = maze.getCols() * maze.getRows() <= MazePathfinder.MAX_TILES
+						? new MazePathfinder(maze) : null;
+				maze.page(maze.getStartX(), maze.getStartY());
+			}
+			mLevels.prefetch(mLevels.getNextLevel(level));
+			return true;
+		}
+
 		/**
 		 * Sets the current difficulty.
 		 * 
@@ -408,7 +843,7 @@ class llextView extends SurfaceView implements SurfaceHolder.Callback {
 		 */
 		public void setDifficulty(int difficulty) {
 			synchronized (mSurfaceHolder) {
-				mDifficulty = difficulty;
+				mWorld.setDifficulty(difficulty);
 			}
 		}
 
@@ -454,45 +889,48 @@ class llextView extends SurfaceView implements SurfaceHolder.Callback {
 			 * thread, which updates the user-text View.
 			 */
 			synchronized (mSurfaceHolder) {
+				if (mMode == mode) return;
 				mMode = mode;
+				mStateMessage = message;
+				mStateDiamonds = mWorld.mDiamonds;
+				// the effects thread shows the text once the tick is published
+				mEvents.post(GameEvents.STATE, mode, (int) (mPlayTime * 1000.0f));
+			}
+		}
 
-				if (mMode == STATE_RUNNING) {
-					Message msg = mHandler.obtainMessage();
-					Bundle b = new Bundle();
-					b.putString("text", "");
-					b.putInt("viz", View.INVISIBLE);
-					b.putInt("Diamonds", mDiamonds);
-					msg.setData(b);
-					mHandler.sendMessage(msg);                    
-				} else {
-					Resources res = mContext.getResources();
-					CharSequence str = "";
-					if (mMode == STATE_READY)
-						str = res.getText(R.string.mode_ready);
-					else if (mMode == STATE_PAUSE)
-						str = res.getText(R.string.mode_pause);
-					else if (mMode == STATE_LOSE)
-						str = res.getText(R.string.mode_lose);
-					else if (mMode == STATE_WIN) {
-						str = res.getString(R.string.mode_win_prefix)
-						+ mDiamonds + " "
-						+ res.getString(R.string.mode_win_suffix);
-						mDiamonds = 0;
-					}
-					if (message != null) {
-						str = message + "\n" + str;
-					}
-
-					if (mMode == STATE_LOSE) mDiamonds = 0;
-
-					Message msg = mHandler.obtainMessage();
-					Bundle b = new Bundle();
-					b.putString("text", str.toString());
-					b.putInt("viz", View.VISIBLE);
-					msg.setData(b);
-					mHandler.sendMessage(msg);
+		/**
+		 * Relays the text for a new mode to the main thread, from the effects
+		 * thread. The message and diamonds were set with the mode, before the
+		 * tick was published.
+		 */
+		private void showState(int mode) {
+			Message msg = mHandler.obtainMessage();
+			Bundle b = new Bundle();
+			if (mode == STATE_RUNNING) {
+				b.putString("text", "");
+				b.putInt("viz", View.INVISIBLE);
+			} else {
+				Resources res = mContext.getResources();
+				CharSequence str = "";
+				if (mode == STATE_READY)
+					str = res.getText(R.string.mode_ready);
+				else if (mode == STATE_PAUSE)
+					str = res.getText(R.string.mode_pause);
+				else if (mode == STATE_LOSE)
+					str = res.getText(R.string.mode_lose);
+				else if (mode == STATE_WIN) {
+					str = res.getString(R.string.mode_win_prefix)
+					+ mStateDiamonds + " "
+					+ res.getString(R.string.mode_win_suffix);
 				}
+				if (mStateMessage != null) {
+					str = mStateMessage + "\n" + str;
+				}
+				b.putString("text", str.toString());
+				b.putInt("viz", View.VISIBLE);
 			}
+			msg.setData(b);
+			mHandler.sendMessage(msg);
 		}
 
 
@@ -502,13 +940,38 @@ class llextView extends SurfaceView implements SurfaceHolder.Callback {
 			synchronized (mSurfaceHolder) {
 				mCanvasWidth = width;
 				mCanvasHeight = height;
-
-				// don't forget to resize the background image
-				mBackgroundImage = mBackgroundImage.createScaledBitmap(
-						mBackgroundImage, width, height, true);
+				mWorld.setSize(width, height);
+				mRecorder.setSize(width, height);
+
+				// don't forget to resize the layers; their tiles are drawn
+				// 1:1 into the frame, so scale them to the render resolution
+				mBackgroundImage = scaleTile(mBackgroundSource, mRecorder.getBackgroundLayer(),
+						0, width, height);
+
+				// the ground covers the bottom 2*mGHeight pixels
+				float h = 2 * mGHeight;
+				mGroundTile = scaleTile(mGroundSource, mRecorder.getGroundLayer(),
+						height - h, mGroundSource.getWidth() * h / mGHeight, h);
+
+				// the mid strip sits between the craters, 10 pixels below their top
+				h = Math.max(1, mCHeight/2 - 10);
+				mMidTile = scaleTile(mMidSource, mRecorder.getMidLayer(), height - h,
+						mMidSource.getWidth() * h / mMidSource.getHeight(), h);
 			}
 		}
 
+		/**
+		 * Scales a layer image to a tile of w x h screen pixels at render
+		 * resolution and places the layer's tiles at top.
+		 */
+		private Bitmap scaleTile(Bitmap source, ParallaxLayer layer, float top, float w, float h) {
+			float scale = mRenderScale / 100.0f;
+			int pw = Math.max(1, Math.round(w * scale));
+			int ph = Math.max(1, Math.round(h * scale));
+			layer.setTile(top, pw / scale);
+			return Bitmap.createScaledBitmap(source, pw, ph, true);
+		}
+
 		/**
 		 * Resumes from a pause.
 		 */
@@ -534,7 +997,7 @@ class llextView extends SurfaceView implements SurfaceHolder.Callback {
 			} else {
 				switch (action) {
 				case MotionEvent.ACTION_DOWN:
-					doJump();
+					doJump(event.getEventTime() * 1000000L);
 					return true;
 				case MotionEvent.ACTION_UP:
 				case MotionEvent.ACTION_MOVE:
@@ -549,18 +1012,190 @@ class llextView extends SurfaceView implements SurfaceHolder.Callback {
 		}
 
 		public void doJump() {
-			// Jump only, if we are on the ground
-			if (mB.y >= mCanvasHeight) {
-				mD.y=INITIAL_JUMP_SPEED;
-				mJumping = true;
-			}        	
+			doJump(0);
+		}
+
+		/**
+		 * A jump from an input event that happened at eventNanos, on the
+		 * clock of System.nanoTime(); 0 for none, which isn't traced.
+		 */
+		public void doJump(long eventNanos) {
+			mJumpStamp = eventNanos;
+			mJumpInput.set(true);
 		}
 
 		public void doAccelerate(float mTiltAngle2) {
-			mTiltAngle = -mTiltAngle2;        	
+			doAccelerate(mTiltAngle2, 0);
+		}
+
+		public void doAccelerate(float tilt, long eventNanos) {
+			mTiltStamp = eventNanos;
+			mTiltInput = tilt;
+		}
+
+		/**
+		 * Starts the trace of an input the current step applies.
+		 */
+		private void trace(int kind, long eventNanos) {
+			if (eventNanos == 0) return;
+			LatencyTracer.Trace t = mTraces[kind];
+			t.input = eventNanos;
+			t.step = System.nanoTime();
+			t.publish = 0;
+		}
+
+		/**
+		 * Hands the pending input to the world. Called by the simulation
+		 * thread right before a step.
+		 *
+		 * @return true if a jump was requested
+		 */
+		private boolean applyInput(float tilt) {
+			mWorld.accelerate(tilt);
+			long tiltStamp = mTiltStamp;
+			if (tiltStamp != mTraces[LatencyTracer.INPUT_TILT].input)
+				trace(LatencyTracer.INPUT_TILT, tiltStamp);
+			if (mJumpInput.getAndSet(false)) {
+				trace(LatencyTracer.INPUT_JUMP, mJumpStamp);
+				// Jump only, if we are on the ground
+				if (actLevel == LEVEL2) {
+					if (mOnGround) mWorld.mD.y=mWorld.getProfile().jumpSpeed;
+				} else {
+					mWorld.jump();
+				}
+				return true;
+			}
+			return false;
+		}
+
+		/**
+		 * Lets a bot drive the controls, or hands them back to the player
+		 * when bot is null.
+		 */
+		public void setBot(Bot bot) {
+			synchronized (mSurfaceHolder) {
+				mBot = bot;
+			}
+		}
+
+		/**
+		 * Journals game events as they are posted, so none is lost when a
+		 * slow cursor fills the ring. It runs in the middle of a step and
+		 * only appends to the journal's buffer.
+		 */
+		private final GameEvents.Subscriber mRecordEvents = new GameEvents.Subscriber() {
+			public void onEvent(int type, int a, int b) {
+				switch (type) {
+				case GameEvents.PICKUP:
+					mJournal.append(Journal.REC_DIAMOND, a, b, 0.0f, 0.0f);
+					break;
+				case GameEvents.CRATER_HIT:
+					mJournal.append(Journal.REC_ENERGY, 0, b, 0.0f, 0.0f);
+					break;
+				case GameEvents.STATE:
+					if (a == STATE_WIN || a == STATE_LOSE)
+						mJournal.append(Journal.REC_END, 0, a, 0.0f, 0.0f);
+					break;
+				}
+			}
+		};
+
+		/**
+		 * Game events on the simulation thread, at the end of the tick they
+		 * happened in: the journal, telemetry and particles read the world
+		 * as it is now.
+		 */
+		private final GameEvents.Subscriber mTickEvents = new GameEvents.Subscriber() {
+			public void onEvent(int type, int a, int b) {
+				float x = mWorld.mB.x - mWorld.mXDiamond;
+				switch (type) {
+				case GameEvents.PICKUP:
+					mTelemetry.emit(Telemetry.EVENT_DIAMOND, a, b, x);
+					mSparkles.emit(mWorld.mXDiamonds[a], mWorld.mYDiamonds[a], 24, 150.0f, 0.0f, 360.0f);
+					break;
+				case GameEvents.CRATER_HIT:
+					// at most 100 per game, energy only goes down
+					mTelemetry.emit(Telemetry.EVENT_CRATER, a, b, x);
+					// every step in the crater, a few grains each time
+					mDust.emit(x, mWorld.mB.y, 3, 120.0f, -150.0f, -30.0f);
+					break;
+				case GameEvents.STATE:
+					mTelemetry.emit(Telemetry.EVENT_STATE, a, b, x);
+					break;
+				}
+			}
+		};
+
+		/**
+		 * Sound, vibration and the text of a new mode, which go through
+		 * system services and the main thread and have no business on the
+		 * simulation thread. A batch buzzes once, however many crater steps
+		 * it holds, and shows only the mode it ends in.
+		 */
+		private final GameEvents.Subscriber mEffectEvents = new GameEvents.Subscriber() {
+			public void onEvent(int type, int a, int b) {
+				switch (type) {
+				case GameEvents.PICKUP:
+					mSound.play(mSound.SOUND_BLING, 0.5f, 0.5f, 1, 0, 1.0f);
+					break;
+				case GameEvents.CRATER_HIT:
+					mBuzzMs = Math.max(mBuzzMs, BUZZ_MS);
+					break;
+				case GameEvents.ENERGY_DEPLETED:
+					mBuzzMs = Math.max(mBuzzMs, BUZZ_EMPTY_MS);
+					break;
+				case GameEvents.STATE:
+					mShowMode = a;
+					break;
+				}
+			}
+		};
+
+		/** Lights up the diamond count on pickups, on the render thread */
+		private final GameEvents.Subscriber mHudEvents = new GameEvents.Subscriber() {
+			public void onEvent(int type, int a, int b) {
+				if (type == GameEvents.PICKUP) mHudFlashUntil = System.nanoTime() + HUD_FLASH_NS;
+			}
+		};
+
+		/**
+		 * Effects loop: sleeps until the simulation publishes events, then
+		 * plays them.
+		 */
+		private void playEffects() {
+			while (mRun) {
+				mEvents.dispatch(mEffectsCursor, mEffectEvents);
+				if (mBuzzMs > 0) {
+					Vibrator.vibrate(mBuzzMs);
+					mBuzzMs = 0;
+				}
+				if (mShowMode != 0) {
+					showState(mShowMode);
+					mShowMode = 0;
+				}
+				reportGhostError();
+				LockSupport.parkNanos(SIM_TICK_MS * 10 * 1000000L);
+			}
 		}
 
 
+		/**
+		 * Logs a failed ghost race connection and tells the player, once
+		 * per error.
+		 */
+		private void reportGhostError() {
+			GhostClient ghosts = mGhosts;
+			String error = ghosts == null ? null : ghosts.getError();
+			if (error == null || error.equals(mGhostError)) return;
+			mGhostError = error;
+			Log.w("LOG", "ghost race " + mGhostAddress + ": " + error);
+			Message msg = mHandler.obtainMessage();
+			Bundle b = new Bundle();
+			b.putString("notice", "Ghost race: " + error);
+			msg.setData(b);
+			mHandler.sendMessage(msg);
+		}
+
 		/**
 		 * Handles a key-down event.
 		 * 
@@ -569,49 +1204,51 @@ class llextView extends SurfaceView implements SurfaceHolder.Callback {
 		 * @return true
 		 */
 		boolean doKeyDown(int keyCode, KeyEvent msg) {
-			synchronized (mSurfaceHolder) {
-				boolean okStart = false;
-				if (keyCode == KeyEvent.KEYCODE_DPAD_UP) okStart = true;
-				if (keyCode == KeyEvent.KEYCODE_DPAD_DOWN) okStart = true;
-				if (keyCode == KeyEvent.KEYCODE_S) okStart = true;
-				if (keyCode == KeyEvent.KEYCODE_SPACE) okStart = true;
-
-				boolean center = (keyCode == KeyEvent.KEYCODE_DPAD_UP);
-
-				if (okStart
-						&& (mMode == STATE_READY || mMode == STATE_LOSE || mMode == STATE_WIN)) {
-					// ready-to-start -> start
-					doStart();
-					return true;
-				} else if (mMode == STATE_PAUSE && okStart) {
-					// paused -> running
-					unpause();
-					return true;
-				} else if (mMode == STATE_RUNNING) {
-					// center/space -> fire
-					if (keyCode == KeyEvent.KEYCODE_DPAD_CENTER
-							|| keyCode == KeyEvent.KEYCODE_SPACE) {
-						doJump();
-						return true;
-						// left/q -> left
-					} else if (keyCode == KeyEvent.KEYCODE_DPAD_LEFT
-							|| keyCode == KeyEvent.KEYCODE_Q) {
-						doAccelerate(-6);
-						return true;
-						// right/w -> right
-					} else if (keyCode == KeyEvent.KEYCODE_DPAD_RIGHT
-							|| keyCode == KeyEvent.KEYCODE_W) {
-						doAccelerate(6);
+			boolean okStart = false;
+			if (keyCode == KeyEvent.KEYCODE_DPAD_UP) okStart = true;
+			if (keyCode == KeyEvent.KEYCODE_DPAD_DOWN) okStart = true;
+			if (keyCode == KeyEvent.KEYCODE_S) okStart = true;
+			if (keyCode == KeyEvent.KEYCODE_SPACE) okStart = true;
+
+			// only changing the mode waits for the simulation, the controls don't
+			if (okStart && mMode != STATE_RUNNING) {
+				synchronized (mSurfaceHolder) {
+					if (mMode == STATE_READY || mMode == STATE_LOSE || mMode == STATE_WIN) {
+						// ready-to-start -> start
+						doStart();
 						return true;
-						// up -> pause
-					} else if (keyCode == KeyEvent.KEYCODE_DPAD_UP) {
-						doJump();
+					} else if (mMode == STATE_PAUSE) {
+						// paused -> running
+						unpause();
 						return true;
 					}
 				}
+			}
 
-				return false;
+			if (mMode == STATE_RUNNING) {
+				// center/space -> fire
+				if (keyCode == KeyEvent.KEYCODE_DPAD_CENTER
+						|| keyCode == KeyEvent.KEYCODE_SPACE) {
+					doJump(msg.getEventTime() * 1000000L);
+					return true;
+					// left/q -> left
+				} else if (keyCode == KeyEvent.KEYCODE_DPAD_LEFT
+						|| keyCode == KeyEvent.KEYCODE_Q) {
+					doAccelerate(-6, msg.getEventTime() * 1000000L);
+					return true;
+					// right/w -> right
+				} else if (keyCode == KeyEvent.KEYCODE_DPAD_RIGHT
+						|| keyCode == KeyEvent.KEYCODE_W) {
+					doAccelerate(6, msg.getEventTime() * 1000000L);
+					return true;
+					// up -> pause
+				} else if (keyCode == KeyEvent.KEYCODE_DPAD_UP) {
+					doJump(msg.getEventTime() * 1000000L);
+					return true;
+				}
 			}
+
+			return false;
 		}
 
 		/**
@@ -624,19 +1261,17 @@ class llextView extends SurfaceView implements SurfaceHolder.Callback {
 		boolean doKeyUp(int keyCode, KeyEvent msg) {
 			boolean handled = false;
 
-			synchronized (mSurfaceHolder) {
-				if (mMode == STATE_RUNNING) {
-					if (keyCode == KeyEvent.KEYCODE_DPAD_CENTER
-							|| keyCode == KeyEvent.KEYCODE_SPACE) {
-						//setFiring(false);
-						handled = true;
-					} else if (keyCode == KeyEvent.KEYCODE_DPAD_LEFT
-							|| keyCode == KeyEvent.KEYCODE_Q
-							|| keyCode == KeyEvent.KEYCODE_DPAD_RIGHT
-							|| keyCode == KeyEvent.KEYCODE_W) {
-						doAccelerate(0);
-						handled = true;
-					}
+			if (mMode == STATE_RUNNING) {
+				if (keyCode == KeyEvent.KEYCODE_DPAD_CENTER
+						|| keyCode == KeyEvent.KEYCODE_SPACE) {
+					//setFiring(false);
+					handled = true;
+				} else if (keyCode == KeyEvent.KEYCODE_DPAD_LEFT
+						|| keyCode == KeyEvent.KEYCODE_Q
+						|| keyCode == KeyEvent.KEYCODE_DPAD_RIGHT
+						|| keyCode == KeyEvent.KEYCODE_W) {
+					doAccelerate(0, msg.getEventTime() * 1000000L);
+					handled = true;
 				}
 			}
 
@@ -644,97 +1279,24 @@ class llextView extends SurfaceView implements SurfaceHolder.Callback {
 		}
 
 		/**
-		 * Draws the ball and diamonds to the provided Canvas.
+		 * Records the level of the snapshot into list and the texts and
+		 * energy bar into hud, through mRecorder, plus the latency overlay.
 		 */
-		private void doDraw(Canvas canvas) {
-
+		private void doDraw(DrawList list, DrawList hud, RenderSnapshot s) {
 			switch (actLevel) {
 			case LEVEL1:
-
-				// Draw the background image. Operations on the Canvas accumulate
-				// so this is like clearing the screen.
-				canvas.drawBitmap(mBackgroundImage, 0, 0, null); 
-				String txt = new String("Diamanten: "+Integer.toString(mDiamonds));
-				canvas.drawText(txt, 5, 20, mLinePaint);
-
-				String time = new String("Zeit: " + Long.toString(System.currentTimeMillis()));
-				canvas.drawText(time, 5, 40, mLinePaint);
-				canvas.save();            
-				mGroundImage.setBounds((int)(mXDiamond/3-100), (int)(mCanvasHeight-2*mGHeight),
-						(int)(mXDiamond/3+3*mCanvasWidth), (int)(mCanvasHeight));
-				mGroundImage.draw(canvas);
-
-				if (mXDiamond+mLWidth+10 > 0) {
-					mLanderImage.setBounds((int)(10+mXDiamond-mLWidth),mCanvasHeight-mLHeight, (int)(10+mXDiamond), mCanvasHeight);
-					mLanderImage.draw(canvas);	
-				}
-				for (int i=0;i<NUMBER_OF_CRATERS;i++) {
-					int left = (int)(mXCrater[i]+mXDiamond-mCWidth/3);
-					int right =(int)(mXCrater[i]+mXDiamond+mCWidth/3);
-					int top = (int)(mCanvasHeight-mCHeight/2);
-					int bottom = (int)(mCanvasHeight);
-
-					if (i<NUMBER_OF_CRATERS-1) {
-						int leftm = (int)(mXCrater[i]+mXDiamond);
-						int rightm = (int)(mXCrater[i+1]+mXDiamond-mCWidth/3);
-						mMidImage.setBounds(leftm, top+10, rightm, bottom);
-						mMidImage.draw(canvas);
-					}	
-					if (left+mCWidth>0 && right-mCWidth<mCanvasWidth) {
-						mCraterImage.setBounds(left, top, right, bottom);
-						mCraterImage.draw(canvas);
-					}
-				}
-
-				for (int i=0;i<NUMBER_OF_DIAMONDS;i++) {
-					if (mDiamondsViz[i] == true) {
-						int left = (int)(mXDiamonds[i]+mXDiamond-mDWidth/2);
-						int right =(int)(mXDiamonds[i]+mXDiamond+mDWidth/2);
-						int top = (int)(mYDiamonds[i]-mDHeight/2);
-						int bottom = (int)(mYDiamonds[i]+mDHeight/2);
-						if (left+mDWidth>0 && right-mDWidth<mCanvasWidth) {
-							mDiamondImage.setBounds(left, top, right, bottom);
-							mDiamondImage.draw(canvas);
-						}
-					}
-				}
-				drawEnergy(canvas);
-
-				canvas.rotate(mHeading, mB.x, mB.y-mBallHeight/4.0f);
-				// Draw Blob on his location      
-				mBallImage.setBounds((int)(mB.x-mBallWidth/4.0f),(int)(mB.y-mBallHeight/2.0f),
-						(int)(mB.x+mBallWidth/4.0f), (int)mB.y);
-				mBallImage.draw(canvas);
-
-				canvas.restore();   
+				mRecorder.recordSurface(list, hud, s, System.nanoTime() < mHudFlashUntil, mGhosts);
 				break;
-
 			case LEVEL2:
-
-				myMaze.draw(canvas, mLinePaint, 0,0);
-
+				mRecorder.recordMaze(list, s);
 			}
-		}
 
-		/**
-		 * Draws the energy Bar
-		 */
-		private void drawEnergy(Canvas canvas) {
-			// See what fraction of energy we're having.
-			float fuelFrac = (float) mRemEnergy / (float)mTotalEnergy;
-
-			// Work out what colour to draw the fuel bar in.
-			float [] scratchHsv = new float[3];
-			scratchHsv[0] = fuelFrac * 120f;
-			scratchHsv[1] = 1f;
-			scratchHsv[2] = 1f;
-			int fuelCol = Color.HSVToColor(scratchHsv);
-
-			// Draw the fuel bar.
-			mLinePaint.setColor(fuelCol);
-			float w = (float) gaugeWidth * fuelFrac;
-			canvas.drawRect(mCanvasWidth-150, 5, mCanvasWidth-150 + w, 25, mLinePaint);  
-			mLinePaint.setARGB(255, 0, 255, 0);
+			if (mLatencyOverlay) {
+				for (int i = 0; i < LatencyTracer.INPUTS; i++) {
+					if (mLatencyLines[i] != null)
+						hud.text(FrameRecorder.HUD_COLOR, mLatencyLines[i], 5, mCanvasHeight - 10 - 20 * (LatencyTracer.INPUTS - 1 - i));
+				}
+			}
 		}
 
 		/**
@@ -751,119 +1313,156 @@ class llextView extends SurfaceView implements SurfaceHolder.Callback {
 			if (mLastTime > now) return;
 
 			float elapsed = (now - mLastTime) / 1000.0f;
+			// after a hiccup, rather slow down than jump through everything
+			if (elapsed > RunLog.MAX_ELAPSED) elapsed = RunLog.MAX_ELAPSED;
+
+			if (mBot != null) mBot.think(mWorld, elapsed, this);
+			float tilt = mTiltInput;
+			boolean jump = applyInput(tilt);
+			mPlayTime += elapsed;
+
+			if (actLevel == LEVEL2) {
+				updateMazePhysics(elapsed);
+				mLastTime = now;
+				return;
+			}
 
-			// Base accelerations -- 0 for x, gravity for y
-			float ddx = PHYS_DOWN_ACCEL_SEC * PHYS_ACCEL_FACTOR_X * elapsed * FloatMath.sin(PI*mTiltAngle/180.0f) * PHYS_ACCEL_FACTOR_X/2.0f;
-			float ddy = PHYS_DOWN_ACCEL_SEC * (SensorManager.GRAVITY_MOON / 1.6f) * elapsed;
-
-
-			if (mJumping) {
-				// taking 0 as up, 90 as to the right
-				// cos(deg) is ddy component, sin(deg) is ddx component
+			int result = mWorld.step(elapsed);
+			if (mRecording && (mWorld.getProfile() != mRunLog.getProfile()
+					|| !mRunLog.step(elapsed, tilt, jump))) mRecording = false;
+			mSparkles.update(elapsed);
+			mDust.update(elapsed);
+			mLastTime = now;
 
-				// have this much acceleration from the jump
-				float accel = PHYS_FIRE_ACCEL_SEC * 1010.0f;
+			GhostClient ghosts = mGhosts;
+			if (ghosts != null)
+				ghosts.setState(mWorld.mB.x - mWorld.mXDiamond, mWorld.mB.y, mWorld.mTiltAngle);
 
-				float radians = 2.0f * PI * 0.0f / 360.0f;
-				//ddx = Math.sin(radians) * accel;
-				//ddy += Math.cos(radians) * accel;
-				mJumping = false;
+			if (now - mLastCheckpoint >= CHECKPOINT_INTERVAL_MS) {
+				mJournal.append(Journal.REC_CHECKPOINT, 0, (int)mWorld.mB.x, mWorld.mXDiamond, mWorld.mB.y);
+				mLastCheckpoint = now;
 			}
 
-			float dxOld = mD.x;
-			float dyOld = mD.y;
-
-			// figure speeds for the end of the period
-			mD.x += ddx;
-			if (mD.x > PHYS_SPEED_MAX) {
-				mD.x = PHYS_SPEED_MAX;
-			} else if (mD.x < -PHYS_SPEED_MAX) {
-				mD.x = -PHYS_SPEED_MAX;
+			if (result != World.RESULT_RUNNING && mRecording) {
+				mRunLog.finish(mWorld.getDiamonds(), result);
+				saveRun();
+				mRecording = false;
 			}
 
-			mD.y += ddy;
+			int diamonds = mWorld.getDiamonds();
+			if (result == World.RESULT_WIN)
+				setState(STATE_WIN, "");
+			else if (result == World.RESULT_LOSE)
+				setState(STATE_LOSE, "Schade !!!!");
+			else
+				setState(STATE_RUNNING, "Schade !!!!");
+			if (result != World.RESULT_RUNNING) submitScore(diamonds);
 
-			// figure position based on average speed during the period
-			mXDiamond += elapsed * (mD.x + dxOld) / 2.0f;
-			mB.y += elapsed * (mD.y + dyOld) / 2.0f;
-			if (mXDiamond > 150.0f) {
-				mXDiamond = 150.0f;
-				mD.x = 0.0f;
-			}
-			if (mXDiamond < -4*mCanvasWidth) {
-				mXDiamond = -4*mCanvasWidth;
-				mD.x = 0.0f;
-			}
-			if (mB.y<0.0f) {
-				mB.y = 0.0f;
-			} else {
-				if (mB.y>=mCanvasHeight) {
-					mB.y = mCanvasHeight;
-				}
-			}
-			mHeading = mXDiamond / 223.0f;
-			mHeading = 360.0f-(mHeading - FloatMath.floor(mHeading))*360.0f;
-			mLastTime = now;
+		}
 
-			// Move Diamonds
-			for (int i=0; i< NUMBER_OF_DIAMONDS;i++) {
-				mYDiamonds[i] += elapsed * (mDiamondsSpeed[i]);
-				if (mYDiamonds[i]>mCanvasHeight-10) {
-					mDiamondsSpeed[i]*=-1;
-				} else if (mYDiamonds[i] < 10) {
-					mDiamondsSpeed[i]*=-1;
-				}
+		/**
+		 * Writes the finished run to RUN_FILE, off the simulation thread.
+		 */
+		private void saveRun() {
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+					64 + mRunLog.getSteps() * 9);
+			try {
+				mRunLog.write(bytes);
+			} catch (IOException e) {
+				return;
 			}
-			// Evaluate if we have touched a Diamond ... Count
-			// or if we touch a Crater - Stop       
-			mScratchRect.set(mBallImage.getBounds());
-			CharSequence message = "";
-			//Resources res = mContext.getResources();
-			int result = STATE_LOSE;
-			if (mDiamonds<NUMBER_OF_DIAMONDS) {
-				result = STATE_RUNNING;
-				for (int i=0;i<NUMBER_OF_DIAMONDS;i++) {
-					if (mScratchRect.contains((float)(mXDiamonds[i]+mXDiamond), (float)mYDiamonds[i]) && mDiamondsViz[i]==true) {
-						mDiamonds++;            		
-						mDiamondsViz[i]=false;
-
-						// play sound
-						mSound.play(mSound.SOUND_BLING, 0.5f, 0.5f, 1, 0, 1.0f);
-					}
-				}
-
-				// touch Crater
-				for (int i=0;i<NUMBER_OF_CRATERS;i++) {
-					if (mScratchRect.contains((float)(mXCrater[i]+mXDiamond-mCWidth/3.0f), (float)mCanvasHeight-10.0f)
-							|| mScratchRect.contains((float)(mXCrater[i]+mXDiamond+mCWidth/3.0f), (float)mCanvasHeight-10.0f)) {
-						mD.x*=0.5f;
-						mD.y=-150.0f;
-					}
-
-					// zaehlt nur runter, wenn man in der Mitte des Kraters ist.
-					if (mScratchRect.left > (float)(mXCrater[i]+mXDiamond)-mCWidth/3 && 
-							mScratchRect.right < (float)(mXCrater[i]+mXDiamond+mCWidth/3)
-							&& mScratchRect.bottom > mCanvasHeight-mCHeight/2) {
-						mRemEnergy--;
-						Vibrator.vibrate(100);
-						if (mRemEnergy <=0) {
-							mRemEnergy = 0;
-							result = STATE_LOSE;
+			final File file = new File(mContext.getFilesDir(), RUN_FILE);
+			new Thread(new Runnable() {
+				public void run() {
+					try {
+						FileOutputStream out = new FileOutputStream(file);
+						try {
+							bytes.writeTo(out);
+						} finally {
+							out.close();
 						}
+					} catch (IOException e) {
+						Log.w("LOG", "saving run failed: " + e);
 					}
 				}
+			}, "RunLog").start();
+		}
 
-				message = "Schade !!!!";
-				//setDiamondsText(message);
-			} else {
-				result = STATE_WIN;
+		/**
+		 * Moves the blob through the maze. Tilt and gravity work as on the
+		 * moon surface, but the blob is stopped by VOID_TILEs and wins when
+		 * it reaches an EXIT_TILE.
+		 */
+		private void updateMazePhysics(float elapsed) {
+			PhysicsProfile p = mWorld.getProfile();
+			float ddx = World.PHYS_DOWN_ACCEL_SEC * World.PHYS_ACCEL_FACTOR_X * elapsed * FastMath.sinDeg(mWorld.mTiltAngle) * World.PHYS_ACCEL_FACTOR_X/2.0f;
+			float ddy = p.gravity * elapsed;
+
+			float dxOld = mWorld.mD.x;
+			float dyOld = mWorld.mD.y;
+
+			mWorld.mD.x += ddx;
+			if (mWorld.mD.x > p.speedMax) {
+				mWorld.mD.x = p.speedMax;
+			} else if (mWorld.mD.x < -p.speedMax) {
+				mWorld.mD.x = -p.speedMax;
+			}
+			mWorld.mD.y += ddy;
+
+			// the blob is drawn half its image size, bottom centered on mB
+			float w = mBallWidth / 2.0f;
+			float h = mBallHeight / 2.0f;
+			int hits = mMazePhysics.move(mWorld.mB.x - w / 2.0f, mWorld.mB.y - h, w, h,
+					elapsed * (mWorld.mD.x + dxOld) / 2.0f, elapsed * (mWorld.mD.y + dyOld) / 2.0f);
+			mWorld.mB.set(mMazePhysics.x + w / 2.0f, mMazePhysics.y + h);
+			// loads what the camera will see next, when the blob enters another chunk
+			myMaze.page(mWorld.mB.x, mWorld.mB.y);
+
+			if ((hits & (MazePhysics.HIT_LEFT | MazePhysics.HIT_RIGHT)) != 0)
+				mWorld.mD.x = 0.0f;
+			if ((hits & (MazePhysics.HIT_TOP | MazePhysics.HIT_BOTTOM)) != 0)
+				mWorld.mD.y = 0.0f;
+			mOnGround = (hits & MazePhysics.HIT_BOTTOM) != 0;
+
+			if (mMazePhysics.onExit) {
+				setState(STATE_WIN, "");
+				submitScore(0);
 			}
-			setState(result, message);
+		}
 
+		/**
+		 * Files the finished game in the leaderboard of the current level,
+		 * difficulty and planet on the leaderboard thread. The place reached
+		 * is put in front of the text the status view shows when it arrives.
+		 */
+		private void submitScore(final int score) {
+			PhysicsProfile profile = mWorld.getProfile();
+			final int level = actLevel;
+			final int difficulty = profile.difficulty;
+			final int planet = profile.planet;
+			final String name = mPlayerName;
+			final int millis = (int) (mPlayTime * 1000.0f);
+			mScores.execute(new Runnable() {
+				public void run() {
+					Leaderboard leaderboard = mLeaderboard;
+					if (leaderboard == null) return;
+					try {
+						int rank = leaderboard.submit(level, difficulty, planet, name, score, millis);
+						if (rank < 0) return;
+						Message msg = mHandler.obtainMessage();
+						Bundle b = new Bundle();
+						b.putString("place", "Platz " + (rank + 1));
+						msg.setData(b);
+						mHandler.sendMessage(msg);
+					} catch (IOException e) {
+						Log.w("LOG", "leaderboard: " + e);
+					}
+				}
+			});
 		}
+
 		public void onSensorChanged(int sensor, float[] values) {
 			synchronized (this) {
-				Log.d("LOG", "onSensorChanged: " + sensor + ", x: " + values[0] + ", y: " + values[1] + ", z: " + values[2]);
 				if (sensor != SensorManager.SENSOR_ACCELEROMETER || values.length < 3.0f)
 					return;                    
 
@@ -877,14 +1476,14 @@ class llextView extends SurfaceView implements SurfaceHolder.Callback {
 					y = values[1];
 					z = values[2];
 				}
-				float m = FloatMath.sqrt(x*x + y*y + z*z);
-				float tilt = m == 0.0f ? 0.0f  : (float) Math.toDegrees(Math.asin(x / m));
-				Log.v("LOG", "tilt: " + x + "," + y + "," + z + " -> " + tilt);
+				float m = FastMath.sqrt(x*x + y*y + z*z);
+				float tilt = m == 0.0f ? 0.0f  : FastMath.asinDeg(x / m);
 
 				// Amplify the user's movements.
 				tilt *= 1.0f;        
 				float mTiltAngle = tilt < 0.0f ? tilt + 360.0f : tilt;           	
-				doAccelerate(mTiltAngle);          
+				// the old sensor API has no event times
+				doAccelerate(mTiltAngle, System.nanoTime());
 			}
 		}
 
@@ -894,6 +1493,9 @@ class llextView extends SurfaceView implements SurfaceHolder.Callback {
 		}
 	}
 
+	/** Entries kept per leaderboard list, plenty for a kiosk */
+	public static final int LEADERBOARD_CAPACITY = 100000;
+
 	/** Handle to the application context, used to e.g. fetch Drawables. */
 	private Context mContext;
 
@@ -906,6 +1508,30 @@ class llextView extends SurfaceView implements SurfaceHolder.Callback {
 	/** The thread that actually draws the animation */
 	private LunarThread thread;
 
+	/** Autosave journal, outlives the thread when the surface is recreated */
+	private Journal mJournal;
+
+	/** Parsed maze levels, shared by all threads of this view */
+	private LevelRepository mLevels;
+
+	/** Local high scores, outlives the thread like the journal; null until loaded */
+	private volatile Leaderboard mLeaderboard;
+
+	/** Loads the leaderboard, then files scores into it, off the game threads */
+	private final ExecutorService mScores = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "Leaderboard");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	/** Gameplay events for later analysis, written in the background */
+	private Telemetry mTelemetry;
+
+	/** Input latency statistics, collected over all threads of this view */
+	private LatencyTracer mLatency = new LatencyTracer();
+
 	public llextView(Context context, AttributeSet attrs) {
 		super(context, attrs);
 
@@ -913,19 +1539,74 @@ class llextView extends SurfaceView implements SurfaceHolder.Callback {
 		SurfaceHolder holder = getHolder();
 		holder.addCallback(this);
 
+		mJournal = new Journal(context.getFilesDir(),
+				World.NUMBER_OF_DIAMONDS, World.NUMBER_OF_CRATERS);
+		mJournal.start();
+
+		mTelemetry = new Telemetry(new File(context.getFilesDir(), Telemetry.DIR));
+		mTelemetry.start();
+
+		// indexing every score takes a while; scores submitted meanwhile wait
+		final File scores = new File(context.getFilesDir(), Leaderboard.FILE);
+		mScores.execute(new Runnable() {
+			public void run() {
+				try {
+					mLeaderboard = new Leaderboard(scores, LEADERBOARD_CAPACITY);
+				} catch (IOException e) {
+					Log.w("LOG", "cannot open leaderboard: " + e);
+				}
+			}
+		});
+
+		mLevels = new LevelRepository(context.getAssets(), context.getCacheDir(),
+				LevelRepository.DEFAULT_BUDGET);
+
 		// create thread only; it's started in surfaceCreated()
 		thread = new LunarThread(holder, context, new Handler() {
 			@Override
 			public void handleMessage(Message m) {
+				String notice = m.getData().getString("notice");
+				if (notice != null) {
+					Toast.makeText(getContext(), notice, Toast.LENGTH_LONG).show();
+					return;
+				}
+				String place = m.getData().getString("place");
+				if (place != null) {
+					mStatusText.setText(place + "\n" + mStatusText.getText());
+					return;
+				}
 				mStatusText.setVisibility(m.getData().getInt("viz"));
 				mStatusText.setText(m.getData().getString("text"));
-				mDiamondsText.setText(m.getData().getString("Diamonds"));
 			}
 		});
 
 		setFocusable(true); // make sure we get key events
 	}
 
+	/**
+	 * Stops the background threads of this view: the journal and telemetry
+	 * writers, the level loader and the leaderboard, after the scores still
+	 * queued for it. Called from the Activity's onDestroy(), when the
+	 * surface and its thread are gone.
+	 */
+	public void release() {
+		mJournal.stop();
+		mTelemetry.stop();
+		mLevels.close();
+		mScores.execute(new Runnable() {
+			public void run() {
+				Leaderboard leaderboard = mLeaderboard;
+				if (leaderboard == null) return;
+				try {
+					leaderboard.close();
+				} catch (IOException e) {
+					Log.w("LOG", "cannot close leaderboard: " + e);
+				}
+			}
+		});
+		mScores.shutdown();
+	}
+
 	/**
 	 * Fetches the animation thread corresponding to this LunarView.
 	 * 
@@ -0,0 +1,241 @@
+package de.droidgames.lunarlanderextended.tools;
+
+import java.util.Random;
+
+import de.droidgames.lunarlanderextended.Bot;
+import de.droidgames.lunarlanderextended.DrawList;
+import de.droidgames.lunarlanderextended.FrameRecorder;
+import de.droidgames.lunarlanderextended.GameEvents;
+import de.droidgames.lunarlanderextended.GreedyBot;
+import de.droidgames.lunarlanderextended.HudText;
+import de.droidgames.lunarlanderextended.LevelFormat;
+import de.droidgames.lunarlanderextended.MazeChunks;
+import de.droidgames.lunarlanderextended.MazePhysics;
+import de.droidgames.lunarlanderextended.MazeWindow;
+import de.droidgames.lunarlanderextended.ParticleSystem;
+import de.droidgames.lunarlanderextended.RenderSnapshot;
+import de.droidgames.lunarlanderextended.World;
+
+/**
+ * Records frames of both levels headless, through the FrameRecorder the game
+ * draws with, and checks the draw commands of every frame against a budget
+ * per opcode. Prints the most and average commands per frame and exits with
+ * 1 if any frame was over budget, e.g. because culling broke and the whole
+ * maze or every crater got recorded.
+ *
+ * On the moon surface GreedyBot plays, like in SelfPlay. In the maze a blob
+ * flies through a generated maze with MazePhysics, as in MazePhysicsBench,
+ * and the camera follows it.
+ *
+ *   javac -d out src/de/droidgames/lunarlanderextended/{World,Vector2,FastMath,Fixed,ParallelUpdater,PhysicsProfile,GameEvents,Bot,GreedyBot}.java \
+ *       src/de/droidgames/lunarlanderextended/{DrawList,FrameRecorder,RenderSnapshot,ParticleSystem,ParallaxLayer,HudText,GhostClient,GhostProtocol}.java \
+ *       src/de/droidgames/lunarlanderextended/{LatencyTracer,MazeWindow,MazeChunks,MazePhysics,LevelFormat}.java \
+ *       tools/src/de/droidgames/lunarlanderextended/tools/{MazeGenerator,DrawBudget}.java
+ *   java -cp out de.droidgames.lunarlanderextended.tools.DrawBudget [frames]
+ */
+public class DrawBudget {
+	/** A typical portrait screen */
+	public static final int SCREEN_WIDTH = 320;
+	public static final int SCREEN_HEIGHT = 480;
+
+	/** Sizes of the images in res/drawable */
+	private static final int[][] SPRITES = {
+		{ FrameRecorder.SPRITE_BALL, 71, 71 },
+		{ FrameRecorder.SPRITE_DIAMOND, 14, 16 },
+		{ FrameRecorder.SPRITE_LANDER, 75, 90 },
+		{ FrameRecorder.SPRITE_CRATER, 149, 56 },
+	};
+	private static final int BACKGROUND_WIDTH = 320;
+	private static final int GROUND_WIDTH = 320;
+	private static final int GROUND_HEIGHT = 71;
+	private static final int MID_WIDTH = 20;
+	private static final int MID_HEIGHT = 40;
+
+	/** One frame per physics step at 60 fps */
+	private static final float STEP = 1.0f / 60.0f;
+
+	/** Tiles per side of the generated maze */
+	private static final int MAZE_TILES = 1024;
+
+	/**
+	 * Most commands of each opcode in a frame of the moon surface, at
+	 * SCREEN_WIDTH: a few parallax tiles, the craters and diamonds on the
+	 * screen, a batch of points per alpha band of the two particle systems.
+	 */
+	private static final int[] SURFACE_BUDGET = new int[DrawList.OP_COUNT];
+	/**
+	 * Most commands of each opcode in a frame of the maze: a rect per run
+	 * of equal tiles in the rows on the screen, twice what rooms of
+	 * MazeGenerator.DEFAULT_ROOM tiles need, the blob and the hint.
+	 */
+	private static final int[] MAZE_BUDGET = new int[DrawList.OP_COUNT];
+	static {
+		SURFACE_BUDGET[DrawList.OP_BITMAP] = 48;
+		SURFACE_BUDGET[DrawList.OP_SPRITE] = 16;
+		SURFACE_BUDGET[DrawList.OP_RECT] = 1;
+		SURFACE_BUDGET[DrawList.OP_GLYPH] = 16;
+		SURFACE_BUDGET[DrawList.OP_SAVE] = 8;
+		SURFACE_BUDGET[DrawList.OP_RESTORE] = 8;
+		SURFACE_BUDGET[DrawList.OP_ROTATE] = 1;
+		SURFACE_BUDGET[DrawList.OP_CLIP] = 7;
+		SURFACE_BUDGET[DrawList.OP_POINTS] = 8;
+
+		MAZE_BUDGET[DrawList.OP_RECT] = 2 * (SCREEN_HEIGHT / LevelFormat.TILE_SIZE + 1)
+				* (SCREEN_WIDTH / LevelFormat.TILE_SIZE / 4 + 1);
+		MAZE_BUDGET[DrawList.OP_SPRITE] = 1;
+		MAZE_BUDGET[DrawList.OP_LINE] = 1;
+	}
+
+	public static void main(String[] args) {
+		int frames = args.length > 0 ? Integer.parseInt(args[0]) : 3600;
+
+		HudText text = new HudText(new String[] { "Diamanten: ", "Zeit: " });
+		// about what GlyphAtlas measures at 20px
+		for (int i = 0; i < text.size(); i++)
+			text.setAdvance(i, 11.0f * text.getGlyph(i).length());
+		FrameRecorder recorder = new FrameRecorder(text);
+		for (int[] sprite : SPRITES)
+			recorder.setSpriteSize(sprite[0], sprite[1], sprite[2]);
+		recorder.setSize(SCREEN_WIDTH, SCREEN_HEIGHT);
+		// as LunarThread.setSurfaceSize() scales the tiles
+		recorder.getBackgroundLayer().setTile(0, BACKGROUND_WIDTH);
+		recorder.getGroundLayer().setTile(SCREEN_HEIGHT - 2 * GROUND_HEIGHT, 2 * GROUND_WIDTH);
+		float mid = Math.max(1, SPRITES[3][2] / 2 - 10);
+		recorder.getMidLayer().setTile(SCREEN_HEIGHT - mid, MID_WIDTH * mid / MID_HEIGHT);
+
+		boolean ok = check("surface", surface(recorder, frames), frames, SURFACE_BUDGET);
+		ok &= check("maze", maze(recorder, frames), frames, MAZE_BUDGET);
+		if (!ok) System.exit(1);
+	}
+
+	/**
+	 * Plays games until frames are recorded; returns the most and the total
+	 * commands of each opcode, and the frames over budget.
+	 */
+	private static long[][] surface(FrameRecorder recorder, int frames) {
+		final World world = new World(SPRITES[0][1], SPRITES[0][2], SPRITES[3][1], SPRITES[3][2]);
+		GameEvents events = new GameEvents();
+		GameEvents.Cursor cursor = events.subscribe();
+		world.setEvents(events);
+		world.setSize(SCREEN_WIDTH, SCREEN_HEIGHT);
+		Bot bot = new GreedyBot();
+		Bot.Controls controls = new Bot.Controls() {
+			public void doAccelerate(float tiltAngle) {
+				world.accelerate(tiltAngle);
+			}
+
+			public void doJump() {
+				world.jump();
+			}
+		};
+
+		// as in LunarThread, emitted wherever; only the batches count
+		final ParticleSystem sparkles = new ParticleSystem(512, 0xFFFFFF60, 3, 200.0f, 0.6f);
+		final ParticleSystem dust = new ParticleSystem(512, 0xFFB0A890, 2, 300.0f, 0.4f);
+		GameEvents.Subscriber particles = new GameEvents.Subscriber() {
+			public void onEvent(int type, int a, int b) {
+				if (type == GameEvents.PICKUP)
+					sparkles.emit(SCREEN_WIDTH / 2, SCREEN_HEIGHT / 2, 24, 150.0f, 0.0f, 360.0f);
+				else if (type == GameEvents.CRATER_HIT)
+					dust.emit(SCREEN_WIDTH / 2, SCREEN_HEIGHT - 20, 3, 120.0f, -150.0f, -30.0f);
+			}
+		};
+		RenderSnapshot s = new RenderSnapshot(sparkles, dust);
+
+		long[][] counts = new long[3][DrawList.OP_COUNT];
+		DrawList list = new DrawList();
+		DrawList hud = new DrawList();
+		long seed = 1;
+		world.start(new Random(seed));
+		for (int f = 0; f < frames; f++) {
+			bot.think(world, STEP, controls);
+			if (world.step(STEP) != World.RESULT_RUNNING) world.start(new Random(++seed));
+			events.publish();
+			events.dispatch(cursor, particles);
+			sparkles.update(STEP);
+			dust.update(STEP);
+
+			s.set(world);
+			s.sparkles.set(sparkles);
+			s.dust.set(dust);
+			list.reset();
+			hud.reset();
+			recorder.recordSurface(list, hud, s, false, null);
+			count(counts, SURFACE_BUDGET, list, hud);
+		}
+		return counts;
+	}
+
+	/**
+	 * Flies a blob through a maze until frames are recorded, see surface().
+	 */
+	private static long[][] maze(FrameRecorder recorder, int frames) {
+		int tiles = MAZE_TILES;
+		int size = tiles * LevelFormat.TILE_SIZE;
+		MazeChunks chunks = new MazeChunks(tiles, tiles, LevelFormat.CHUNK_SIZE,
+				MazeChunks.DEFAULT_VIEW_RADIUS, new MazeGenerator(tiles, tiles, MazeGenerator.DEFAULT_ROOM, 1));
+		MazePhysics physics = new MazePhysics(chunks);
+		float blob = (LevelFormat.BLOB_TILES - 1) * LevelFormat.TILE_SIZE;
+		RenderSnapshot s = new RenderSnapshot(new ParticleSystem(1, 0, 1, 0.0f, 1.0f),
+				new ParticleSystem(1, 0, 1, 0.0f, 1.0f));
+
+		long[][] counts = new long[3][DrawList.OP_COUNT];
+		DrawList list = new DrawList();
+		DrawList hud = new DrawList();
+		Random random = new Random(1);
+		float x = LevelFormat.TILE_SIZE + 1;
+		float y = LevelFormat.TILE_SIZE + 1;
+		float dx = 0.0f;
+		float dy = 0.0f;
+		for (int f = 0; f < frames; f++) {
+			if (physics.move(x, y, blob, blob, dx, dy) != MazePhysics.HIT_NONE || f == 0) {
+				dx = (random.nextFloat() * 2.0f - 1.0f) * LevelFormat.TILE_SIZE;
+				dy = (random.nextFloat() * 2.0f - 1.0f) * LevelFormat.TILE_SIZE;
+			}
+			x = physics.x;
+			y = physics.y;
+			chunks.page((int) x / LevelFormat.TILE_SIZE, (int) y / LevelFormat.TILE_SIZE);
+
+			// bottom centered like the blob of the game
+			float bx = x + blob / 2.0f;
+			float by = y + blob;
+			s.setBlob(bx, by);
+			s.maze.fill(chunks, MazeWindow.camera(bx, SCREEN_WIDTH, size),
+					MazeWindow.camera(by, SCREEN_HEIGHT, size), SCREEN_WIDTH, SCREEN_HEIGHT);
+			list.reset();
+			hud.reset();
+			recorder.recordMaze(list, s);
+			count(counts, MAZE_BUDGET, list, hud);
+		}
+		return counts;
+	}
+
+	/**
+	 * Adds the commands of a frame: counts[0] the most per opcode,
+	 * counts[1] the total, counts[2] the frames over budget.
+	 */
+	private static void count(long[][] counts, int[] budget, DrawList list, DrawList hud) {
+		for (int op = 0; op < DrawList.OP_COUNT; op++) {
+			int n = list.count(op) + hud.count(op);
+			counts[0][op] = Math.max(counts[0][op], n);
+			counts[1][op] += n;
+			if (n > budget[op]) counts[2][op]++;
+		}
+	}
+
+	private static final String[] OP_NAMES = {
+		"bitmap", "sprite", "rect", "text", "line", "save", "restore", "rotate", "clip", "points", "glyph" };
+
+	private static boolean check(String level, long[][] counts, int frames, int[] budget) {
+		boolean ok = true;
+		System.out.println(level + ", " + frames + " frames:");
+		for (int op = 0; op < DrawList.OP_COUNT; op++) {
+			if (counts[0][op] == 0 && budget[op] == 0) continue;
+			System.out.println(String.format("  %-8s most %4d  average %7.1f  budget %4d%s",
+					OP_NAMES[op], counts[0][op], (double) counts[1][op] / frames, budget[op],
+					counts[2][op] > 0 ? "  OVER in " + counts[2][op] + " frames" : ""));
+			ok &= counts[2][op] == 0;
+		}
+		return ok;
+	}
+}
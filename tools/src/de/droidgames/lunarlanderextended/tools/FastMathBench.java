@@ -0,0 +1,117 @@
+package de.droidgames.lunarlanderextended.tools;
+
+import java.util.Random;
+
+import de.droidgames.lunarlanderextended.FastMath;
+
+/**
+ * Compares FastMath with java.lang.Math: prints the largest absolute error
+ * over a dense sweep of each function's domain and the time per call.
+ * Exits with status 1 if an error exceeds the bound in FastMath's docs.
+ *
+ *   javac -d out src/de/droidgames/lunarlanderextended/FastMath.java \
+ *       tools/src/de/droidgames/lunarlanderextended/tools/FastMathBench.java
+ *   java -cp out de.droidgames.lunarlanderextended.tools.FastMathBench
+ */
+public class FastMathBench {
+	private static final int SAMPLES = 1000000;
+	private static final int ROUNDS = 10;
+
+	private static final double SIN_BOUND = 2e-6;
+	private static final double ASIN_BOUND = 1e-6;
+
+	/** Keeps the JIT from dropping the timed loops. */
+	static float sink;
+
+	public static void main(String[] args) {
+		boolean ok = true;
+		ok &= report("sinDeg", sinDegError(), SIN_BOUND);
+		ok &= report("cosDeg", cosDegError(), SIN_BOUND);
+		ok &= report("sin", sinError(), SIN_BOUND);
+		ok &= report("asin", asinError(), ASIN_BOUND);
+
+		float[] angles = new float[SAMPLES];
+		float[] ratios = new float[SAMPLES];
+		Random rnd = new Random(1);
+		for (int i = 0; i < SAMPLES; i++) {
+			angles[i] = rnd.nextFloat() * 720.0f - 360.0f;
+			ratios[i] = rnd.nextFloat() * 2.0f - 1.0f;
+		}
+
+		// first round warms up, the best of the rest is printed
+		long mathSin = Long.MAX_VALUE, fastSin = Long.MAX_VALUE;
+		long mathAsin = Long.MAX_VALUE, fastAsin = Long.MAX_VALUE;
+		for (int r = 0; r <= ROUNDS; r++) {
+			long t0 = System.nanoTime();
+			float s = 0;
+			for (int i = 0; i < SAMPLES; i++)
+				s += (float) Math.sin(FastMath.PI * angles[i] / 180.0f);
+			long t1 = System.nanoTime();
+			for (int i = 0; i < SAMPLES; i++)
+				s += FastMath.sinDeg(angles[i]);
+			long t2 = System.nanoTime();
+			for (int i = 0; i < SAMPLES; i++)
+				s += (float) Math.toDegrees(Math.asin(ratios[i]));
+			long t3 = System.nanoTime();
+			for (int i = 0; i < SAMPLES; i++)
+				s += FastMath.asinDeg(ratios[i]);
+			long t4 = System.nanoTime();
+			sink += s;
+			if (r > 0) {
+				mathSin = Math.min(mathSin, t1 - t0);
+				fastSin = Math.min(fastSin, t2 - t1);
+				mathAsin = Math.min(mathAsin, t3 - t2);
+				fastAsin = Math.min(fastAsin, t4 - t3);
+			}
+		}
+		System.out.println(String.format("sin   Math %6.2f ns  FastMath %6.2f ns",
+				(double) mathSin / SAMPLES, (double) fastSin / SAMPLES));
+		System.out.println(String.format("asin  Math %6.2f ns  FastMath %6.2f ns",
+				(double) mathAsin / SAMPLES, (double) fastAsin / SAMPLES));
+
+		if (!ok) System.exit(1);
+	}
+
+	private static boolean report(String name, double error, double bound) {
+		boolean ok = error <= bound;
+		System.out.println(String.format("%-7s max error %.3g (bound %.0g)%s",
+				name, error, bound, ok ? "" : "  FAILED"));
+		return ok;
+	}
+
+	private static double sinDegError() {
+		double max = 0;
+		for (int i = 0; i <= SAMPLES; i++) {
+			float deg = -720.0f + 1440.0f * i / SAMPLES;
+			max = Math.max(max, Math.abs(FastMath.sinDeg(deg) - Math.sin(Math.toRadians(deg))));
+		}
+		return max;
+	}
+
+	private static double cosDegError() {
+		double max = 0;
+		for (int i = 0; i <= SAMPLES; i++) {
+			float deg = -720.0f + 1440.0f * i / SAMPLES;
+			max = Math.max(max, Math.abs(FastMath.cosDeg(deg) - Math.cos(Math.toRadians(deg))));
+		}
+		return max;
+	}
+
+	private static double sinError() {
+		double max = 0;
+		for (int i = 0; i <= SAMPLES; i++) {
+			float rad = -4.0f * FastMath.PI + 8.0f * FastMath.PI * i / SAMPLES;
+			max = Math.max(max, Math.abs(FastMath.sin(rad) - Math.sin(rad)));
+		}
+		return max;
+	}
+
+	private static double asinError() {
+		double max = 0;
+		for (int i = 0; i <= SAMPLES; i++) {
+			float x = -1.0f + 2.0f * i / SAMPLES;
+			max = Math.max(max, Math.abs(FastMath.asin(x) - Math.asin(x)));
+		}
+		return max;
+	}
+}
@@ -0,0 +1,103 @@
+package de.droidgames.lunarlanderextended.tools;
+
+import java.util.Random;
+
+import de.droidgames.lunarlanderextended.Bot;
+import de.droidgames.lunarlanderextended.GreedyBot;
+import de.droidgames.lunarlanderextended.World;
+
+/**
+ * Determinism check for World's fixed point mode. Plays seeded games with
+ * GreedyBot, folds World.stateHash() of every tick into one digest and
+ * prints it, together with the outcome and speed of float and fixed point
+ * physics side by side.
+ *
+ * The digest must be the same on every VM, with and without JIT; pass the
+ * digest of another run to have it compared:
+ *
+ *   javac -d out src/de/droidgames/lunarlanderextended/{World,Vector2,FastMath,Fixed,ParallelUpdater,PhysicsProfile,GameEvents,Bot,GreedyBot}.java \
+ *       tools/src/de/droidgames/lunarlanderextended/tools/{SelfPlay,FixedPointCheck}.java
+ *   java -cp out de.droidgames.lunarlanderextended.tools.FixedPointCheck [games] [digest]
+ *   java -Xint -cp out de.droidgames.lunarlanderextended.tools.FixedPointCheck [games] [digest]
+ */
+public class FixedPointCheck {
+	/** Frames of a game, about a minute */
+	public static final int MAX_STEPS = 4000;
+
+	static final class Result {
+		long digest = 0xcbf29ce484222325L;
+		int wins;
+		long diamonds;
+		long steps;
+	}
+
+	public static void main(String[] args) {
+		int games = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+
+		Result fixed = null;
+		Result floats = null;
+		long fixedNs = 0;
+		long floatNs = 0;
+		// the first round warms up the JIT
+		for (int round = 0; round < 2; round++) {
+			long t0 = System.nanoTime();
+			fixed = play(games, true);
+			long t1 = System.nanoTime();
+			floats = play(games, false);
+			fixedNs = t1 - t0;
+			floatNs = System.nanoTime() - t1;
+		}
+
+		System.out.println(String.format("%d games   wins  diamonds  steps/s", games));
+		System.out.println(String.format("float      %5d %9.2f %8.0f",
+				floats.wins, (double) floats.diamonds / games, floats.steps / (floatNs / 1e9)));
+		System.out.println(String.format("fixed      %5d %9.2f %8.0f",
+				fixed.wins, (double) fixed.diamonds / games, fixed.steps / (fixedNs / 1e9)));
+		String digest = Long.toHexString(fixed.digest);
+		System.out.println("fixed point digest " + digest);
+
+		if (args.length > 1 && !args[1].equalsIgnoreCase(digest)) {
+			System.out.println("MISMATCH, expected " + args[1]);
+			System.exit(1);
+		}
+	}
+
+	static Result play(int games, boolean fixedPoint) {
+		Result r = new Result();
+		for (int g = 0; g < games; g++) {
+			final World world = new World(SelfPlay.BALL_WIDTH, SelfPlay.BALL_HEIGHT,
+					SelfPlay.CRATER_WIDTH, SelfPlay.CRATER_HEIGHT);
+			world.setSize(SelfPlay.SCREEN_WIDTH, SelfPlay.SCREEN_HEIGHT);
+			world.setDifficulty(g % 3);
+			world.setFixedPoint(fixedPoint);
+			world.start(new Random(g));
+
+			Bot bot = new GreedyBot();
+			Bot.Controls controls = new Bot.Controls() {
+				public void doAccelerate(float tiltAngle) {
+					world.accelerate(tiltAngle);
+				}
+
+				public void doJump() {
+					world.jump();
+				}
+			};
+
+			// uneven frames, like a real clock
+			Random frames = new Random(g);
+			int result = World.RESULT_RUNNING;
+			int steps = 0;
+			while (result == World.RESULT_RUNNING && steps < MAX_STEPS) {
+				float elapsed = SelfPlay.STEP * (0.5f + frames.nextFloat());
+				bot.think(world, elapsed, controls);
+				result = world.step(elapsed);
+				r.digest = (r.digest ^ world.stateHash()) * 0x100000001b3L;
+				steps++;
+			}
+			r.steps += steps;
+			r.diamonds += world.getDiamonds();
+			if (result == World.RESULT_WIN) r.wins++;
+		}
+		return r;
+	}
+}
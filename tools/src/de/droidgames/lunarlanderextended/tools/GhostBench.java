@@ -0,0 +1,70 @@
+package de.droidgames.lunarlanderextended.tools;
+
+import de.droidgames.lunarlanderextended.GhostClient;
+import de.droidgames.lunarlanderextended.GhostProtocol;
+
+/**
+ * Runs a GhostServer and a number of GhostClients over localhost for a few
+ * seconds and reports bandwidth per player, round trip time and the
+ * latency from a state being sent to it arriving at the other clients.
+ *
+ *   javac -d out src/de/droidgames/lunarlanderextended/{GhostProtocol,GhostClient}.java \
+ *       tools/src/de/droidgames/lunarlanderextended/tools/{GhostServer,GhostBench}.java
+ *   java -cp out de.droidgames.lunarlanderextended.tools.GhostBench [players] [seconds]
+ */
+public class GhostBench {
+	public static void main(String[] args) throws Exception {
+		int players = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+		int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		int rate = GhostProtocol.DEFAULT_RATE;
+
+		GhostServer server = new GhostServer(0, rate);
+		Thread serverThread = new Thread(server, "GhostServer");
+		serverThread.start();
+
+		GhostClient[] clients = new GhostClient[players];
+		for (int i = 0; i < players; i++) {
+			clients[i] = new GhostClient("127.0.0.1", server.getPort(), rate);
+			clients[i].start();
+		}
+
+		// move every blob along its own curve at 60 fps, and check that the
+		// others are seen
+		float[] xs = new float[GhostProtocol.MAX_PLAYERS];
+		float[] ys = new float[GhostProtocol.MAX_PLAYERS];
+		float[] tilts = new float[GhostProtocol.MAX_PLAYERS];
+		int seen = 0;
+		long start = System.currentTimeMillis();
+		long end = start + seconds * 1000L;
+		while (System.currentTimeMillis() < end) {
+			float t = (System.currentTimeMillis() - start) / 1000.0f;
+			for (int i = 0; i < players; i++) {
+				clients[i].setState(100.0f * t + i * 10, 200.0f + 50.0f * (float) Math.sin(t + i), 0.0f);
+			}
+			seen = clients[0].getGhosts(System.currentTimeMillis(), xs, ys, tilts);
+			Thread.sleep(16);
+		}
+		float elapsed = (System.currentTimeMillis() - start) / 1000.0f;
+
+		long in = 0;
+		long out = 0;
+		float rtt = 0;
+		float latency = 0;
+		for (int i = 0; i < players; i++) {
+			in += clients[i].getBytesIn();
+			out += clients[i].getBytesOut();
+			rtt += clients[i].getRtt();
+			latency += clients[i].getLatency();
+			clients[i].stop();
+		}
+		server.stop();
+		serverThread.join();
+
+		System.out.println(players + " players, " + rate + " updates/s, " + seconds + " s");
+		System.out.println(String.format("per player: down %.0f B/s, up %.0f B/s",
+				in / elapsed / players, out / elapsed / players));
+		System.out.println(String.format("round trip %.3f ms, state latency %.1f ms (+%d ms interpolation delay)",
+				rtt / players, latency / players, GhostClient.INTERP_DELAY_MS));
+		System.out.println("player 0 sees " + seen + " ghosts");
+	}
+}
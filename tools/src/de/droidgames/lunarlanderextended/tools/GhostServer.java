@@ -0,0 +1,247 @@
+package de.droidgames.lunarlanderextended.tools;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+
+import de.droidgames.lunarlanderextended.GhostProtocol;
+
+/**
+ * Relay for the ghost race: every client sends its state, and at a fixed
+ * rate the server sends each client the latest state of all others. One
+ * thread, one Selector, non-blocking channels. A client that can't keep up
+ * loses updates instead of making the server buffer them.
+ *
+ *   javac -d out src/de/droidgames/lunarlanderextended/GhostProtocol.java \
+ *       tools/src/de/droidgames/lunarlanderextended/tools/GhostServer.java
+ *   java -cp out de.droidgames.lunarlanderextended.tools.GhostServer [port] [rate]
+ */
+public class GhostServer implements Runnable {
+	/** Pending output per client before updates are dropped */
+	private static final int OUT_CAPACITY = GhostProtocol.RECORD_SIZE * GhostProtocol.MAX_PLAYERS * 4;
+
+	private static final long STATS_INTERVAL_MS = 5000;
+
+	static final class Player {
+		final int id;
+		final SocketChannel channel;
+		final ByteBuffer in = ByteBuffer.allocate(GhostProtocol.RECORD_SIZE);
+		final ByteBuffer out = ByteBuffer.allocate(OUT_CAPACITY);
+		/** Latest TYPE_STATE record, player id filled in by us */
+		final byte[] state = new byte[GhostProtocol.RECORD_SIZE];
+		boolean hasState;
+		long bytesIn;
+		long bytesOut;
+		long dropped;
+
+		Player(int id, SocketChannel channel) {
+			this.id = id;
+			this.channel = channel;
+		}
+	}
+
+	private final ServerSocketChannel mServer;
+	private final Selector mSelector;
+	private final long mInterval;
+	private final Player[] mPlayers = new Player[GhostProtocol.MAX_PLAYERS];
+	private final ByteBuffer mRecord = ByteBuffer.allocate(GhostProtocol.RECORD_SIZE);
+	private volatile boolean mRunning = true;
+
+	/**
+	 * Binds to port on all interfaces; 0 picks a free port.
+	 */
+	public GhostServer(int port, int rate) throws IOException {
+		mInterval = 1000 / Math.max(1, rate);
+		mSelector = Selector.open();
+		mServer = ServerSocketChannel.open();
+		mServer.socket().bind(new InetSocketAddress(port));
+		mServer.configureBlocking(false);
+		mServer.register(mSelector, SelectionKey.OP_ACCEPT);
+	}
+
+	public int getPort() {
+		return mServer.socket().getLocalPort();
+	}
+
+	public void stop() {
+		mRunning = false;
+		mSelector.wakeup();
+	}
+
+	public void run() {
+		long nextTick = System.currentTimeMillis();
+		long nextStats = nextTick + STATS_INTERVAL_MS;
+		try {
+			while (mRunning) {
+				long wait = nextTick - System.currentTimeMillis();
+				if (wait > 0) mSelector.select(wait);
+				else mSelector.selectNow();
+
+				Iterator<SelectionKey> it = mSelector.selectedKeys().iterator();
+				while (it.hasNext()) {
+					SelectionKey key = it.next();
+					it.remove();
+					if (!key.isValid()) continue;
+					if (key.isAcceptable()) {
+						accept();
+					} else {
+						Player p = (Player) key.attachment();
+						if (key.isReadable()) read(p);
+						if (key.isValid() && key.isWritable()) flush(p);
+					}
+				}
+
+				long now = System.currentTimeMillis();
+				if (now >= nextTick) {
+					nextTick += mInterval;
+					if (nextTick < now) nextTick = now + mInterval;
+					relay();
+				}
+				if (now >= nextStats) {
+					nextStats = now + STATS_INTERVAL_MS;
+					printStats();
+				}
+			}
+		} catch (IOException e) {
+			System.err.println("GhostServer: " + e);
+		} finally {
+			for (int i = 0; i < mPlayers.length; i++) {
+				if (mPlayers[i] != null) close(mPlayers[i]);
+			}
+			try {
+				mServer.close();
+				mSelector.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+
+	private void accept() throws IOException {
+		SocketChannel ch = mServer.accept();
+		if (ch == null) return;
+		int id = -1;
+		for (int i = 0; i < mPlayers.length && id < 0; i++) {
+			if (mPlayers[i] == null) id = i;
+		}
+		if (id < 0) {
+			ch.close();
+			return;
+		}
+		ch.configureBlocking(false);
+		ch.socket().setTcpNoDelay(true);
+		Player p = new Player(id, ch);
+		mPlayers[id] = p;
+		ch.register(mSelector, SelectionKey.OP_READ, p);
+
+		mRecord.clear();
+		GhostProtocol.put(mRecord, GhostProtocol.TYPE_HELLO, id, 0, 0, 0, 0, 0);
+		queue(p, mRecord.array());
+		flush(p);
+	}
+
+	private void read(Player p) {
+		int r;
+		try {
+			while ((r = p.channel.read(p.in)) > 0) {
+				p.bytesIn += r;
+				if (p.in.hasRemaining()) continue;
+
+				byte[] rec = p.in.array();
+				if (rec[0] == GhostProtocol.TYPE_STATE) {
+					System.arraycopy(rec, 0, p.state, 0, rec.length);
+					// never trust the sender with its id
+					p.state[1] = (byte) p.id;
+					p.hasState = true;
+				} else if (rec[0] == GhostProtocol.TYPE_PING) {
+					rec[0] = GhostProtocol.TYPE_PONG;
+					queue(p, rec);
+					flush(p);
+				}
+				p.in.clear();
+			}
+		} catch (IOException e) {
+			r = -1;
+		}
+		if (r < 0) leave(p);
+	}
+
+	/**
+	 * Sends every client the latest state of all other clients.
+	 */
+	private void relay() {
+		for (int i = 0; i < mPlayers.length; i++) {
+			Player p = mPlayers[i];
+			if (p == null) continue;
+			for (int j = 0; j < mPlayers.length; j++) {
+				Player q = mPlayers[j];
+				if (q != null && q != p && q.hasState) queue(p, q.state);
+			}
+			flush(p);
+		}
+	}
+
+	private void queue(Player p, byte[] record) {
+		if (p.out.remaining() < record.length) {
+			p.dropped++;
+			return;
+		}
+		p.out.put(record);
+	}
+
+	private void flush(Player p) {
+		if (p.out.position() == 0) return;
+		try {
+			p.out.flip();
+			p.bytesOut += p.channel.write(p.out);
+			p.out.compact();
+			SelectionKey key = p.channel.keyFor(mSelector);
+			if (key != null && key.isValid()) {
+				key.interestOps(p.out.position() > 0
+						? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+			}
+		} catch (IOException e) {
+			leave(p);
+		}
+	}
+
+	private void leave(Player p) {
+		if (mPlayers[p.id] != p) return;
+		mPlayers[p.id] = null;
+		close(p);
+
+		mRecord.clear();
+		GhostProtocol.put(mRecord, GhostProtocol.TYPE_LEAVE, p.id, 0, 0, 0, 0, 0);
+		for (int i = 0; i < mPlayers.length; i++) {
+			if (mPlayers[i] != null) queue(mPlayers[i], mRecord.array());
+		}
+	}
+
+	private static void close(Player p) {
+		try {
+			p.channel.close();
+		} catch (IOException e) {
+		}
+	}
+
+	private void printStats() {
+		for (int i = 0; i < mPlayers.length; i++) {
+			Player p = mPlayers[i];
+			if (p == null) continue;
+			System.out.println(String.format("player %2d  in %8d B  out %8d B  dropped %d",
+					p.id, p.bytesIn, p.bytesOut, p.dropped));
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : GhostProtocol.DEFAULT_PORT;
+		int rate = args.length > 1 ? Integer.parseInt(args[1]) : GhostProtocol.DEFAULT_RATE;
+		GhostServer server = new GhostServer(port, rate);
+		System.out.println("ghost server on port " + server.getPort() + ", " + rate + " updates/s");
+		server.run();
+	}
+}
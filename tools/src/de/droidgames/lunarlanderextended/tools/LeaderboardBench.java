@@ -0,0 +1,100 @@
+package de.droidgames.lunarlanderextended.tools;
+
+import java.io.File;
+import java.util.Random;
+
+import de.droidgames.lunarlanderextended.Leaderboard;
+
+/**
+ * Fills a Leaderboard with random scores and reports submit throughput,
+ * the time to open the file again, top-K and rank query latency, and what
+ * compaction does to the file. Ranks are checked against counting the
+ * top-K lists by hand.
+ *
+ *   javac -d out src/de/droidgames/lunarlanderextended/Leaderboard.java \
+ *       tools/src/de/droidgames/lunarlanderextended/tools/LeaderboardBench.java
+ *   java -cp out de.droidgames.lunarlanderextended.tools.LeaderboardBench [entries] [capacity]
+ */
+public class LeaderboardBench {
+	/** Lists the scores are spread over: level x difficulty x planet */
+	static final int LEVELS = 2;
+	static final int DIFFICULTIES = 4;
+	static final int PLANETS = 9;
+
+	static final int QUERIES = 100000;
+	static final int K = 10;
+
+	public static void main(String[] args) throws Exception {
+		int entries = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+		int capacity = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+
+		File file = File.createTempFile("leaderboard", ".lb");
+		file.deleteOnExit();
+		new File(file.getPath() + ".tmp").deleteOnExit();
+
+		Random rnd = new Random(1);
+		Leaderboard lb = new Leaderboard(file, capacity);
+		long t0 = System.nanoTime();
+		for (int i = 0; i < entries; i++) {
+			// most kiosk games go to the same few lists
+			int board = rnd.nextInt(4) == 0 ? rnd.nextInt(LEVELS * DIFFICULTIES * PLANETS) : 0;
+			lb.submit(board / (DIFFICULTIES * PLANETS), board / PLANETS % DIFFICULTIES, board % PLANETS,
+					"player" + (i % 1000), rnd.nextInt(21), 20000 + rnd.nextInt(280000));
+		}
+		double secs = (System.nanoTime() - t0) / 1e9;
+		System.out.println(String.format("submit: %d entries in %.2f s, %.0f /s; list 0 holds %d",
+				entries, secs, entries / secs, lb.size(0, 0, 0)));
+		lb.awaitCompaction();
+		System.out.println(String.format("file: %d records, %d dead, %.1f MB",
+				lb.getRecords(), lb.getDeadRecords(), file.length() / 1e6));
+		lb.close();
+
+		t0 = System.nanoTime();
+		lb = new Leaderboard(file, capacity);
+		System.out.println(String.format("open: %.0f ms for %d records",
+				(System.nanoTime() - t0) / 1e6, lb.getRecords()));
+
+		Leaderboard.Entry[] top = new Leaderboard.Entry[K];
+		t0 = System.nanoTime();
+		long sum = 0;
+		for (int q = 0; q < QUERIES; q++)
+			sum += lb.top(0, 0, 0, rnd.nextInt(1000), top);
+		System.out.println(String.format("top-%d: %.2f us per query", K,
+				(System.nanoTime() - t0) / 1e3 / QUERIES));
+
+		t0 = System.nanoTime();
+		for (int q = 0; q < QUERIES; q++)
+			sum += lb.rank(0, 0, 0, rnd.nextInt(21), 20000 + rnd.nextInt(280000));
+		System.out.println(String.format("rank: %.2f us per query", (System.nanoTime() - t0) / 1e3 / QUERIES));
+
+		check(lb);
+
+		t0 = System.nanoTime();
+		lb.compactAsync();
+		lb.awaitCompaction();
+		System.out.println(String.format("compact: %.0f ms, now %d records, %d dead, %.1f MB",
+				(System.nanoTime() - t0) / 1e6, lb.getRecords(), lb.getDeadRecords(), file.length() / 1e6));
+		check(lb);
+		lb.close();
+		if (sum == 42) System.out.println();
+	}
+
+	/**
+	 * The first entries of list 0 must be sorted, and a score equal to an
+	 * entry must rank right behind the last entry with that score.
+	 */
+	static void check(Leaderboard lb) throws Exception {
+		Leaderboard.Entry[] top = new Leaderboard.Entry[1000];
+		int n = lb.top(0, 0, 0, 0, top);
+		for (int i = 0; i < n; i++) {
+			long key = Leaderboard.rankKey(top[i].score, top[i].millis);
+			long next = i + 1 < n ? Leaderboard.rankKey(top[i + 1].score, top[i + 1].millis) : Long.MIN_VALUE;
+			if (next > key) throw new AssertionError("not sorted at " + i);
+			int rank = lb.rank(0, 0, 0, top[i].score, top[i].millis);
+			if (rank <= i || (next != key && i + 1 < n && rank != i + 1))
+				throw new AssertionError("rank " + rank + " at " + i);
+		}
+		System.out.println("check: first " + n + " entries sorted, best " + top[0].score
+				+ " diamonds in " + top[0].millis + " ms by " + top[0].name);
+	}
+}
@@ -0,0 +1,192 @@
+package de.droidgames.lunarlanderextended.tools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import de.droidgames.lunarlanderextended.LevelFormat;
+
+/**
+ * Checks every level<n>.txt in the given directories (assets by default),
+ * all of them in parallel, and compiles the good ones into level<n>.lvl
+ * next to them. Checked are the size, the tile codes, that the blob fits
+ * and that an exit can be reached from where it starts. Prints what it
+ * found and statistics for each level, and exits with 1 if any level has
+ * errors, so a broken level never makes it into the APK. Levels of more
+ * than LevelFormat.CHUNKED_TILES tiles are compiled into chunks, which the
+ * game pages in around the blob.
+ *
+ * With -check nothing is written; instead every .lvl has to be up to date
+ * with its text, which is what a build should run.
+ *
+ *   javac -d out src/de/droidgames/lunarlanderextended/{LevelFormat,MazeChunks,MazePhysics,FastMath}.java \
+ *       tools/src/de/droidgames/lunarlanderextended/tools/LevelCompiler.java
+ *   java -cp out de.droidgames.lunarlanderextended.tools.LevelCompiler [-check] [-blob tiles] [dir|file ...]
+ */
+public class LevelCompiler {
+	static final class Result {
+		File source;
+		LevelFormat.Level level;
+		LevelFormat.Report report;
+		List<String> errors = new ArrayList<String>();
+		int compiledSize;
+		long nanos;
+	}
+
+	public static void main(String[] args) throws Exception {
+		boolean check = false;
+		int blob = LevelFormat.BLOB_TILES;
+		ArrayList<File> sources = new ArrayList<File>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-check")) {
+				check = true;
+			} else if (args[i].equals("-blob")) {
+				blob = Integer.parseInt(args[++i]);
+			} else {
+				add(new File(args[i]), sources);
+			}
+		}
+		if (!hasPaths(args)) add(new File("assets"), sources);
+		if (sources.isEmpty()) {
+			System.err.println("no level files found");
+			System.exit(1);
+		}
+
+		long t0 = System.nanoTime();
+		int threads = Math.min(sources.size(), Runtime.getRuntime().availableProcessors());
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		ArrayList<Future<Result>> results = new ArrayList<Future<Result>>();
+		for (final File source : sources) {
+			final int blobTiles = blob;
+			final boolean checkOnly = check;
+			results.add(pool.submit(new Callable<Result>() {
+				public Result call() throws Exception {
+					return compile(source, blobTiles, checkOnly);
+				}
+			}));
+		}
+		pool.shutdown();
+
+		int failed = 0;
+		for (Future<Result> f : results) {
+			Result r = f.get();
+			System.out.println(r.source.getPath());
+			for (String e : r.errors)
+				System.out.println("  error: " + e);
+			if (r.report != null) {
+				for (String w : r.report.warnings)
+					System.out.println("  warning: " + w);
+				LevelFormat.Level l = r.level;
+				LevelFormat.Report s = r.report;
+				int tiles = l.cols * l.rows;
+				System.out.println(String.format(
+						"  %d x %d tiles: %d path, %d wall, %d exit; start at row %d, column %d",
+						l.cols, l.rows, s.paths, tiles - s.paths - s.exits, s.exits, l.startRow + 1, l.startCol + 1));
+				System.out.println(String.format(
+						"  blob reaches %d of %d positions (%.0f%%), exit %s; %d bytes compiled, %.2f ms",
+						s.reachable, s.positions, s.positions == 0 ? 0.0 : 100.0 * s.reachable / s.positions,
+						s.exitDistance < 0 ? "unreachable" : s.exitDistance + " tiles away",
+						r.compiledSize, r.nanos / 1e6));
+			}
+			if (!r.errors.isEmpty()) failed++;
+		}
+		System.out.println(String.format("%d levels, %d with errors, %d threads, %.0f ms",
+				sources.size(), failed, threads, (System.nanoTime() - t0) / 1e6));
+		if (failed > 0) System.exit(1);
+	}
+
+	static Result compile(File source, int blob, boolean check) throws Exception {
+		Result r = new Result();
+		r.source = source;
+		long t0 = System.nanoTime();
+		InputStream in = new FileInputStream(source);
+		try {
+			r.level = LevelFormat.parse(in, r.errors);
+		} finally {
+			in.close();
+		}
+		if (r.errors.isEmpty()) {
+			r.report = LevelFormat.validate(r.level, blob);
+			r.errors.addAll(r.report.errors);
+		}
+		if (r.errors.isEmpty()) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			LevelFormat.Level l = r.level;
+			if (l.cols * l.rows > LevelFormat.CHUNKED_TILES)
+				LevelFormat.writeChunked(l.cols, l.rows, l.blobTiles, l.startCol, l.startRow,
+						new LevelFormat.LevelSource(l), bytes);
+			else
+				LevelFormat.write(l, bytes);
+			byte[] compiled = bytes.toByteArray();
+			r.compiledSize = compiled.length;
+
+			String name = source.getName();
+			File target = new File(source.getParentFile(),
+					name.substring(0, name.length() - LevelFormat.TEXT_SUFFIX.length()) + LevelFormat.COMPILED_SUFFIX);
+			if (check) {
+				if (!Arrays.equals(compiled, read(target)))
+					r.errors.add(target.getName() + " is missing or out of date");
+			} else {
+				OutputStream out = new FileOutputStream(target);
+				try {
+					out.write(compiled);
+				} finally {
+					out.close();
+				}
+			}
+		}
+		r.nanos = System.nanoTime() - t0;
+		return r;
+	}
+
+	/**
+	 * Adds a level file, or all level<n>.txt in a directory.
+	 */
+	static void add(File f, List<File> sources) {
+		if (!f.isDirectory()) {
+			sources.add(f);
+			return;
+		}
+		String[] names = f.list();
+		Arrays.sort(names);
+		for (String name : names) {
+			if (name.startsWith(LevelFormat.PREFIX) && name.endsWith(LevelFormat.TEXT_SUFFIX))
+				sources.add(new File(f, name));
+		}
+	}
+
+	static boolean hasPaths(String[] args) {
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-blob")) i++;
+			else if (!args[i].startsWith("-")) return true;
+		}
+		return false;
+	}
+
+	static byte[] read(File f) throws Exception {
+		if (!f.isFile()) return null;
+		byte[] b = new byte[(int) f.length()];
+		InputStream in = new FileInputStream(f);
+		try {
+			int n = 0;
+			while (n < b.length) {
+				int k = in.read(b, n, b.length - n);
+				if (k < 0) break;
+				n += k;
+			}
+		} finally {
+			in.close();
+		}
+		return b;
+	}
+}
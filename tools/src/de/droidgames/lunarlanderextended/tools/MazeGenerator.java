@@ -0,0 +1,120 @@
+package de.droidgames.lunarlanderextended.tools;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+
+import de.droidgames.lunarlanderextended.LevelFormat;
+import de.droidgames.lunarlanderextended.MazeChunks;
+
+/**
+ * Writes a chunked maze level of any size, e.g. 10000 x 10000 tiles, to try
+ * out paging and the camera; too large to be written by hand or checked by
+ * LevelCompiler.
+ *
+ * The maze is a grid of rooms with walls between them, and every room has
+ * one door, to the room above or to the left, picked by a hash of its
+ * position (the "binary tree" maze). Every tile can be worked out on its
+ * own, so chunks are generated as they are written and the maze never is
+ * in memory; each room can be reached from the top left one, where the blob
+ * starts, and the exit is in the bottom right one. Not tuned for play:
+ * whether the blob can jump up to a door is left to chance.
+ *
+ *   javac -d out src/de/droidgames/lunarlanderextended/{LevelFormat,MazeChunks,MazePhysics,FastMath}.java \
+ *       tools/src/de/droidgames/lunarlanderextended/tools/MazeGenerator.java
+ *   java -cp out de.droidgames.lunarlanderextended.tools.MazeGenerator [-seed n] [-room tiles] cols rows file
+ */
+public class MazeGenerator implements MazeChunks.Source {
+	/** Tiles per room including its wall, room for the blob and a jump */
+	public static final int DEFAULT_ROOM = 8;
+
+	private final int mCols;
+	private final int mRows;
+	private final int mRoom;
+	private final long mSeed;
+
+	public MazeGenerator(int cols, int rows, int room, long seed) {
+		mCols = cols;
+		mRows = rows;
+		mRoom = room;
+		mSeed = seed;
+	}
+
+	public static void main(String[] args) throws Exception {
+		long seed = 1;
+		int room = DEFAULT_ROOM;
+		int i = 0;
+		for (; i < args.length && args[i].startsWith("-"); i++) {
+			if (args[i].equals("-seed")) seed = Long.parseLong(args[++i]);
+			else if (args[i].equals("-room")) room = Integer.parseInt(args[++i]);
+		}
+		if (args.length - i != 3) {
+			System.err.println("usage: MazeGenerator [-seed n] [-room tiles] cols rows file");
+			System.exit(1);
+		}
+		int cols = Integer.parseInt(args[i]);
+		int rows = Integer.parseInt(args[i + 1]);
+		if (room < LevelFormat.BLOB_TILES + 2 || cols < 2 * room || rows < 2 * room) {
+			System.err.println("rooms need " + (LevelFormat.BLOB_TILES + 2)
+					+ " tiles and the maze at least two rooms each way");
+			System.exit(1);
+		}
+
+		long t0 = System.nanoTime();
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(args[i + 2]), 1 << 16);
+		try {
+			LevelFormat.writeChunked(cols, rows, LevelFormat.BLOB_TILES, 1, 1,
+					new MazeGenerator(cols, rows, room, seed), out);
+		} finally {
+			out.close();
+		}
+		System.out.println(String.format("%d x %d tiles, %d x %d rooms, %.0f ms",
+				cols, rows, (cols - 1) / room, (rows - 1) / room, (System.nanoTime() - t0) / 1e6));
+	}
+
+	public void read(int col, int row, int size, byte[] tiles) {
+		for (int r = 0; r < size; r++) {
+			for (int c = 0; c < size; c++)
+				tiles[r * size + c] = (byte) getTile(col + c, row + r);
+		}
+	}
+
+	public void write(int col, int row, int type) {
+	}
+
+	public void release() {
+	}
+
+	int getTile(int col, int row) {
+		// rooms that don't fit whole are left solid
+		int roomCols = (mCols - 1) / mRoom;
+		int roomRows = (mRows - 1) / mRoom;
+		int x = col / mRoom;
+		int y = row / mRoom;
+		if (col >= mCols || row >= mRows || x >= roomCols || y >= roomRows)
+			return LevelFormat.VOID_TILE;
+
+		int c = col % mRoom;
+		int r = row % mRoom;
+		if (c != 0 && r != 0)
+			return x == roomCols - 1 && y == roomRows - 1 ? LevelFormat.EXIT_TILE : LevelFormat.PATH_TILE;
+		if (c == 0 && r == 0) return LevelFormat.VOID_TILE;
+
+		// a door is the inner half of the wall to the room above or to the left
+		boolean door = c == 0 ? x > 0 && !up(x, y) : y > 0 && up(x, y);
+		int along = c == 0 ? r : c;
+		return door && along > mRoom / 4 && along < mRoom - mRoom / 4
+				? LevelFormat.PATH_TILE : LevelFormat.VOID_TILE;
+	}
+
+	/** Whether a room opens to the one above it rather than to the left */
+	private boolean up(int x, int y) {
+		if (y == 0) return false;
+		if (x == 0) return true;
+		long h = (x * 0x9E3779B97F4A7C15L) ^ (y * 0xC2B2AE3D27D4EB4FL) ^ mSeed;
+		h ^= h >>> 33;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		return (h & 1) != 0;
+	}
+}
@@ -0,0 +1,111 @@
+package de.droidgames.lunarlanderextended.tools;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import de.droidgames.lunarlanderextended.LevelFormat;
+import de.droidgames.lunarlanderextended.MazeChunks;
+import de.droidgames.lunarlanderextended.MazePhysics;
+
+/**
+ * Times MazePhysics.move() on a generated maze held in MazeChunks, as in the
+ * game: a blob flies around at up to a tile per step, bounces off the walls
+ * and pages chunks in as it goes. Prints the time per move, the chunks
+ * loaded and the bytes allocated per move, which should be 0 once the
+ * chunks are loaded.
+ *
+ *   javac -d out src/de/droidgames/lunarlanderextended/{LevelFormat,MazeChunks,MazePhysics,FastMath}.java \
+ *       tools/src/de/droidgames/lunarlanderextended/tools/{MazeGenerator,MazePhysicsBench}.java
+ *   java -cp out de.droidgames.lunarlanderextended.tools.MazePhysicsBench [tiles]
+ */
+public class MazePhysicsBench {
+	private static final int MOVES = 1000000;
+	private static final int ROUNDS = 5;
+
+	/** Fastest the blob moves per step, in pixels */
+	private static final float SPEED = LevelFormat.TILE_SIZE;
+
+	public static void main(String[] args) {
+		int tiles = args.length > 0 ? Integer.parseInt(args[0]) : 4096;
+
+		MazeGenerator maze = new MazeGenerator(tiles, tiles, MazeGenerator.DEFAULT_ROOM, 1);
+		MazeChunks chunks = new MazeChunks(tiles, tiles, LevelFormat.CHUNK_SIZE,
+				MazeChunks.DEFAULT_VIEW_RADIUS, maze);
+		MazePhysics physics = new MazePhysics(chunks);
+
+		// the blob is drawn half its size, a bit less than its tiles
+		float size = (LevelFormat.BLOB_TILES - 1) * LevelFormat.TILE_SIZE;
+		Blob blob = new Blob(LevelFormat.TILE_SIZE + 1, LevelFormat.TILE_SIZE + 1, size);
+
+		long best = Long.MAX_VALUE;
+		long allocated = 0;
+		long hits = 0;
+		for (int r = 0; r <= ROUNDS; r++) {
+			int loads = chunks.getLoads();
+			long bytes = allocatedBytes();
+			long t0 = System.nanoTime();
+			int n = 0;
+			for (int i = 0; i < MOVES; i++)
+				n += blob.move(physics, chunks) != MazePhysics.HIT_NONE ? 1 : 0;
+			long t = System.nanoTime() - t0;
+			bytes = allocatedBytes() - bytes;
+			// the first round warms up
+			if (r > 0) {
+				best = Math.min(best, t);
+				allocated += bytes;
+				hits += n;
+			}
+			System.out.println(String.format("round %d: %.1f ns per move, %d chunks loaded",
+					r, (double) t / MOVES, chunks.getLoads() - loads));
+		}
+
+		System.out.println(String.format("%d x %d tiles: %.1f ns per move, %.0f%% of moves hit a wall, "
+				+ "%.2f bytes allocated per move, window %d bytes",
+				tiles, tiles, (double) best / MOVES, 100.0 * hits / ROUNDS / MOVES,
+				(double) allocated / ROUNDS / MOVES, chunks.getMemorySize()));
+	}
+
+	/**
+	 * A blob that flies straight until it hits a wall, then turns to a
+	 * random direction.
+	 */
+	private static final class Blob {
+		private final Random mRandom = new Random(1);
+		private final float mSize;
+		private float mX;
+		private float mY;
+		private float mDx;
+		private float mDy;
+
+		Blob(float x, float y, float size) {
+			mX = x;
+			mY = y;
+			mSize = size;
+			turn();
+		}
+
+		int move(MazePhysics physics, MazeChunks chunks) {
+			int hits = physics.move(mX, mY, mSize, mSize, mDx, mDy);
+			mX = physics.x;
+			mY = physics.y;
+			chunks.page((int) mX / LevelFormat.TILE_SIZE, (int) mY / LevelFormat.TILE_SIZE);
+			if (hits != MazePhysics.HIT_NONE) turn();
+			return hits;
+		}
+
+		private void turn() {
+			mDx = (mRandom.nextFloat() * 2.0f - 1.0f) * SPEED;
+			mDy = (mRandom.nextFloat() * 2.0f - 1.0f) * SPEED;
+		}
+	}
+
+	/** Bytes allocated by this thread so far, -1 if the JVM can't tell. */
+	private static long allocatedBytes() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(
+					Thread.currentThread().getId());
+		}
+		return -1;
+	}
+}
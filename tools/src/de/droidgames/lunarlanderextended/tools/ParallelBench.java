@@ -0,0 +1,81 @@
+package de.droidgames.lunarlanderextended.tools;
+
+import java.util.Random;
+
+import de.droidgames.lunarlanderextended.ParallelUpdater;
+import de.droidgames.lunarlanderextended.World;
+
+/**
+ * Times World.step() with the diamonds moved sequentially and on a
+ * ParallelUpdater for growing diamond counts, and prints the smallest count
+ * at which the parallel update is at least MIN_SPEEDUP times faster. Use it
+ * to pick the threshold passed to World.setParallelThreshold() on a given
+ * device class.
+ *
+ *   javac -d out src/de/droidgames/lunarlanderextended/{World,Vector2,FastMath,Fixed,ParallelUpdater,PhysicsProfile,GameEvents,Bot,GreedyBot}.java \
+ *       tools/src/de/droidgames/lunarlanderextended/tools/{SelfPlay,ParallelBench}.java
+ *   java -cp out de.droidgames.lunarlanderextended.tools.ParallelBench [threads]
+ */
+public class ParallelBench {
+	private static final int[] COUNTS = { 1024, 4096, 16384, 32768, 65536, 131072, 262144, 1048576 };
+
+	/** Diamond updates per measurement, so small counts get enough steps */
+	private static final long WORK = 1L << 26;
+	private static final int ROUNDS = 5;
+
+	/** Smaller differences are within the noise of the measurement */
+	private static final double MIN_SPEEDUP = 1.1;
+
+	public static void main(String[] args) {
+		int threads = args.length > 0 ? Integer.parseInt(args[0])
+				: Runtime.getRuntime().availableProcessors();
+		ParallelUpdater updater = new ParallelUpdater(threads);
+		System.out.println("diamonds   sequential    parallel  speedup   (" + threads + " threads, ns per step)");
+
+		int crossover = -1;
+		for (int c = 0; c < COUNTS.length; c++) {
+			int n = COUNTS[c];
+			World seq = world(n, null);
+			World par = world(n, updater);
+			int steps = (int) Math.max(10, WORK / n);
+
+			// first round warms up, the best of the rest counts
+			long tSeq = Long.MAX_VALUE;
+			long tPar = Long.MAX_VALUE;
+			for (int r = 0; r <= ROUNDS; r++) {
+				long t0 = System.nanoTime();
+				for (int i = 0; i < steps; i++)
+					seq.step(SelfPlay.STEP);
+				long t1 = System.nanoTime();
+				for (int i = 0; i < steps; i++)
+					par.step(SelfPlay.STEP);
+				long t2 = System.nanoTime();
+				if (r > 0) {
+					tSeq = Math.min(tSeq, t1 - t0);
+					tPar = Math.min(tPar, t2 - t1);
+				}
+			}
+
+			double speedup = (double) tSeq / tPar;
+			if (speedup >= MIN_SPEEDUP && crossover < 0) crossover = n;
+			System.out.println(String.format("%8d %12.0f %11.0f %8.2f",
+					n, (double) tSeq / steps, (double) tPar / steps, speedup));
+		}
+		updater.shutdown();
+
+		if (crossover > 0)
+			System.out.println("parallel update wins from " + crossover + " diamonds");
+		else
+			System.out.println("parallel update never wins");
+	}
+
+	private static World world(int diamonds, ParallelUpdater updater) {
+		World w = new World(SelfPlay.BALL_WIDTH, SelfPlay.BALL_HEIGHT,
+				SelfPlay.CRATER_WIDTH, SelfPlay.CRATER_HEIGHT, diamonds);
+		w.setSize(SelfPlay.SCREEN_WIDTH, SelfPlay.SCREEN_HEIGHT);
+		w.start(new Random(1));
+		w.setUpdater(updater);
+		w.setParallelThreshold(0);
+		return w;
+	}
+}
@@ -0,0 +1,74 @@
+package de.droidgames.lunarlanderextended.tools;
+
+import java.lang.management.ManagementFactory;
+
+import de.droidgames.lunarlanderextended.DrawList;
+import de.droidgames.lunarlanderextended.ParticleSystem;
+
+/**
+ * Keeps a ParticleSystem at about 10k live particles and times one frame of
+ * emit, update and recording into a DrawList. Also prints the bytes
+ * allocated per frame once the arrays of the DrawList have grown, which
+ * should be 0.
+ *
+ *   javac -d out src/de/droidgames/lunarlanderextended/{ParticleSystem,FastMath,DrawList}.java \
+ *       tools/src/de/droidgames/lunarlanderextended/tools/ParticleBench.java
+ *   java -cp out de.droidgames.lunarlanderextended.tools.ParticleBench [particles]
+ */
+public class ParticleBench {
+	private static final float STEP = 1.0f / 60.0f;
+	private static final float LIFETIME = 1.0f;
+	private static final int FRAMES = 2000;
+	private static final int ROUNDS = 5;
+
+	public static void main(String[] args) {
+		int live = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+
+		// twice the capacity so the emitters are never throttled
+		ParticleSystem particles = new ParticleSystem(2 * live, 0xFFFFFF60, 3, 200.0f, LIFETIME);
+		DrawList list = new DrawList();
+
+		// particles live LIFETIME on average, so this many per frame keeps
+		// about live of them around
+		int perFrame = (int) (live * STEP / LIFETIME);
+
+		long best = Long.MAX_VALUE;
+		long allocated = 0;
+		for (int r = 0; r <= ROUNDS; r++) {
+			long bytes = allocatedBytes();
+			long t0 = System.nanoTime();
+			for (int f = 0; f < FRAMES; f++) {
+				frame(particles, list, perFrame, f);
+			}
+			long t = System.nanoTime() - t0;
+			bytes = allocatedBytes() - bytes;
+			// the first round warms up and grows the DrawList
+			if (r > 0) {
+				best = Math.min(best, t);
+				allocated += bytes;
+			}
+		}
+
+		System.out.println(String.format("%d live particles: %.1f us per frame, %.1f bytes allocated per frame",
+				particles.size(), best / 1000.0 / FRAMES, (double) allocated / ROUNDS / FRAMES));
+	}
+
+	private static void frame(ParticleSystem particles, DrawList list, int n, int frame) {
+		// a pickup in one spot, a crater in another
+		particles.emit(100 + frame % 300, 200, n / 2, 150.0f, 0.0f, 360.0f);
+		particles.emit(300, 300, n - n / 2, 120.0f, -150.0f, -30.0f);
+		particles.update(STEP);
+		list.reset();
+		particles.draw(list, -frame);
+	}
+
+	/** Bytes allocated by this thread so far, -1 if the JVM can't tell. */
+	private static long allocatedBytes() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(
+					Thread.currentThread().getId());
+		}
+		return -1;
+	}
+}
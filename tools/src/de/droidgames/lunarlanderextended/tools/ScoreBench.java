@@ -0,0 +1,153 @@
+package de.droidgames.lunarlanderextended.tools;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.droidgames.lunarlanderextended.Bot;
+import de.droidgames.lunarlanderextended.GreedyBot;
+import de.droidgames.lunarlanderextended.RunLog;
+import de.droidgames.lunarlanderextended.World;
+
+/**
+ * Records games of GreedyBot as RunLogs and measures how fast they are
+ * verified: first by calling ScoreVerifier directly, then through a local
+ * ScoreServer with a number of concurrent HTTP clients. Every honest run
+ * must be accepted; a copy with one extra diamond claimed must be rejected.
+ *
+ *   javac -d out src/de/droidgames/lunarlanderextended/{World,Vector2,FastMath,Fixed,ParallelUpdater,PhysicsProfile,GameEvents,RunLog,Bot,GreedyBot}.java \
+ *       tools/src/de/droidgames/lunarlanderextended/tools/{SelfPlay,ScoreVerifier,ScoreServer,ScoreBench}.java
+ *   java -cp out de.droidgames.lunarlanderextended.tools.ScoreBench [runs] [clients]
+ */
+public class ScoreBench {
+	public static void main(String[] args) throws Exception {
+		int runs = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+		int clients = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+
+		final byte[][] logs = new byte[runs][];
+		long steps = 0;
+		for (int i = 0; i < runs; i++) {
+			RunLog log = record(i % 3, 1000 + i);
+			steps += log.getSteps();
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			log.write(bytes);
+			logs[i] = bytes.toByteArray();
+		}
+		System.out.println(runs + " runs, " + steps / runs + " steps and "
+				+ logs[0].length + " bytes for the first");
+
+		// direct
+		int accepted = 0;
+		long t0 = System.nanoTime();
+		for (int i = 0; i < runs; i++) {
+			RunLog log = RunLog.read(new ByteArrayInputStream(logs[i]));
+			if (ScoreVerifier.verify(log).accepted) accepted++;
+		}
+		double secs = (System.nanoTime() - t0) / 1e9;
+		System.out.println(String.format("direct: %d/%d accepted, %.0f runs/s, %.1f M steps/s",
+				accepted, runs, runs / secs, steps / secs / 1e6));
+
+		RunLog cheat = RunLog.read(new ByteArrayInputStream(logs[0]));
+		cheat.diamonds++;
+		System.out.println("cheat: " + ScoreVerifier.verify(cheat));
+
+		// over HTTP
+		final ScoreServer server = new ScoreServer(0);
+		server.start();
+		final URL url = new URL("http://127.0.0.1:" + server.getPort() + "/verify");
+		final AtomicInteger next = new AtomicInteger();
+		final AtomicInteger failed = new AtomicInteger();
+		Thread[] threads = new Thread[clients];
+		t0 = System.nanoTime();
+		for (int c = 0; c < clients; c++) {
+			threads[c] = new Thread(new Runnable() {
+				public void run() {
+					int i;
+					while ((i = next.getAndIncrement()) < logs.length) {
+						try {
+							if (!post(url, logs[i]).startsWith("ACCEPT")) failed.incrementAndGet();
+						} catch (Exception e) {
+							failed.incrementAndGet();
+						}
+					}
+				}
+			});
+			threads[c].start();
+		}
+		for (int c = 0; c < clients; c++)
+			threads[c].join();
+		secs = (System.nanoTime() - t0) / 1e9;
+		server.stop();
+
+		System.out.println(String.format("http: %d clients, %s threads, %d/%d accepted, %.0f runs/s, %.2f ms latency",
+				clients, server.isVirtual() ? "virtual" : "platform",
+				runs - failed.get(), runs, runs / secs, secs * 1000.0 / runs * clients));
+	}
+
+	/**
+	 * Plays one game with GreedyBot and records it the way LunarThread does.
+	 */
+	static RunLog record(int difficulty, long seed) {
+		final World world = new World(SelfPlay.BALL_WIDTH, SelfPlay.BALL_HEIGHT,
+				SelfPlay.CRATER_WIDTH, SelfPlay.CRATER_HEIGHT);
+		world.setSize(SelfPlay.SCREEN_WIDTH, SelfPlay.SCREEN_HEIGHT);
+		world.setDifficulty(difficulty);
+		world.start(new Random(seed));
+
+		RunLog log = new RunLog();
+		log.start(world, seed);
+
+		final float[] tilt = new float[1];
+		final boolean[] jump = new boolean[1];
+		Bot bot = new GreedyBot();
+		Bot.Controls controls = new Bot.Controls() {
+			public void doAccelerate(float tiltAngle) {
+				tilt[0] = tiltAngle;
+			}
+
+			public void doJump() {
+				jump[0] = true;
+			}
+		};
+
+		// a little jitter, like a real frame clock
+		Random frames = new Random(seed);
+		int result = World.RESULT_RUNNING;
+		float time = 0.0f;
+		while (result == World.RESULT_RUNNING && time < SelfPlay.MAX_TIME
+				&& log.getSteps() < RunLog.MAX_STEPS) {
+			float elapsed = SelfPlay.STEP * (0.5f + frames.nextFloat());
+			bot.think(world, elapsed, controls);
+			world.accelerate(tilt[0]);
+			if (jump[0]) world.jump();
+			result = world.step(elapsed);
+			log.step(elapsed, tilt[0], jump[0]);
+			jump[0] = false;
+			time += elapsed;
+		}
+		log.finish(world.getDiamonds(), result);
+		return log;
+	}
+
+	static String post(URL url, byte[] body) throws Exception {
+		HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+		conn.setDoOutput(true);
+		conn.setRequestMethod("POST");
+		conn.setFixedLengthStreamingMode(body.length);
+		OutputStream out = conn.getOutputStream();
+		out.write(body);
+		out.close();
+		BufferedReader in = new BufferedReader(new InputStreamReader(conn.getInputStream(), "UTF-8"));
+		try {
+			return in.readLine();
+		} finally {
+			in.close();
+		}
+	}
+}
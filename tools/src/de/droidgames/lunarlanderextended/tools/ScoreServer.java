@@ -0,0 +1,180 @@
+package de.droidgames.lunarlanderextended.tools;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import de.droidgames.lunarlanderextended.RunLog;
+
+/**
+ * Score verification service. Clients POST a RunLog (as written to
+ * LunarThread.RUN_FILE) to /verify; the run is replayed by ScoreVerifier
+ * and the answer is one line of text, "ACCEPT ..." or "REJECT ...".
+ *
+ * Every request gets a thread of its own. On a JDK with virtual threads
+ * (21+) those are virtual, otherwise a cached pool of platform threads.
+ * Replays only need CPU, so at most one per core runs at a time and the
+ * rest wait for a permit instead of slowing each other down.
+ *
+ *   javac -d out src/de/droidgames/lunarlanderextended/{World,Vector2,FastMath,Fixed,ParallelUpdater,PhysicsProfile,GameEvents,RunLog}.java \
+ *       tools/src/de/droidgames/lunarlanderextended/tools/{ScoreVerifier,ScoreServer}.java
+ *   java -cp out de.droidgames.lunarlanderextended.tools.ScoreServer [port]
+ */
+public class ScoreServer {
+	public static final int DEFAULT_PORT = 7734;
+
+	/** Larger bodies can't be a RunLog of at most MAX_STEPS */
+	public static final int MAX_BODY = 64 + RunLog.MAX_STEPS * 9;
+
+	private final HttpServer mServer;
+	private final ExecutorService mExecutor;
+	private final Semaphore mReplays;
+	private final boolean mVirtual;
+
+	private final AtomicLong mAccepted = new AtomicLong();
+	private final AtomicLong mRejected = new AtomicLong();
+	private final AtomicLong mBad = new AtomicLong();
+
+	/**
+	 * Binds to port on all interfaces; 0 picks a free port.
+	 */
+	public ScoreServer(int port) throws IOException {
+		ExecutorService virtual = newVirtualThreadPerTaskExecutor();
+		mVirtual = virtual != null;
+		mExecutor = mVirtual ? virtual : Executors.newCachedThreadPool();
+		mReplays = new Semaphore(Runtime.getRuntime().availableProcessors());
+
+		mServer = HttpServer.create(new InetSocketAddress(port), 0);
+		mServer.setExecutor(mExecutor);
+		mServer.createContext("/verify", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				verify(exchange);
+			}
+		});
+	}
+
+	/**
+	 * Executors.newVirtualThreadPerTaskExecutor() if this JDK has it. Looked
+	 * up by reflection, so the tools still build for older JDKs.
+	 */
+	private static ExecutorService newVirtualThreadPerTaskExecutor() {
+		try {
+			return (ExecutorService) Executors.class
+					.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	public void start() {
+		mServer.start();
+	}
+
+	public void stop() {
+		mServer.stop(0);
+		mExecutor.shutdown();
+	}
+
+	public int getPort() {
+		return mServer.getAddress().getPort();
+	}
+
+	public boolean isVirtual() {
+		return mVirtual;
+	}
+
+	public long getAccepted() {
+		return mAccepted.get();
+	}
+
+	public long getRejected() {
+		return mRejected.get();
+	}
+
+	private void verify(HttpExchange exchange) throws IOException {
+		try {
+			if (!"POST".equals(exchange.getRequestMethod())) {
+				reply(exchange, 405, "POST a run log");
+				return;
+			}
+
+			RunLog log;
+			try {
+				log = RunLog.read(new BufferedInputStream(
+						new LimitedInputStream(exchange.getRequestBody(), MAX_BODY)));
+			} catch (IOException e) {
+				mBad.incrementAndGet();
+				reply(exchange, 400, "bad run log: " + e.getMessage());
+				return;
+			}
+
+			ScoreVerifier.Verdict verdict;
+			mReplays.acquireUninterruptibly();
+			try {
+				verdict = ScoreVerifier.verify(log);
+			} finally {
+				mReplays.release();
+			}
+			(verdict.accepted ? mAccepted : mRejected).incrementAndGet();
+			reply(exchange, 200, verdict.toString());
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private static void reply(HttpExchange exchange, int status, String text) throws IOException {
+		byte[] body = (text + "\n").getBytes("UTF-8");
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+		exchange.sendResponseHeaders(status, body.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(body);
+		out.close();
+	}
+
+	/**
+	 * Fails instead of reading more than limit bytes.
+	 */
+	static final class LimitedInputStream extends InputStream {
+		private final InputStream mIn;
+		private int mLeft;
+
+		LimitedInputStream(InputStream in, int limit) {
+			mIn = in;
+			mLeft = limit;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (mLeft <= 0) throw new IOException("run log too large");
+			int b = mIn.read();
+			if (b >= 0) mLeft--;
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (mLeft <= 0) throw new IOException("run log too large");
+			int r = mIn.read(b, off, Math.min(len, mLeft));
+			if (r > 0) mLeft -= r;
+			return r;
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+		ScoreServer server = new ScoreServer(port);
+		server.start();
+		System.out.println("score server on port " + server.getPort() + ", "
+				+ (server.isVirtual() ? "virtual" : "platform") + " threads");
+	}
+}
@@ -0,0 +1,125 @@
+package de.droidgames.lunarlanderextended.tools;
+
+import java.util.Random;
+
+import de.droidgames.lunarlanderextended.PhysicsProfile;
+import de.droidgames.lunarlanderextended.RunLog;
+import de.droidgames.lunarlanderextended.World;
+
+/**
+ * Plays a submitted RunLog again with the game's own World and checks the
+ * claimed outcome. A run is accepted only if its inputs are plausible and
+ * the replay ends exactly where the client said it did.
+ *
+ * The seed of the layout is the client's own, see LunarThread.doStart(), and
+ * is taken as it comes: a replay can't tell a seed tried until the diamonds
+ * lie well from a random one. Where that matters, the server has to hand
+ * out the seed before the game.
+ */
+public class ScoreVerifier {
+	public static final int MAX_CANVAS = 4096;
+
+	/** Sizes of res/drawable/ball.png and krater.png, at 160 dpi */
+	public static final int BALL_SIZE = 71;
+	public static final int CRATER_WIDTH = 149;
+	public static final int CRATER_HEIGHT = 56;
+
+	/** Densities Android scales the sprites to, ldpi to xxxhdpi */
+	private static final int[] DENSITIES = { 120, 160, 213, 240, 320, 480, 640 };
+
+	/** Canvas sides in density independent pixels, small phone to large tablet */
+	public static final int MIN_CANVAS_DP = 160;
+	public static final int MAX_CANVAS_DP = 1600;
+
+	public static final class Verdict {
+		public final boolean accepted;
+		public final String reason;
+		public final int diamonds;
+		public final int result;
+
+		Verdict(boolean accepted, String reason, int diamonds, int result) {
+			this.accepted = accepted;
+			this.reason = reason;
+			this.diamonds = diamonds;
+			this.result = result;
+		}
+
+		@Override
+		public String toString() {
+			return (accepted ? "ACCEPT " : "REJECT ") + reason
+					+ " diamonds=" + diamonds + " result=" + result;
+		}
+	}
+
+	public static Verdict verify(RunLog log) {
+		if (log.canvasWidth <= 0 || log.canvasWidth > MAX_CANVAS
+				|| log.canvasHeight <= 0 || log.canvasHeight > MAX_CANVAS)
+			return reject("bad canvas size");
+		if (density(log) < 0)
+			return reject("sprite sizes don't match a screen density");
+		if (log.planet < PhysicsProfile.PLANET_MOON || log.planet >= PhysicsProfile.PLANETS
+				|| log.difficulty < 0 || log.difficulty >= PhysicsProfile.DIFFICULTIES)
+			return reject("bad planet or difficulty");
+
+		World world = new World(log.ballWidth, log.ballHeight, log.craterWidth, log.craterHeight);
+		world.setSize(log.canvasWidth, log.canvasHeight);
+		world.setProfile(log.getProfile());
+		world.setFixedPoint(log.fixedPoint);
+		world.start(new Random(log.seed));
+
+		int result = World.RESULT_RUNNING;
+		int steps = log.getSteps();
+		for (int i = 0; i < steps; i++) {
+			if (result != World.RESULT_RUNNING)
+				return reject("inputs after the end of the game");
+
+			float elapsed = log.getElapsed(i);
+			float tilt = log.getTilt(i);
+			// also catches NaN
+			if (!(elapsed >= 0.0f && elapsed <= RunLog.MAX_ELAPSED))
+				return reject("bad step time at step " + i);
+			if (Float.isNaN(tilt) || Float.isInfinite(tilt))
+				return reject("bad tilt at step " + i);
+
+			world.accelerate(tilt);
+			if (log.isJump(i)) world.jump();
+			result = world.step(elapsed);
+		}
+
+		if (result != log.result || world.getDiamonds() != log.diamonds) {
+			return new Verdict(false, "claimed diamonds=" + log.diamonds + " result=" + log.result
+					+ " but replay gives", world.getDiamonds(), result);
+		}
+		return new Verdict(true, "ok", world.getDiamonds(), result);
+	}
+
+	/**
+	 * The density at which Android would have scaled the sprites to the
+	 * sizes in the log, on a canvas of a plausible size at that density,
+	 * or -1.
+	 */
+	static int density(RunLog log) {
+		for (int dpi : DENSITIES) {
+			if (log.ballWidth == scale(BALL_SIZE, dpi) && log.ballHeight == scale(BALL_SIZE, dpi)
+					&& log.craterWidth == scale(CRATER_WIDTH, dpi)
+					&& log.craterHeight == scale(CRATER_HEIGHT, dpi)
+					&& canvas(log.canvasWidth, dpi) && canvas(log.canvasHeight, dpi))
+				return dpi;
+		}
+		return -1;
+	}
+
+	/** Rounded like a BitmapDrawable scales its intrinsic size */
+	private static int scale(int size, int dpi) {
+		return (int) (size * dpi / 160.0f + 0.5f);
+	}
+
+	private static boolean canvas(int pixels, int dpi) {
+		float dp = pixels * 160.0f / dpi;
+		return dp >= MIN_CANVAS_DP && dp <= MAX_CANVAS_DP;
+	}
+
+	private static Verdict reject(String reason) {
+		return new Verdict(false, reason, 0, World.RESULT_RUNNING);
+	}
+}
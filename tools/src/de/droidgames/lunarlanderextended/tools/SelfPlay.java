@@ -0,0 +1,173 @@
+package de.droidgames.lunarlanderextended.tools;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import de.droidgames.lunarlanderextended.Bot;
+import de.droidgames.lunarlanderextended.GreedyBot;
+import de.droidgames.lunarlanderextended.PhysicsProfile;
+import de.droidgames.lunarlanderextended.World;
+
+/**
+ * Headless self-play: lets GreedyBot play many seeded games of the moon
+ * surface level on all cores and prints per-difficulty statistics. Since it
+ * runs nothing but World.step() it doubles as a throughput benchmark for the
+ * simulation.
+ *
+ * Runs on a desktop JVM, not on the device:
+ *
+ *   javac -d out src/de/droidgames/lunarlanderextended/{World,Vector2,FastMath,Fixed,ParallelUpdater,PhysicsProfile,GameEvents,Bot,GreedyBot}.java \
+ *       tools/src/de/droidgames/lunarlanderextended/tools/SelfPlay.java
+ *   java -cp out de.droidgames.lunarlanderextended.tools.SelfPlay [games] [seed]
+ */
+public class SelfPlay {
+	/** Sizes of res/drawable/ball.png and krater.png */
+	public static final int BALL_WIDTH = 71;
+	public static final int BALL_HEIGHT = 71;
+	public static final int CRATER_WIDTH = 149;
+	public static final int CRATER_HEIGHT = 56;
+
+	/** A typical landscape screen */
+	public static final int SCREEN_WIDTH = 480;
+	public static final int SCREEN_HEIGHT = 320;
+
+	/** One physics step per frame at 60 fps */
+	public static final float STEP = 1.0f / 60.0f;
+
+	/** Games still running after this many seconds count as timed out */
+	public static final float MAX_TIME = 300.0f;
+
+	/** Games per leaf task */
+	private static final int CHUNK = 16;
+
+	/**
+	 * Aggregated results of a range of games.
+	 */
+	static final class Stats {
+		int games;
+		int wins;
+		int losses;
+		int timeouts;
+		long diamonds;
+		long energyLost;
+		double winTime;
+		long steps;
+
+		void add(Stats o) {
+			games += o.games;
+			wins += o.wins;
+			losses += o.losses;
+			timeouts += o.timeouts;
+			diamonds += o.diamonds;
+			energyLost += o.energyLost;
+			winTime += o.winTime;
+			steps += o.steps;
+		}
+	}
+
+	/**
+	 * Plays games [from, to) and splits the range while it is larger than
+	 * CHUNK.
+	 */
+	static final class Games extends RecursiveTask<Stats> {
+		private static final long serialVersionUID = 1L;
+
+		private final int mDifficulty;
+		private final long mSeed;
+		private final int mFrom;
+		private final int mTo;
+
+		Games(int difficulty, long seed, int from, int to) {
+			mDifficulty = difficulty;
+			mSeed = seed;
+			mFrom = from;
+			mTo = to;
+		}
+
+		@Override
+		protected Stats compute() {
+			if (mTo - mFrom > CHUNK) {
+				int mid = (mFrom + mTo) >>> 1;
+				Games left = new Games(mDifficulty, mSeed, mFrom, mid);
+				left.fork();
+				Stats s = new Games(mDifficulty, mSeed, mid, mTo).compute();
+				s.add(left.join());
+				return s;
+			}
+
+			Stats s = new Stats();
+			for (int i = mFrom; i < mTo; i++)
+				play(mDifficulty, mSeed * 31 + i, s);
+			return s;
+		}
+	}
+
+	/**
+	 * Plays one game and adds its outcome to s.
+	 */
+	static void play(int difficulty, long seed, Stats s) {
+		final World world = new World(BALL_WIDTH, BALL_HEIGHT, CRATER_WIDTH, CRATER_HEIGHT);
+		world.setSize(SCREEN_WIDTH, SCREEN_HEIGHT);
+		world.setDifficulty(difficulty);
+		world.start(new Random(seed));
+
+		Bot bot = new GreedyBot();
+		Bot.Controls controls = new Bot.Controls() {
+			public void doAccelerate(float tiltAngle) {
+				world.accelerate(tiltAngle);
+			}
+
+			public void doJump() {
+				world.jump();
+			}
+		};
+
+		int result = World.RESULT_RUNNING;
+		float time = 0.0f;
+		long steps = 0;
+		while (result == World.RESULT_RUNNING && time < MAX_TIME) {
+			bot.think(world, STEP, controls);
+			result = world.step(STEP);
+			time += STEP;
+			steps++;
+		}
+
+		s.games++;
+		s.steps += steps;
+		s.diamonds += world.getDiamonds();
+		s.energyLost += (int) World.mTotalEnergy - world.getEnergy();
+		if (result == World.RESULT_WIN) {
+			s.wins++;
+			s.winTime += time;
+		} else if (result == World.RESULT_LOSE) {
+			s.losses++;
+		} else {
+			s.timeouts++;
+		}
+	}
+
+	public static void main(String[] args) {
+		int games = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+
+		ForkJoinPool pool = new ForkJoinPool();
+		System.out.println(games + " games per difficulty on "
+				+ pool.getParallelism() + " threads, seed " + seed);
+		System.out.println("difficulty   wins  losses timeouts  diamonds  energy-lost  win-time  steps/s");
+
+		for (int d = 0; d < PhysicsProfile.DIFFICULTIES; d++) {
+			long t0 = System.nanoTime();
+			Stats s = pool.invoke(new Games(d, seed, 0, games));
+			double secs = (System.nanoTime() - t0) / 1e9;
+
+			System.out.println(String.format("%-10s %6d %7d %8d %9.2f %12.2f %8.1fs %8.0f",
+					PhysicsProfile.difficultyName(d), s.wins, s.losses, s.timeouts,
+					(double) s.diamonds / s.games,
+					(double) s.energyLost / s.games,
+					s.wins > 0 ? s.winTime / s.wins : 0.0,
+					s.steps / secs));
+		}
+		pool.shutdown();
+	}
+}
@@ -0,0 +1,115 @@
+package de.droidgames.lunarlanderextended.tools;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.zip.GZIPInputStream;
+
+import de.droidgames.lunarlanderextended.Telemetry;
+
+/**
+ * Drives Telemetry from a number of threads at a fixed event rate each and
+ * reports the cost of emit(), how many events were dropped, and the size
+ * of the compressed files. Afterwards all files are read back: every event
+ * must be intact and the events of each thread in order.
+ *
+ *   javac -d out src/de/droidgames/lunarlanderextended/Telemetry.java \
+ *       tools/src/de/droidgames/lunarlanderextended/tools/TelemetryBench.java
+ *   java -cp out de.droidgames.lunarlanderextended.tools.TelemetryBench [threads] [events/s] [seconds]
+ */
+public class TelemetryBench {
+	public static void main(String[] args) throws Exception {
+		final int threads = args.length > 0 ? Integer.parseInt(args[0]) : 2;
+		final int rate = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+		final int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+		File dir = new File(System.getProperty("java.io.tmpdir"), "telemetry-bench");
+		String[] old = dir.list();
+		if (old != null) {
+			for (int i = 0; i < old.length; i++)
+				new File(dir, old[i]).delete();
+		}
+
+		final Telemetry telemetry = new Telemetry(dir);
+		telemetry.start();
+
+		final long[] emitNs = new long[threads];
+		final int[] emitted = new int[threads];
+		Thread[] producers = new Thread[threads];
+		for (int t = 0; t < threads; t++) {
+			final int id = t;
+			producers[t] = new Thread(new Runnable() {
+				public void run() {
+					long start = System.nanoTime();
+					long end = start + seconds * 1000000000L;
+					int n = 0;
+					long spent = 0;
+					while (true) {
+						long now = System.nanoTime();
+						if (now >= end) break;
+						// in bursts of one frame, like the game
+						long due = (now - start) * rate / 1000000000L;
+						for (; n < due; n++) {
+							long t0 = System.nanoTime();
+							telemetry.emit(Telemetry.EVENT_DIAMOND, id, n, n * 0.5f);
+							spent += System.nanoTime() - t0;
+						}
+						try {
+							Thread.sleep(16);
+						} catch (InterruptedException e) {
+						}
+					}
+					emitted[id] = n;
+					emitNs[id] = spent;
+				}
+			});
+			producers[t].start();
+		}
+		for (int t = 0; t < threads; t++)
+			producers[t].join();
+		telemetry.stop();
+
+		long total = 0;
+		long ns = 0;
+		for (int t = 0; t < threads; t++) {
+			total += emitted[t];
+			ns += emitNs[t];
+		}
+		long compressed = 0;
+		String[] names = dir.list();
+		for (int i = 0; i < names.length; i++)
+			compressed += new File(dir, names[i]).length();
+
+		System.out.println(String.format("%d threads x %d events/s for %d s: %d emitted, %d dropped, %.0f ns per emit",
+				threads, rate, seconds, total, telemetry.getDropped(), (double) ns / total));
+		System.out.println(String.format("%d files, %d bytes raw, %d compressed (%.1f bytes per event)",
+				names.length, telemetry.getWritten(), compressed, (double) compressed / total));
+
+		// read back
+		int[] next = new int[threads];
+		long read = 0;
+		for (int f = 0; f < names.length; f++) {
+			DataInputStream in = new DataInputStream(new GZIPInputStream(
+					new FileInputStream(new File(dir, names[f]))));
+			try {
+				while (true) {
+					in.readInt();
+					short type = in.readShort();
+					short a = in.readShort();
+					int b = in.readInt();
+					float x = in.readFloat();
+					read++;
+					if (type != Telemetry.EVENT_DIAMOND) continue;
+					if (b < next[a] || x != b * 0.5f)
+						throw new AssertionError("thread " + a + ": event " + b + " after " + next[a]);
+					next[a] = b + 1;
+				}
+			} catch (EOFException e) {
+			} finally {
+				in.close();
+			}
+		}
+		System.out.println("read back " + read + " events, in order");
+	}
+}